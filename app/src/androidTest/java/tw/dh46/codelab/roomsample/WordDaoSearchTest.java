@@ -0,0 +1,95 @@
+package tw.dh46.codelab.roomsample;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import tw.dh46.codelab.roomsample.database.Word;
+import tw.dh46.codelab.roomsample.database.WordDao;
+import tw.dh46.codelab.roomsample.database.WordRoomDatabase;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 全文檢索索引(word_fts)與word_table的同步及前綴搜尋
+ */
+@RunWith(AndroidJUnit4.class)
+public class WordDaoSearchTest {
+
+    private WordRoomDatabase mDatabase;
+    private WordDao mWordDao;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDatabase = Room.inMemoryDatabaseBuilder(context, WordRoomDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        mWordDao = mDatabase.wordDao();
+        mWordDao.insertAll(Arrays.asList(
+                new Word("apple"), new Word("Application"), new Word("big apple"), new Word("banana")));
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void searchWords_prefixMatchesAnyToken() {
+        String match = WordRepository.toPrefixMatch("app");
+        assertEquals(Arrays.asList("Application", "apple", "big apple"),
+                toStrings(mWordDao.searchWords(match, 10)));
+    }
+
+    @Test
+    public void searchWords_respectsLimit() {
+        assertEquals(1, mWordDao.searchWords("app*", 1).size());
+    }
+
+    @Test
+    public void searchPrefix_matchesWordStartInBothCases() {
+        mWordDao.insert(new Word("apply\u4e2d"));
+        assertEquals(Arrays.asList("Application", "apple", "apply\u4e2d"),
+                toStrings(mWordDao.searchPrefix("app", "App", 10)));
+        // 只看開頭，不比對單字中的其他字詞
+        assertEquals(Arrays.asList("banana", "big apple"),
+                toStrings(mWordDao.searchPrefix("b", "B", 10)));
+    }
+
+    @Test
+    public void searchPrefix_sameCaseDoesNotDuplicate() {
+        mWordDao.insert(new Word("2nd"));
+        assertEquals(Arrays.asList("2nd"), toStrings(mWordDao.searchPrefix("2", "2", 10)));
+    }
+
+    @Test
+    public void searchPrefix_respectsLimit() {
+        assertEquals(Arrays.asList("Application"), toStrings(mWordDao.searchPrefix("app", "App", 1)));
+    }
+
+    @Test
+    public void searchWords_followsDeletes() {
+        mWordDao.deleteAll();
+        assertEquals(0, mWordDao.searchWords("app*", 10).size());
+    }
+
+    private static List<String> toStrings(List<Word> words) {
+        List<String> result = new ArrayList<>();
+        for (Word word : words) {
+            result.add(word.getWord());
+        }
+        return result;
+    }
+}
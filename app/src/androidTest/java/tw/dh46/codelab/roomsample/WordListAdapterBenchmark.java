@@ -0,0 +1,176 @@
+package tw.dh46.codelab.roomsample;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.paging.PagedList;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import tw.dh46.codelab.roomsample.database.Word;
+import tw.dh46.codelab.roomsample.database.WordDao;
+import tw.dh46.codelab.roomsample.database.WordKeyedDataSource;
+import tw.dh46.codelab.roomsample.database.WordRoomDatabase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 量測在50k筆的列表中插入一個單字時，WordListAdapter的bind次數與主執行緒的layout時間。
+ * 結果會輸出到logcat (tag: WordListAdapterBenchmark)。
+ */
+@RunWith(AndroidJUnit4.class)
+public class WordListAdapterBenchmark {
+
+    private static final String TAG = "WordListAdapterBenchmark";
+    private static final int ROW_COUNT = 50_000;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private final Executor mDirectExecutor = Runnable::run;
+
+    private WordRoomDatabase mDatabase;
+    private WordDao mWordDao;
+    private CountingAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDatabase = Room.inMemoryDatabaseBuilder(context, WordRoomDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        mWordDao = mDatabase.wordDao();
+        mDatabase.runInTransaction(() -> {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                mWordDao.insert(new Word(String.format(Locale.US, "word%05d", i)));
+            }
+        });
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            mAdapter = new CountingAdapter(context);
+            mRecyclerView = new RecyclerView(context);
+            mRecyclerView.setLayoutManager(new LinearLayoutManager(context));
+            mRecyclerView.setAdapter(mAdapter);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void insertOneWord_bindsOnlyChangedRows() throws InterruptedException {
+        submitAndLayout(buildPagedList());
+
+        // 插入到已載入的第一頁中間
+        mWordDao.insert(new Word("word00010a"));
+        mAdapter.resetCounters();
+        long layoutNanos = submitAndLayout(buildPagedList());
+
+        Log.i(TAG, String.format(Locale.US,
+                "rows=%d binds=%d inserted=%d removed=%d changedAll=%d layout=%.2fms",
+                ROW_COUNT, mAdapter.mBindCount, mAdapter.mInsertedCount,
+                mAdapter.mRemovedCount, mAdapter.mDataSetChangedCount, layoutNanos / 1e6));
+
+        assertEquals(0, mAdapter.mDataSetChangedCount);
+        assertEquals(1, mAdapter.mInsertedCount);
+        // 只有新插入的那一列需要bind
+        assertTrue("binds=" + mAdapter.mBindCount, mAdapter.mBindCount <= 2);
+    }
+
+    private PagedList<Word> buildPagedList() {
+        PagedList.Config config = new PagedList.Config.Builder()
+                .setPageSize(50)
+                .setInitialLoadSizeHint(100)
+                .setEnablePlaceholders(false)
+                .build();
+        return new PagedList.Builder<>(new WordKeyedDataSource.Factory(mDatabase).create(), config)
+                .setFetchExecutor(mDirectExecutor)
+                .setNotifyExecutor(mDirectExecutor)
+                .build();
+    }
+
+    /**
+     * 送出新的PagedList，等背景緒的diff完成後在主執行緒做一次measure/layout
+     * @return layout花費的時間(ns)，約等於這次更新佔用的frame時間
+     */
+    private long submitAndLayout(PagedList<Word> pagedList) throws InterruptedException {
+        CountDownLatch committed = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> mAdapter.submitList(pagedList, committed::countDown));
+        assertTrue(committed.await(10, TimeUnit.SECONDS));
+
+        long[] elapsed = new long[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            long start = SystemClock.elapsedRealtimeNanos();
+            mRecyclerView.measure(
+                    View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+            mRecyclerView.layout(0, 0, WIDTH, HEIGHT);
+            elapsed[0] = SystemClock.elapsedRealtimeNanos() - start;
+        });
+        return elapsed[0];
+    }
+
+    /**
+     * 記錄bind次數與收到的通知種類
+     */
+    private static class CountingAdapter extends WordListAdapter {
+
+        int mBindCount;
+        int mInsertedCount;
+        int mRemovedCount;
+        int mDataSetChangedCount;
+
+        CountingAdapter(Context context) {
+            super(context);
+            registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    mDataSetChangedCount++;
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    mInsertedCount += itemCount;
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    mRemovedCount += itemCount;
+                }
+            });
+        }
+
+        void resetCounters() {
+            mBindCount = 0;
+            mInsertedCount = 0;
+            mRemovedCount = 0;
+            mDataSetChangedCount = 0;
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+            mBindCount++;
+            super.onBindViewHolder(holder, position);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package tw.dh46.codelab.roomsample.database;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.room.InvalidationTracker;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.disposables.Disposable;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 同一個資料庫檔案的兩個WordRoomDatabase實體 (模擬UI process與WordTransferService的process)
+ * - 一邊寫入，另一邊的InvalidationTracker與Flowable也要收到通知。
+ * - 通知經過Room的MultiInstanceInvalidationService，連線是非同步建立的，
+ * 所以會重複寫入直到收到通知或逾時。
+ */
+@RunWith(AndroidJUnit4.class)
+public class MultiInstanceInvalidationTest {
+
+    private static final String DATABASE_NAME = "multi_instance_test";
+    private static final long TIMEOUT_MS = 10_000;
+
+    private Context mContext;
+    private WordRoomDatabase mReader;
+    private WordRoomDatabase mWriter;
+    private int mNext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mReader = WordRoomDatabase.buildDatabase(mContext, DATABASE_NAME, SqliteProfile.BALANCED);
+        mWriter = WordRoomDatabase.buildDatabase(mContext, DATABASE_NAME, SqliteProfile.BALANCED);
+        // Room在開啟時才連上invalidation service
+        mReader.getOpenHelper().getWritableDatabase();
+        mWriter.getOpenHelper().getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mReader.close();
+        mWriter.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void writeFromOtherInstance_notifiesInvalidationTracker() throws InterruptedException {
+        CountDownLatch invalidated = new CountDownLatch(1);
+        InvalidationTracker.Observer observer = new InvalidationTracker.Observer("word_table") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidated.countDown();
+            }
+        };
+        mReader.getInvalidationTracker().addObserver(observer);
+        try {
+            assertTrue("no invalidation from the other instance", insertUntil(invalidated));
+        } finally {
+            mReader.getInvalidationTracker().removeObserver(observer);
+        }
+    }
+
+    @Test
+    public void writeFromOtherInstance_updatesFlowable() throws InterruptedException {
+        int initialCount = mReader.wordDao().countWords();
+        CountDownLatch updated = new CountDownLatch(1);
+        Disposable disposable = mReader.wordDao().observeWordCount()
+                .filter(count -> count > initialCount)
+                .subscribe(count -> updated.countDown());
+        try {
+            assertTrue("count not updated from the other instance", insertUntil(updated));
+        } finally {
+            disposable.dispose();
+        }
+    }
+
+    /**
+     * 從mWriter寫入，直到latch歸零
+     * @return 逾時前收到通知
+     */
+    private boolean insertUntil(CountDownLatch latch) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            mWriter.wordDao().insertAll(Collections.singletonList(new Word("multi-" + mNext++)));
+            if (latch.await(500, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
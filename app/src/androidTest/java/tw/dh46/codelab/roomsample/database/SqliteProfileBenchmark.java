@@ -0,0 +1,106 @@
+package tw.dh46.codelab.roomsample.database;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 比較不同SqliteProfile在持續寫入時的讀取延遲
+ * - 每個profile各自開一個檔案DB，先寫入SEED_ROWS筆
+ * - 背景緒不斷以WRITE_BATCH筆一批寫入 (模擬匯入)
+ * - 同時在測試緒做READS次分頁查詢，統計p50/p99
+ * 結果會輸出到logcat (tag: SqliteProfileBenchmark)。
+ * API 30以下的裝置PRAGMA只套用在寫入連線，讀取仍是系統預設值 (allConnections=false)，
+ * 比較讀取延遲時要在API 30以上的裝置執行。
+ */
+@RunWith(AndroidJUnit4.class)
+public class SqliteProfileBenchmark {
+
+    private static final String TAG = "SqliteProfileBenchmark";
+    private static final int SEED_ROWS = 20_000;
+    private static final int WRITE_BATCH = 500;
+    private static final int READS = 500;
+    private static final int PAGE_SIZE = 50;
+
+    @Test
+    public void readLatencyUnderConcurrentWrites() throws InterruptedException {
+        for (SqliteProfile profile : Arrays.asList(
+                SqliteProfile.DEFAULT, SqliteProfile.BALANCED, SqliteProfile.DURABLE)) {
+            long[] latencies = measure(profile);
+            Arrays.sort(latencies);
+            Log.i(TAG, String.format(Locale.US, "%s allConnections=%b p50=%.3fms p99=%.3fms max=%.3fms",
+                    profile, SqliteProfile.appliesToAllConnections(), percentile(latencies, 50) / 1e6,
+                    percentile(latencies, 99) / 1e6, latencies[latencies.length - 1] / 1e6));
+            assertTrue(latencies.length == READS);
+        }
+    }
+
+    private long[] measure(SqliteProfile profile) throws InterruptedException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        String name = "benchmark_" + profile.getName() + ".db";
+        context.deleteDatabase(name);
+        // 只比較profile本身，不經過instrumentation的Proxy
+        WordRoomDatabase.setQueryObserver(QueryObserver.NONE);
+        WordRoomDatabase db = WordRoomDatabase.buildDatabase(context, name, profile);
+        WordDao dao = db.wordDao();
+        try {
+            dao.insertAll(words(0, SEED_ROWS));
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            AtomicInteger next = new AtomicInteger(SEED_ROWS);
+            Thread writer = new Thread(() -> {
+                while (running.get()) {
+                    dao.insertAll(words(next.getAndAdd(WRITE_BATCH), WRITE_BATCH));
+                }
+            }, "benchmark-writer");
+            writer.start();
+
+            Random random = new Random(42);
+            long[] latencies = new long[READS];
+            for (int i = 0; i < READS; i++) {
+                String key = key(random.nextInt(SEED_ROWS));
+                long start = System.nanoTime();
+                dao.getPageFrom(key, PAGE_SIZE);
+                latencies[i] = System.nanoTime() - start;
+            }
+            running.set(false);
+            writer.join();
+            return latencies;
+        } finally {
+            db.close();
+            context.deleteDatabase(name);
+        }
+    }
+
+    private static List<Word> words(int from, int count) {
+        List<Word> words = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            words.add(new Word(key(i)));
+        }
+        return words;
+    }
+
+    private static String key(int i) {
+        return String.format(Locale.US, "word%08d", i);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
@@ -0,0 +1,109 @@
+package tw.dh46.codelab.roomsample;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+
+/**
+ * 列表右側的字母索引 (快速捲動)
+ * - 依WordSectionIndex畫出每個section，平均分配高度。
+ * - 按住或滑動時回報碰到的section，只在section改變時通知，由MainActivity跳轉列表。
+ */
+public class AlphabetIndexView extends View {
+
+    public interface OnSectionSelectedListener {
+        void onSectionSelected(int section);
+    }
+
+    private static final float TEXT_SIZE_SP = 12;
+
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private WordSectionIndex mIndex = WordSectionIndex.EMPTY;
+    private OnSectionSelectedListener mListener;
+    // 目前按住的section，沒有的話為-1
+    private int mSelectedSection = -1;
+
+    public AlphabetIndexView(Context context) {
+        this(context, null);
+    }
+
+    public AlphabetIndexView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        mPaint.setTextAlign(Paint.Align.CENTER);
+        mPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE_SP,
+                getResources().getDisplayMetrics()));
+    }
+
+    public void setSectionIndex(WordSectionIndex index) {
+        mIndex = index;
+        mSelectedSection = -1;
+        invalidate();
+    }
+
+    public void setOnSectionSelectedListener(@Nullable OnSectionSelectedListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int count = mIndex.getSectionCount();
+        if (count == 0) {
+            return;
+        }
+        float top = getPaddingTop();
+        float sectionHeight = (getHeight() - getPaddingTop() - getPaddingBottom()) / (float) count;
+        float x = getPaddingLeft() + (getWidth() - getPaddingLeft() - getPaddingRight()) / 2f;
+        // 文字垂直置中
+        float baseline = (sectionHeight - mPaint.descent() - mPaint.ascent()) / 2f;
+        for (int i = 0; i < count; i++) {
+            mPaint.setColor(i == mSelectedSection ? Color.BLACK : Color.GRAY);
+            mPaint.setFakeBoldText(i == mSelectedSection);
+            canvas.drawText(mIndex.getSection(i), x, top + sectionHeight * i + baseline, mPaint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        int count = mIndex.getSectionCount();
+        if (count == 0) {
+            return false;
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                float height = getHeight() - getPaddingTop() - getPaddingBottom();
+                int section = (int) ((event.getY() - getPaddingTop()) / height * count);
+                section = Math.max(0, Math.min(count - 1, section));
+                if (section != mSelectedSection) {
+                    mSelectedSection = section;
+                    invalidate();
+                    if (mListener != null) {
+                        mListener.onSectionSelected(section);
+                    }
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+                performClick();
+                // fall through
+            case MotionEvent.ACTION_CANCEL:
+                mSelectedSection = -1;
+                invalidate();
+                return true;
+            default:
+                return super.onTouchEvent(event);
+        }
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+}
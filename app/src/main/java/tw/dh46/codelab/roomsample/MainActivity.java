@@ -1,18 +1,26 @@
 package tw.dh46.codelab.roomsample;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.paging.PagedList;
+import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
+import android.widget.ProgressBar;
 import android.widget.Toast;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.google.android.material.snackbar.Snackbar;
 
 import java.util.List;
 
@@ -21,9 +29,19 @@ import tw.dh46.codelab.roomsample.database.Word;
 public class MainActivity extends AppCompatActivity {
 
     public static final int NEW_WORD_ACTIVITY_REQUEST_CODE = 1;
+    public static final int IMPORT_WORDS_REQUEST_CODE = 2;
+    public static final int EXPORT_WORDS_REQUEST_CODE = 3;
 
     private WordViewModel mWordViewModel;
     private WordListAdapter mWordListAdapter;
+    private LinearLayoutManager mLayoutManager;
+    private AlphabetIndexView mAlphabetIndexView;
+    private WordSectionIndex mSectionIndex = WordSectionIndex.EMPTY;
+    private boolean mSearching;
+    // 等待新的列表送來後要捲動到的單字 (字母索引跳轉)，沒有的話為null
+    private String mPendingJumpKey;
+    // 匯入與匯出共用
+    private ProgressBar mProgressBar;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -40,11 +58,50 @@ public class MainActivity extends AppCompatActivity {
      */
     private void initViewModel() {
         mWordViewModel = new ViewModelProvider(this).get(WordViewModel.class);
-        mWordViewModel.getAllWords().observe(this, new Observer<List<Word>>() {
+        mWordViewModel.getPagedWords().observe(this, new Observer<PagedList<Word>>() {
             @Override
-            public void onChanged(List<Word> words) {
-                // Update the cached copy of the words in the adapter.
-                mWordListAdapter.setWordList(words);
+            public void onChanged(PagedList<Word> words) {
+                // 交給adapter，只會持有已載入的頁面
+                // 列表真正更新後(commit callback)記錄啟動後第一次顯示單字的時間
+                // jumpTo()之後收到的第一個列表就是從key開始載入的列表
+                String jumpKey = mPendingJumpKey;
+                mPendingJumpKey = null;
+                mWordListAdapter.submitList(words, () -> {
+                    if (!words.isEmpty()) {
+                        StartupTrace.onFirstRow(words.size());
+                    }
+                    if (jumpKey != null) {
+                        scrollToJumpKey(jumpKey);
+                    }
+                });
+            }
+        });
+        mWordViewModel.getSectionIndex().observe(this, new Observer<WordSectionIndex>() {
+            @Override
+            public void onChanged(WordSectionIndex index) {
+                mSectionIndex = index;
+                mAlphabetIndexView.setSectionIndex(index);
+                updateAlphabetIndexVisibility();
+            }
+        });
+        mWordViewModel.getImportProgress().observe(this, new Observer<WordImporter.Progress>() {
+            @Override
+            public void onChanged(WordImporter.Progress progress) {
+                showImportProgress(progress);
+            }
+        });
+        mWordViewModel.getExportProgress().observe(this, new Observer<WordExporter.Progress>() {
+            @Override
+            public void onChanged(WordExporter.Progress progress) {
+                showExportProgress(progress);
+            }
+        });
+        mWordViewModel.getDeleteResult().observe(this, new Observer<WordViewModel.DeleteResult>() {
+            @Override
+            public void onChanged(WordViewModel.DeleteResult result) {
+                if (result != null && result.consume()) {
+                    showDeleteResult(result);
+                }
             }
         });
     }
@@ -53,7 +110,30 @@ public class MainActivity extends AppCompatActivity {
         mWordListAdapter = new WordListAdapter(this);
         RecyclerView recyclerView = findViewById(R.id.recyclerview);
         recyclerView.setAdapter(mWordListAdapter);
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        mLayoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(mLayoutManager);
+
+        mAlphabetIndexView = findViewById(R.id.alphabet_index);
+        mAlphabetIndexView.setOnSectionSelectedListener(
+                section -> jumpTo(mSectionIndex.getSection(section)));
+
+        // 左右滑動刪除單字
+        new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(0,
+                ItemTouchHelper.LEFT | ItemTouchHelper.RIGHT) {
+            @Override
+            public boolean onMove(@NonNull RecyclerView recyclerView,
+                                  @NonNull RecyclerView.ViewHolder viewHolder,
+                                  @NonNull RecyclerView.ViewHolder target) {
+                return false;
+            }
+
+            @Override
+            public void onSwiped(@NonNull RecyclerView.ViewHolder viewHolder, int direction) {
+                deleteWordAt(viewHolder.getAdapterPosition());
+            }
+        }).attachToRecyclerView(recyclerView);
+
+        mProgressBar = findViewById(R.id.progress_import);
 
         FloatingActionButton fabAdd = findViewById(R.id.fab);
         fabAdd.setOnClickListener(new View.OnClickListener() {
@@ -65,6 +145,239 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * 系統記憶體不足: 放掉列表與ViewModel中的快取，回到前景時再從資料庫載入 (見MemoryTrimPolicy)
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mWordListAdapter.trimMemory(level);
+        mWordViewModel.trimMemory(level);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main_menu, menu);
+
+        // 邊打字邊搜尋，debounce由ViewModel處理
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mWordViewModel.setSearchQuery(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mWordViewModel.setSearchQuery(newText);
+                // 搜尋結果不是完整的單字表，字母索引不適用
+                mSearching = !newText.trim().isEmpty();
+                updateAlphabetIndexVisibility();
+                return true;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // 匯入進行中時，同一個選項改成取消匯入
+        menu.findItem(R.id.action_import).setTitle(mWordViewModel.isImporting()
+                ? R.string.action_cancel_import : R.string.action_import);
+        menu.findItem(R.id.action_export).setTitle(mWordViewModel.isExporting()
+                ? R.string.action_cancel_export : R.string.action_export);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_import) {
+            if (mWordViewModel.isImporting()) {
+                mWordViewModel.cancelImport();
+            } else {
+                // 透過Storage Access Framework選擇要匯入的文字檔/CSV
+                Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType("text/*");
+                intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{
+                        "text/plain", "text/csv", "text/comma-separated-values"});
+                startActivityForResult(intent, IMPORT_WORDS_REQUEST_CODE);
+            }
+            return true;
+        }
+        if (item.getItemId() == R.id.action_export) {
+            if (mWordViewModel.isExporting()) {
+                mWordViewModel.cancelExport();
+            } else {
+                // 由使用者選擇存檔的位置
+                Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType("application/gzip");
+                intent.putExtra(Intent.EXTRA_TITLE, "words.csv.gz");
+                startActivityForResult(intent, EXPORT_WORDS_REQUEST_CODE);
+            }
+            return true;
+        }
+        if (item.getItemId() == R.id.action_export_report) {
+            // 查詢統計與Executor指標輸出成JSON檔
+            mWordViewModel.exportQueryReport(file -> Toast.makeText(this, file != null
+                    ? getString(R.string.report_exported, file.getAbsolutePath())
+                    : getString(R.string.report_failed), Toast.LENGTH_LONG).show());
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void updateAlphabetIndexVisibility() {
+        mAlphabetIndexView.setVisibility(!mSearching && mSectionIndex.getSectionCount() > 1
+                ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * 跳到第一個 >= key 的單字
+     * - 已經載入的範圍內就直接捲動；否則讓ViewModel從key開始載入新的列表，載入後再捲動。
+     * - 已載入的第一個單字之前可能還有沒載入的單字，所以要在第一個之後找到才算數。
+     * @param key
+     */
+    private void jumpTo(String key) {
+        int position = mWordListAdapter.findFirstPosition(key);
+        if (position > 0) {
+            mPendingJumpKey = null;
+            mLayoutManager.scrollToPositionWithOffset(position, 0);
+            return;
+        }
+        mPendingJumpKey = key;
+        mWordViewModel.jumpTo(key);
+    }
+
+    /**
+     * 從key開始載入的列表已經顯示 (submitList的commit callback)
+     */
+    private void scrollToJumpKey(String key) {
+        // 新的列表是以key為中心載入的，第一個 >= key 的單字一定已經載入
+        int position = mWordListAdapter.findFirstPosition(key);
+        if (position >= 0) {
+            mLayoutManager.scrollToPositionWithOffset(position, 0);
+        }
+    }
+
+    /**
+     * 刪除滑掉的單字，並提供undo
+     * - 刪除在背景執行，列表由資料庫的異動自動更新。
+     * - 結果由ViewModel的getDeleteResult()送回 (showDeleteResult)，
+     * 刪除期間Activity被重建也不會參考到舊的Activity。
+     * @param position
+     */
+    private void deleteWordAt(int position) {
+        if (position == RecyclerView.NO_POSITION) {
+            // ViewHolder已經不在列表中，沒有要還原的列
+            return;
+        }
+        Word word = mWordListAdapter.getWordAt(position);
+        if (word == null) {
+            // 還沒載入，把滑掉的列還原
+            mWordListAdapter.notifyItemChanged(position);
+            return;
+        }
+        mWordViewModel.deleteSwipedWord(word);
+    }
+
+    /**
+     * - 被刪除的單字(含id)只保留在Snackbar的callback裡，按下undo時原樣寫回。
+     * - 沒有刪除任何單字(已經被刪掉或刪除失敗)時，把滑掉的列還原。
+     * @param result
+     */
+    private void showDeleteResult(WordViewModel.DeleteResult result) {
+        if (result.failed) {
+            Toast.makeText(this, R.string.delete_failed, Toast.LENGTH_SHORT).show();
+        }
+        if (result.deleted.isEmpty()) {
+            restoreSwipedRow(result.word.getId());
+            return;
+        }
+        List<Word> deleted = result.deleted;
+        Snackbar.make(findViewById(R.id.recyclerview),
+                getString(R.string.word_deleted, result.word.getWord()), Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, view -> mWordViewModel.restoreWords(deleted))
+                .show();
+    }
+
+    /**
+     * 單字沒有被刪除，列表不會收到異動，要自己把滑掉的列畫回來
+     * - 刪除期間列表可能已經變動，以id(stable id)找出它現在的位置，不用滑動時的位置。
+     * @param id
+     */
+    private void restoreSwipedRow(long id) {
+        int position = mWordListAdapter.findPosition(id);
+        if (position >= 0) {
+            mWordListAdapter.notifyItemChanged(position);
+        }
+    }
+
+    private void showImportProgress(WordImporter.Progress progress) {
+        invalidateOptionsMenu();
+        if (progress == null) {
+            mProgressBar.setVisibility(View.GONE);
+            return;
+        }
+        if (!progress.isFinished()) {
+            int percent = progress.getPercent();
+            mProgressBar.setVisibility(View.VISIBLE);
+            mProgressBar.setIndeterminate(percent < 0);
+            mProgressBar.setProgress(Math.max(percent, 0));
+            return;
+        }
+
+        mProgressBar.setVisibility(View.GONE);
+        switch (progress.state) {
+            case COMPLETED:
+                Toast.makeText(this, getString(R.string.import_completed,
+                        progress.importedCount), Toast.LENGTH_SHORT).show();
+                break;
+            case CANCELLED:
+                Toast.makeText(this, getString(R.string.import_cancelled,
+                        progress.importedCount), Toast.LENGTH_SHORT).show();
+                break;
+            default:
+                Toast.makeText(this, R.string.import_failed, Toast.LENGTH_SHORT).show();
+                break;
+        }
+        // 結果只顯示一次，避免旋轉螢幕後重複跳出
+        mWordViewModel.clearImportProgress();
+    }
+
+    private void showExportProgress(WordExporter.Progress progress) {
+        invalidateOptionsMenu();
+        if (progress == null) {
+            mProgressBar.setVisibility(View.GONE);
+            return;
+        }
+        if (!progress.isFinished()) {
+            int percent = progress.getPercent();
+            mProgressBar.setVisibility(View.VISIBLE);
+            mProgressBar.setIndeterminate(percent < 0);
+            mProgressBar.setProgress(Math.max(percent, 0));
+            return;
+        }
+
+        mProgressBar.setVisibility(View.GONE);
+        switch (progress.state) {
+            case COMPLETED:
+                Toast.makeText(this, getString(R.string.export_completed,
+                        progress.exportedCount), Toast.LENGTH_SHORT).show();
+                break;
+            case CANCELLED:
+                Toast.makeText(this, R.string.export_cancelled, Toast.LENGTH_SHORT).show();
+                break;
+            default:
+                Toast.makeText(this, R.string.export_failed, Toast.LENGTH_SHORT).show();
+                break;
+        }
+        mWordViewModel.clearExportProgress();
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
@@ -78,6 +391,12 @@ public class MainActivity extends AppCompatActivity {
                 Toast.makeText(MainActivity.this,
                         R.string.empty_not_saved, Toast.LENGTH_SHORT).show();
             }
+        } else if (requestCode == IMPORT_WORDS_REQUEST_CODE
+                && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            mWordViewModel.importWords(data.getData());
+        } else if (requestCode == EXPORT_WORDS_REQUEST_CODE
+                && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            mWordViewModel.exportWords(data.getData());
         }
     }
 }
\ No newline at end of file
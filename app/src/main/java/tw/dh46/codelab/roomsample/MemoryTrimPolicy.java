@@ -0,0 +1,58 @@
+package tw.dh46.codelab.roomsample;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * 依系統的記憶體等級(ComponentCallbacks2.TRIM_MEMORY_*)決定快取保留多少
+ * - 前景執行時(RUNNING_*)只縮小快取，畫面上正在用的資料不動。
+ * - 進到背景(UI_HIDDEN)時先縮小一半，使用者很可能馬上回來。
+ * - 在背景的LRU中(BACKGROUND以上)才釋放全部單字的快取與已載入的頁面，回到前景時再從WordDao重新讀取；
+ * 越可能被系統終止保留越少，MODERATE/COMPLETE時全部釋放。
+ *
+ * 上限本身由各個快取自己決定 (例如R.integer.word_index_budget_kb)，這裡只決定比例。
+ */
+final class MemoryTrimPolicy {
+
+    private MemoryTrimPolicy() {
+    }
+
+    /**
+     * @param level ComponentCallbacks2.TRIM_MEMORY_*
+     * @param maxBudget 平常的上限 (bytes或筆數)
+     * @return 這個等級下應該保留的量
+     */
+    static long budgetFor(int level, long maxBudget) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return maxBudget / 4;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return maxBudget / 2;
+        }
+        return maxBudget;
+    }
+
+    /**
+     * 是否釋放整張表共用的Word (WordListLiveData.releaseCache，下一次查詢時才真正放掉)
+     * @param level
+     * @return
+     */
+    static boolean shouldReleaseSnapshot(int level) {
+        return level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+    }
+
+    /**
+     * 是否丟掉已載入的頁面；畫面看得到時不丟，避免列表閃爍
+     * @param level
+     * @return
+     */
+    static boolean shouldReleasePages(int level) {
+        return level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+    }
+}
@@ -0,0 +1,164 @@
+package tw.dh46.codelab.roomsample;
+
+import android.util.LruCache;
+import android.widget.TextView;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 預先在背景緒算好的單字排版 (PrecomputedText)
+ * - 文字的測量與排版是bind時最花時間的部分，原本快速捲動時全部在主執行緒進行。
+ * - 頁面載入後就在背景緒算好，bind時只要把結果交給TextView。
+ * - 以單字為key的LRU。結果只適用於相同的排版參數(字型、大小、斷行方式...)，
+ * 參數改變時(例如系統字型大小)整個清空。
+ * - 背景緒是低優先權的單一執行緒，前面可能還排著好幾頁的預先計算。
+ * 所以只有已經排進去的單字(pending)才等背景緒，其他沒算好的單字在bind時直接設定文字，
+ * 不會讓主執行緒在measure時等整個佇列。
+ *
+ * get/pending/prefetch可以在任何執行緒呼叫，updateParams只能在主執行緒。
+ */
+class PrecomputedTextCache {
+
+    private final LruCache<String, PrecomputedTextCompat> mCache;
+    private final Executor mExecutor;
+    // 已經排進背景緒、還沒算完的單字
+    private final Map<String, PendingText> mPending = new ConcurrentHashMap<>();
+    private volatile PrecomputedTextCompat.Params mParams;
+
+    /**
+     * @param maxEntries 最多保留幾個單字的排版
+     * @param executor 計算排版的背景緒
+     */
+    PrecomputedTextCache(int maxEntries, Executor executor) {
+        mCache = new LruCache<>(maxEntries);
+        mExecutor = executor;
+    }
+
+    /**
+     * 以TextView目前的排版參數為準，參數不同時清空
+     * @param textView
+     */
+    @MainThread
+    void updateParams(TextView textView) {
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(textView);
+        if (!params.equals(mParams)) {
+            mParams = params;
+            mCache.evictAll();
+            // 還沒開始的用不到了，背景緒看到參數改變會略過
+            mPending.clear();
+        }
+    }
+
+    /**
+     * @param word
+     * @return 已經算好的排版，沒有或參數已經不同時為null
+     */
+    @Nullable
+    PrecomputedTextCompat get(String word) {
+        PrecomputedTextCompat text = mCache.get(word);
+        if (text != null && !text.getParams().equals(mParams)) {
+            // 參數改變前就開始計算，清空之後才放進來的
+            mCache.remove(word);
+            return null;
+        }
+        return text;
+    }
+
+    /**
+     * 在背景緒預先計算 (已經有的或已經排進去的會略過)
+     * - 還不知道排版參數時(還沒建立任何一列)不做任何事。
+     * @param words
+     */
+    void prefetch(List<String> words) {
+        PrecomputedTextCompat.Params params = mParams;
+        if (params == null || words.isEmpty()) {
+            return;
+        }
+        List<PendingText> tasks = new ArrayList<>(words.size());
+        for (String word : words) {
+            if (mCache.get(word) != null) {
+                continue;
+            }
+            PendingText task = new PendingText(word, params);
+            if (mPending.putIfAbsent(word, task) == null) {
+                tasks.add(task);
+            }
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        mExecutor.execute(() -> {
+            for (PendingText task : tasks) {
+                if (params == mParams) {
+                    task.run();
+                } else {
+                    // 參數已經改變，算出來的也用不到
+                    task.cancel(false);
+                }
+                mPending.remove(task.mWord, task);
+            }
+        });
+    }
+
+    /**
+     * 已經排進背景緒、還沒算完的單字
+     * - 給AppCompatTextView.setTextFuture()使用，TextView在measure時才取結果。
+     * - 沒有排進去的單字回傳null，由呼叫端直接設定文字，不另外排進背景緒。
+     * @param word
+     * @return 以目前的排版參數計算中的結果，沒有時為null
+     */
+    @Nullable
+    Future<PrecomputedTextCompat> pending(String word) {
+        PendingText task = mPending.get(word);
+        if (task == null || task.mTextParams != mParams) {
+            return null;
+        }
+        return task;
+    }
+
+    void clear() {
+        mCache.evictAll();
+    }
+
+    /**
+     * 淘汰最久沒用到的排版，直到剩下maxEntries個 (記憶體不足時)，之後仍可再長回原本的上限
+     * @param maxEntries
+     */
+    void trimToSize(int maxEntries) {
+        mCache.trimToSize(maxEntries);
+    }
+
+    int size() {
+        return mCache.size();
+    }
+
+    /**
+     * 一個單字的預先計算，算完時放進快取
+     */
+    private class PendingText extends FutureTask<PrecomputedTextCompat> {
+
+        final String mWord;
+        final PrecomputedTextCompat.Params mTextParams;
+
+        PendingText(String word, PrecomputedTextCompat.Params params) {
+            super(() -> {
+                PrecomputedTextCompat text = PrecomputedTextCompat.create(word, params);
+                mCache.put(word, text);
+                return text;
+            });
+            mWord = word;
+            mTextParams = params;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package tw.dh46.codelab.roomsample;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 啟動時間的量測點
+ * - systrace/Perfetto中可以看到 "TimeToFirstRow" 這個async section，
+ * 從Application.onCreate到列表第一次顯示出單字。async section是API 29才有的，
+ * 之前的版本只有logcat。
+ * - 同時輸出到logcat (tag: StartupTrace)，不接profiler也能比較warm-up前後的差異。
+ */
+final class StartupTrace {
+
+    private static final String TAG = "StartupTrace";
+    private static final String TIME_TO_FIRST_ROW = "TimeToFirstRow";
+    private static final int COOKIE = 0x57524f57;
+
+    private static long sProcessStartMs;
+    private static final AtomicBoolean sFirstRowReported = new AtomicBoolean();
+
+    private StartupTrace() {
+    }
+
+    /**
+     * 在Application.onCreate最前面呼叫
+     */
+    static void markProcessStart() {
+        sProcessStartMs = SystemClock.elapsedRealtime();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(TIME_TO_FIRST_ROW, COOKIE);
+        }
+    }
+
+    /**
+     * 第一次有單字顯示在畫面上時呼叫，只有第一次有效
+     * @param rows 顯示的單字數量
+     */
+    static void onFirstRow(int rows) {
+        if (sProcessStartMs == 0 || !sFirstRowReported.compareAndSet(false, true)) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(TIME_TO_FIRST_ROW, COOKIE);
+        }
+        Log.i(TAG, "time-to-first-row=" + sinceStartMs() + "ms rows=" + rows);
+    }
+
+    /**
+     * 記錄一個啟動階段的完成時間
+     * @param stage
+     * @param durationMs 這個階段本身花的時間
+     */
+    static void logStage(String stage, long durationMs) {
+        Log.i(TAG, stage + " took " + durationMs + "ms, done at +" + sinceStartMs() + "ms");
+    }
+
+    private static long sinceStartMs() {
+        return SystemClock.elapsedRealtime() - sProcessStartMs;
+    }
+}
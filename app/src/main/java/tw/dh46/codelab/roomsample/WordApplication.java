@@ -0,0 +1,110 @@
+package tw.dh46.codelab.roomsample;
+
+import android.app.ActivityManager;
+import android.app.Application;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.core.os.TraceCompat;
+
+import java.util.List;
+
+import tw.dh46.codelab.roomsample.database.DatabaseExecutors;
+import tw.dh46.codelab.roomsample.database.InstrumentedExecutor;
+import tw.dh46.codelab.roomsample.database.QueryStats;
+import tw.dh46.codelab.roomsample.database.WordDao;
+import tw.dh46.codelab.roomsample.database.WordRoomDatabase;
+
+/**
+ * Application
+ * - 啟動時就在背景緒開啟資料庫並預先讀取第一個畫面的單字 (warm-up)。
+ * - 以前第一次getDatabase()是在WordViewModel建構時才發生，開檔、migration、callback與第一次查詢
+ * 都排在MainActivity.onCreate之後；現在這些工作與Activity的建立同時進行，
+ * 分頁的第一次載入時DB已經開好，SQLite的page cache也已經有第一頁的資料。
+ * - 可以用R.bool.warm_up_database關閉，比較前後的time-to-first-row (見StartupTrace)。
+ * - WordTransferService的process(:transfer)也會建立Application，那裡沒有UI，不做warm-up。
+ */
+public class WordApplication extends Application {
+
+    private static final String TAG = "WordApplication";
+    // 超過這個時間的SQL會輸出到logcat
+    private static final long SLOW_QUERY_MS = 50;
+
+    @Override
+    public void onCreate() {
+        StartupTrace.markProcessStart();
+        super.onCreate();
+        // 記錄所有查詢的時間，可從選單匯出報告 (必須在第一次getDatabase之前設定)
+        // 每一句SQL都會多經過一層Proxy，只在R.bool.record_query_stats開啟時使用
+        if (getResources().getBoolean(R.bool.record_query_stats)) {
+            WordRoomDatabase.setQueryObserver(new QueryStats(SLOW_QUERY_MS));
+        }
+        if (getResources().getBoolean(R.bool.warm_up_database) && isMainProcess()) {
+            DatabaseExecutors.get().reader()
+                    .execute(InstrumentedExecutor.tagged("WordApplication.warmUp", this::warmUp));
+        }
+    }
+
+    private boolean isMainProcess() {
+        String processName = getCurrentProcessName();
+        // 不知道的話當作主process，頂多多做一次warm-up
+        return processName == null || processName.equals(getPackageName());
+    }
+
+    @Nullable
+    private String getCurrentProcessName() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return Application.getProcessName();
+        }
+        ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        List<ActivityManager.RunningAppProcessInfo> processes =
+                activityManager != null ? activityManager.getRunningAppProcesses() : null;
+        if (processes == null) {
+            return null;
+        }
+        int pid = Process.myPid();
+        for (ActivityManager.RunningAppProcessInfo info : processes) {
+            if (info.pid == pid) {
+                return info.processName;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在讀取緒執行: 開啟DB，再讀取第一頁
+     */
+    private void warmUp() {
+        try {
+            long start = SystemClock.elapsedRealtime();
+            TraceCompat.beginSection("WordDatabase.open");
+            WordRoomDatabase db;
+            try {
+                db = WordRoomDatabase.getDatabase(this);
+                // Room是在第一次存取時才真正開檔 (包含migration與callback)
+                db.getOpenHelper().getWritableDatabase();
+            } finally {
+                TraceCompat.endSection();
+            }
+            long opened = SystemClock.elapsedRealtime();
+            StartupTrace.logStage("WordDatabase.open", opened - start);
+
+            TraceCompat.beginSection("WordDatabase.prefetch");
+            int rows;
+            try {
+                WordDao wordDao = db.wordDao();
+                rows = wordDao.getFirstPage(WordRepository.INITIAL_LOAD_SIZE).size();
+            } finally {
+                TraceCompat.endSection();
+            }
+            StartupTrace.logStage("WordDatabase.prefetch(" + rows + ")",
+                    SystemClock.elapsedRealtime() - opened);
+        } catch (RuntimeException e) {
+            // warm-up失敗不影響App，之後正常使用時會再開啟一次
+            Log.w(TAG, "warm-up failed", e);
+        }
+    }
+}
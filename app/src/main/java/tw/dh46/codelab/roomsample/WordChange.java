@@ -0,0 +1,38 @@
+package tw.dh46.codelab.roomsample;
+
+import androidx.annotation.NonNull;
+
+import tw.dh46.codelab.roomsample.database.Word;
+
+/**
+ * 單字表的一筆異動 (WordRepository寫入後產生，用來增量更新字母索引)
+ */
+public final class WordChange {
+
+    public enum Type {
+        INSERT, DELETE
+    }
+
+    public final Type type;
+    // 一定有id
+    public final Word word;
+
+    private WordChange(Type type, Word word) {
+        this.type = type;
+        this.word = word;
+    }
+
+    static WordChange inserted(Word word) {
+        return new WordChange(Type.INSERT, word);
+    }
+
+    static WordChange deleted(Word word) {
+        return new WordChange(Type.DELETE, word);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return type + " " + word.getId() + ":" + word.getWord();
+    }
+}
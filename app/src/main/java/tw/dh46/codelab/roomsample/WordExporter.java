@@ -0,0 +1,183 @@
+package tw.dh46.codelab.roomsample;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import tw.dh46.codelab.roomsample.database.Word;
+
+/**
+ * 將word_table匯出成gzip壓縮的CSV (一行一個單字，依a~z排序)
+ * - 以keyset分頁逐頁讀取 (WordRepository.PageLoader)，每頁是各自的短查詢，
+ * 不會開一個很長的讀取transaction卡住寫入，記憶體用量也只有一頁。
+ * - 寫入經過GZIPOutputStream與BufferedWriter的緩衝，才整塊寫進channel。
+ * - 每一頁回報一次進度，可以隨時cancel()。
+ * - 匯出期間的寫入可能會出現也可能不會，但每個單字最多只會出現一次。
+ *
+ * 一個WordExporter只能執行一次，而且必須在背景緒執行。
+ */
+public class WordExporter {
+
+    private static final String TAG = "WordExporter";
+
+    static final int PAGE_SIZE = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 匯出進度，每寫入一頁回報一次，結束時會再回報一次最終狀態。
+     */
+    public interface Listener {
+        void onProgress(@NonNull Progress progress);
+    }
+
+    private final WordRepository.PageLoader mLoader;
+    private volatile boolean mCancelled;
+
+    /**
+     * @param loader 讀取一頁單字 (在目前的執行緒查詢)
+     */
+    WordExporter(WordRepository.PageLoader loader) {
+        mLoader = loader;
+    }
+
+    /**
+     * 取消匯出，會在目前這一頁寫完後停止
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * 開始匯出，會阻塞直到寫完、取消或發生錯誤
+     * @param channel 呼叫端負責關閉
+     * @param totalCount 單字總數，只用於進度，未知時傳-1
+     * @param listener 在目前的執行緒被呼叫
+     */
+    public void run(WritableByteChannel channel, int totalCount, Listener listener) {
+        int exportedCount = 0;
+        try {
+            // 不關閉stream，channel由呼叫端關閉；finish()寫出gzip的結尾
+            GZIPOutputStream gzip = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), BUFFER_SIZE);
+            String afterKey = null;
+            List<Word> page;
+            do {
+                page = mLoader.load(afterKey, PAGE_SIZE);
+                for (Word word : page) {
+                    writeCsvField(writer, word.getWord());
+                    writer.write('\n');
+                }
+                exportedCount += page.size();
+                if (!page.isEmpty()) {
+                    afterKey = page.get(page.size() - 1).getWord();
+                    listener.onProgress(new Progress(Progress.State.RUNNING, exportedCount, totalCount));
+                }
+            } while (!mCancelled && page.size() == PAGE_SIZE);
+            writer.flush();
+            gzip.finish();
+        } catch (IOException | RuntimeException e) {
+            // 例如SQLiteException，一樣要回報最終狀態，否則UI會一直停在進行中
+            Log.e(TAG, "export failed", e);
+            listener.onProgress(new Progress(Progress.State.FAILED, exportedCount, totalCount));
+            return;
+        }
+        Progress.State state = mCancelled ? Progress.State.CANCELLED : Progress.State.COMPLETED;
+        listener.onProgress(new Progress(state, exportedCount, totalCount));
+    }
+
+    /**
+     * 寫入一個CSV欄位 (RFC 4180)
+     * - 含有逗號、雙引號、換行，或是開頭結尾有空白、以#開頭時，以雙引號包住，內容的雙引號寫成兩個。
+     * - 一般的單字原樣寫出，WordImporter可以直接讀回。
+     * @param writer
+     * @param field
+     */
+    static void writeCsvField(Writer writer, String field) throws IOException {
+        if (!needsQuotes(field)) {
+            writer.write(field);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private static boolean needsQuotes(String field) {
+        if (field.isEmpty()) {
+            return false;
+        }
+        if (field.charAt(0) == '#' || Character.isWhitespace(field.charAt(0))
+                || Character.isWhitespace(field.charAt(field.length() - 1))) {
+            return true;
+        }
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 匯出進度
+     */
+    public static class Progress {
+
+        public enum State {
+            RUNNING, COMPLETED, CANCELLED, FAILED
+        }
+
+        public final State state;
+        public final int exportedCount;
+        // 未知時為-1
+        public final int totalCount;
+
+        Progress(State state, int exportedCount, int totalCount) {
+            this.state = state;
+            this.exportedCount = exportedCount;
+            this.totalCount = totalCount;
+        }
+
+        /**
+         * 無法開始匯出(例如檔案打不開)
+         */
+        static Progress failed() {
+            return new Progress(State.FAILED, 0, -1);
+        }
+
+        public boolean isFinished() {
+            return state != State.RUNNING;
+        }
+
+        /**
+         * @return 0~100，不知道總數時回傳-1
+         */
+        public int getPercent() {
+            if (totalCount <= 0) {
+                return -1;
+            }
+            return (int) Math.min(100, exportedCount * 100L / totalCount);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package tw.dh46.codelab.roomsample;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import tw.dh46.codelab.roomsample.database.InstrumentedExecutor;
+import tw.dh46.codelab.roomsample.database.Word;
+
+/**
+ * 從文字檔/CSV匯入單字
+ * - 一行一行讀取 (BufferedReader)，不會把整個檔案讀進記憶體。
+ * - CSV只取第一個欄位，空白行與#開頭的註解行會被略過。
+ * 以雙引號包住的欄位依RFC 4180讀取 (""代表一個雙引號)，WordExporter匯出的檔案可以原樣讀回；
+ * 一個欄位不能跨行。
+ * - 每CHUNK_SIZE個單字寫入一次 (一個transaction)，記憶體用量與檔案大小無關。
+ * 每一批都交給寫入緒執行並等待完成，其他寫入可以穿插在批次之間。
+ * - 同一批之內的重複單字先在記憶體中去除；不同批之間、與資料庫中已存在的重複
+ * 由unique index與OnConflictStrategy.IGNORE處理，不計入匯入筆數。
+ * 不保留整個檔案的單字集合，否則記憶體用量會隨檔案大小成長。
+ * - 可以隨時cancel()，已寫入的批次會保留。
+ *
+ * 一個WordImporter只能執行一次，而且必須在背景緒執行。
+ */
+public class WordImporter {
+
+    private static final String TAG = "WordImporter";
+
+    static final int CHUNK_SIZE = 2000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char BOM = '\uFEFF';
+
+    /**
+     * 匯入進度，每寫入一批回報一次，結束時會再回報一次最終狀態。
+     */
+    public interface Listener {
+        void onProgress(@NonNull Progress progress);
+    }
+
+    private final WordInsertBatcher.Writer mWriter;
+    private final Executor mWriteExecutor;
+    private volatile boolean mCancelled;
+
+    /**
+     * @param writer 實際寫入的動作 (WordTransferRepository直接交給WordDao.insertAll)
+     * @param writeExecutor 執行寫入的執行緒 (DatabaseExecutors的寫入緒)
+     */
+    WordImporter(WordInsertBatcher.Writer writer, Executor writeExecutor) {
+        mWriter = writer;
+        mWriteExecutor = writeExecutor;
+    }
+
+    /**
+     * 取消匯入，會在目前這一批寫完後停止
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * 開始匯入，會阻塞直到讀完、取消或發生錯誤
+     * @param inputStream 呼叫端負責關閉
+     * @param totalBytes 檔案大小，未知時傳-1
+     * @param listener 在目前的執行緒被呼叫
+     */
+    public void run(InputStream inputStream, long totalBytes, Listener listener) {
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(countingStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+
+        List<Word> chunk = new ArrayList<>(CHUNK_SIZE);
+        Set<String> seenInChunk = new HashSet<>(CHUNK_SIZE * 2);
+        int importedCount = 0;
+        try {
+            String line;
+            while (!mCancelled && (line = reader.readLine()) != null) {
+                String word = normalize(line);
+                if (word == null || !seenInChunk.add(word)) {
+                    continue;
+                }
+                chunk.add(new Word(word));
+                if (chunk.size() == CHUNK_SIZE) {
+                    importedCount += writeChunk(chunk);
+                    seenInChunk.clear();
+                    listener.onProgress(new Progress(Progress.State.RUNNING,
+                            countingStream.mCount, totalBytes, importedCount));
+                }
+            }
+            if (!mCancelled && !chunk.isEmpty()) {
+                importedCount += writeChunk(chunk);
+            }
+        } catch (IOException | RuntimeException e) {
+            // 例如SQLiteException，一樣要回報最終狀態，否則UI會一直停在進行中
+            Log.e(TAG, "import failed", e);
+            listener.onProgress(new Progress(Progress.State.FAILED,
+                    countingStream.mCount, totalBytes, importedCount));
+            return;
+        }
+        Progress.State state = mCancelled ? Progress.State.CANCELLED : Progress.State.COMPLETED;
+        listener.onProgress(new Progress(state, countingStream.mCount, totalBytes, importedCount));
+    }
+
+    /**
+     * 寫入一批並清空
+     * @return 實際新增的筆數
+     */
+    private int writeChunk(List<Word> chunk) throws IOException {
+        FutureTask<List<Long>> task = new FutureTask<>(() -> mWriter.insertAll(chunk));
+        mWriteExecutor.execute(InstrumentedExecutor.tagged("WordDao.insertAll", task));
+        List<Long> rowIds;
+        try {
+            rowIds = task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("cannot write words", e.getCause());
+        }
+
+        int inserted = 0;
+        for (Long rowId : rowIds) {
+            if (rowId != -1L) {
+                inserted++;
+            }
+        }
+        chunk.clear();
+        return inserted;
+    }
+
+    /**
+     * 將一行文字轉成單字
+     * - 去除BOM、前後空白
+     * - CSV取第一個欄位，並去除包住欄位的雙引號，欄位中的""換回一個雙引號
+     * @param line
+     * @return 不是單字(空白行、註解)時回傳null
+     */
+    @Nullable
+    static String normalize(String line) {
+        int start = 0;
+        int end = line.length();
+        if (end > 0 && line.charAt(0) == BOM) {
+            start++;
+        }
+        while (start < end && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        if (start == end || line.charAt(start) == '#') {
+            return null;
+        }
+
+        if (line.charAt(start) == '"') {
+            String field = unquote(line, start + 1);
+            return trim(field, 0, field.length());
+        }
+        int comma = line.indexOf(',', start);
+        if (comma != -1) {
+            end = comma;
+        }
+        return trim(line, start, end);
+    }
+
+    /**
+     * 讀取以雙引號包住的欄位，到下一個單獨的雙引號為止 (沒有結尾的引號時讀到行尾)
+     * @param line
+     * @param start 開頭引號的下一個字元
+     */
+    private static String unquote(String line, int start) {
+        int closingQuote = line.indexOf('"', start);
+        if (closingQuote == -1) {
+            return line.substring(start);
+        }
+        if (closingQuote + 1 >= line.length() || line.charAt(closingQuote + 1) != '"') {
+            // 大多數的欄位沒有跳脫的引號，不需要StringBuilder
+            return line.substring(start, closingQuote);
+        }
+        StringBuilder field = new StringBuilder(line.length() - start);
+        int i = start;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i += 2;
+                    continue;
+                }
+                break;
+            }
+            field.append(c);
+            i++;
+        }
+        return field.toString();
+    }
+
+    /**
+     * 去除[start, end)前後的空白
+     * @return 沒有剩下任何字元時回傳null
+     */
+    @Nullable
+    private static String trim(String line, int start, int end) {
+        while (start < end && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        return start == end ? null : line.substring(start, end);
+    }
+
+    /**
+     * 匯入進度
+     */
+    public static class Progress {
+
+        public enum State {
+            RUNNING, COMPLETED, CANCELLED, FAILED
+        }
+
+        public final State state;
+        public final long bytesRead;
+        // 未知時為-1
+        public final long totalBytes;
+        public final int importedCount;
+
+        Progress(State state, long bytesRead, long totalBytes, int importedCount) {
+            this.state = state;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.importedCount = importedCount;
+        }
+
+        /**
+         * 無法開始匯入(例如檔案打不開)
+         */
+        static Progress failed() {
+            return new Progress(State.FAILED, 0, -1, 0);
+        }
+
+        public boolean isFinished() {
+            return state != State.RUNNING;
+        }
+
+        /**
+         * @return 0~100，不知道檔案大小時回傳-1
+         */
+        public int getPercent() {
+            if (totalBytes <= 0) {
+                return -1;
+            }
+            return (int) Math.min(100, bytesRead * 100 / totalBytes);
+        }
+    }
+
+    /**
+     * 計算已讀取的位元組數，用來回報進度
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                mCount += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package tw.dh46.codelab.roomsample;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * 記憶體中「已知存在」的單字索引
+ * - 只記錄確定在word_table中的單字: contains()為true時一定存在，為false時則不確定，要再查DB。
+ * - 單字依String.compareTo排序，緊密地接在同一個char[]中，另外記錄每個單字的起始位置，
+ * 每個單字只多約4 bytes (不是每個單字一個String加上Map.Entry)，查詢用二分搜尋。
+ * - 新加入的單字先放在小的暫存區，累積PENDING_LIMIT個才合併進char[]，不會每次加入都重建。
+ * - 以預估的記憶體用量為上限，超過時淘汰最近沒有被查到的單字 (clock，近似LRU)，
+ * 一次淘汰到上限的3/4，不會接近上限後每次加入都重建。
+ * - 所有方法都是執行緒安全的。
+ *
+ * 由WordRepository負責維持與資料庫一致: 自己寫入後加入、刪除後移除，
+ * 其他來源的異動 (見WordWriteTracker) 時整個清空。
+ * - 查DB與加入之間可能剛好被清空或移除，這時要用add(word, generation)，
+ * 之前查到的結果不會再被加回來。
+ */
+class WordIndex {
+
+    // 暫存區最多的單字數，超過就合併進char[]
+    private static final int PENDING_LIMIT = 512;
+    // 暫存區每個單字的大約負擔: String物件 + char陣列 + TreeMap.Entry
+    private static final int PENDING_OVERHEAD_BYTES = 96;
+    // char[]中每個單字的負擔: 起始位置(int)，加上移除與clock各1 bit
+    private static final int PACKED_OVERHEAD_BYTES = 4;
+    private static final char[] EMPTY_CHARS = new char[0];
+    private static final int[] EMPTY_STARTS = {0};
+
+    private final long mMaxBytes;
+    // 第i個單字是mChars[mStarts[i], mStarts[i + 1])
+    private char[] mChars = EMPTY_CHARS;
+    private int[] mStarts = EMPTY_STARTS;
+    private int mCount;
+    // 已經移除的單字，下次合併時才真正從char[]拿掉
+    private BitSet mRemoved = new BitSet();
+    private int mRemovedCount;
+    // 上次淘汰之後被查到過的單字
+    private BitSet mReferenced = new BitSet();
+    private final TreeSet<String> mPending = new TreeSet<>();
+    private long mPendingBytes;
+    // 每次clear()或remove()加1
+    private long mGeneration;
+
+    /**
+     * @param maxBytes 預估記憶體用量的上限
+     */
+    WordIndex(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    synchronized boolean contains(String word) {
+        if (mPending.contains(word)) {
+            return true;
+        }
+        int index = find(word);
+        if (index < 0 || mRemoved.get(index)) {
+            return false;
+        }
+        mReferenced.set(index);
+        return true;
+    }
+
+    synchronized void add(String word) {
+        int index = find(word);
+        if (index >= 0) {
+            if (mRemoved.get(index)) {
+                mRemoved.clear(index);
+                mRemovedCount--;
+            }
+            mReferenced.set(index);
+            return;
+        }
+        if (!mPending.add(word)) {
+            return;
+        }
+        mPendingBytes += PENDING_OVERHEAD_BYTES + 2L * word.length();
+        if (mPending.size() >= PENDING_LIMIT) {
+            compact(Long.MAX_VALUE);
+        }
+        if (getEstimatedBytes() > mMaxBytes) {
+            trimTo(mMaxBytes / 4 * 3);
+        }
+    }
+
+    /**
+     * 只有在generation之後沒有被清空或移除過才加入
+     * @param word
+     * @param generation 查DB之前取得的generation()
+     */
+    synchronized void add(String word, long generation) {
+        if (generation == mGeneration) {
+            add(word);
+        }
+    }
+
+    /**
+     * @return 目前的版本，每次clear()、remove()都會改變
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    synchronized void addAll(Collection<String> words) {
+        for (String word : words) {
+            add(word);
+        }
+    }
+
+    /**
+     * 移除單字，同時讓查DB之前取得的generation失效 (查到的可能正是被刪除的單字)
+     * @param word
+     */
+    synchronized void remove(String word) {
+        mGeneration++;
+        if (mPending.remove(word)) {
+            mPendingBytes -= PENDING_OVERHEAD_BYTES + 2L * word.length();
+            return;
+        }
+        int index = find(word);
+        if (index >= 0 && !mRemoved.get(index)) {
+            mRemoved.set(index);
+            mRemovedCount++;
+        }
+    }
+
+    synchronized void clear() {
+        mChars = EMPTY_CHARS;
+        mStarts = EMPTY_STARTS;
+        mCount = 0;
+        mRemoved = new BitSet();
+        mRemovedCount = 0;
+        mReferenced = new BitSet();
+        mPending.clear();
+        mPendingBytes = 0;
+        mGeneration++;
+    }
+
+    /**
+     * 淘汰單字，直到用量不超過maxBytes
+     * - 先保留上次淘汰之後被查到過的單字，剩下的空間再依順序保留其他單字。
+     * @param maxBytes
+     */
+    synchronized void trimTo(long maxBytes) {
+        if (getEstimatedBytes() > maxBytes) {
+            compact(maxBytes);
+        }
+    }
+
+    synchronized int size() {
+        return mCount - mRemovedCount + mPending.size();
+    }
+
+    synchronized long getEstimatedBytes() {
+        return 2L * mChars.length + (long) PACKED_OVERHEAD_BYTES * mCount + mPendingBytes;
+    }
+
+    /**
+     * 把暫存區合併進char[]並拿掉已經移除的單字，用量超過maxBytes時一併淘汰
+     * - 暫存區的單字都是最近加入的，視為被查到過。
+     */
+    private void compact(long maxBytes) {
+        long referencedBytes = 0;
+        long otherBytes = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (!mRemoved.get(i)) {
+                long bytes = packedBytes(mStarts[i + 1] - mStarts[i]);
+                if (mReferenced.get(i)) {
+                    referencedBytes += bytes;
+                } else {
+                    otherBytes += bytes;
+                }
+            }
+        }
+        for (String word : mPending) {
+            referencedBytes += packedBytes(word.length());
+        }
+        // 有剩下的空間才保留沒被查到過的單字，被查到過的超過上限時也要淘汰
+        long otherBudget = Math.max(0, maxBytes - referencedBytes);
+        long referencedBudget = Math.min(referencedBytes, maxBytes);
+        boolean keepAll = referencedBytes + otherBytes <= maxBytes;
+
+        int capacity = mCount - mRemovedCount + mPending.size();
+        int[] starts = new int[capacity + 1];
+        char[] chars = new char[mChars.length + pendingChars()];
+        BitSet referencedAfter = new BitSet();
+        int count = 0;
+        int length = 0;
+        Iterator<String> pending = mPending.iterator();
+        String next = pending.hasNext() ? pending.next() : null;
+        int i = 0;
+        while (i < mCount || next != null) {
+            int wordLength;
+            boolean referenced;
+            boolean fromPending = i >= mCount || (next != null && compare(next, i) < 0);
+            if (fromPending) {
+                wordLength = next.length();
+                referenced = true;
+            } else if (mRemoved.get(i)) {
+                i++;
+                continue;
+            } else {
+                wordLength = mStarts[i + 1] - mStarts[i];
+                referenced = mReferenced.get(i);
+            }
+            boolean keep = keepAll;
+            if (!keep) {
+                long bytes = packedBytes(wordLength);
+                if (referenced && referencedBudget >= bytes) {
+                    referencedBudget -= bytes;
+                    keep = true;
+                } else if (!referenced && otherBudget >= bytes) {
+                    otherBudget -= bytes;
+                    keep = true;
+                }
+            }
+            if (keep) {
+                if (fromPending) {
+                    next.getChars(0, wordLength, chars, length);
+                } else {
+                    System.arraycopy(mChars, mStarts[i], chars, length, wordLength);
+                }
+                length += wordLength;
+                if (keepAll && referenced) {
+                    referencedAfter.set(count);
+                }
+                count++;
+                starts[count] = length;
+            }
+            if (fromPending) {
+                next = pending.hasNext() ? pending.next() : null;
+            } else {
+                i++;
+            }
+        }
+
+        if (count == 0) {
+            mChars = EMPTY_CHARS;
+            mStarts = EMPTY_STARTS;
+        } else {
+            mChars = length == chars.length ? chars : Arrays.copyOf(chars, length);
+            mStarts = count == capacity ? starts : Arrays.copyOf(starts, count + 1);
+        }
+        mCount = count;
+        mRemoved = new BitSet();
+        mRemovedCount = 0;
+        // 有淘汰時重新開始記錄 (clock轉了一圈)，只是合併時保留，下次淘汰仍優先保留
+        mReferenced = referencedAfter;
+        mPending.clear();
+        mPendingBytes = 0;
+    }
+
+    private int pendingChars() {
+        int chars = 0;
+        for (String word : mPending) {
+            chars += word.length();
+        }
+        return chars;
+    }
+
+    private static long packedBytes(int length) {
+        return PACKED_OVERHEAD_BYTES + 2L * length;
+    }
+
+    /**
+     * @return char[]中的位置，找不到時回傳負數
+     */
+    private int find(String word) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = compare(word, mid);
+            if (result > 0) {
+                low = mid + 1;
+            } else if (result < 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 與String.compareTo相同的順序
+     */
+    private int compare(String word, int index) {
+        int start = mStarts[index];
+        int length = mStarts[index + 1] - start;
+        int n = Math.min(word.length(), length);
+        for (int k = 0; k < n; k++) {
+            char c = word.charAt(k);
+            char other = mChars[start + k];
+            if (c != other) {
+                return c - other;
+            }
+        }
+        return word.length() - length;
+    }
+}
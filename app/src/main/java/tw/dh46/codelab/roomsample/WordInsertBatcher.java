@@ -0,0 +1,234 @@
+package tw.dh46.codelab.roomsample;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import tw.dh46.codelab.roomsample.database.InstrumentedExecutor;
+import tw.dh46.codelab.roomsample.database.Word;
+
+/**
+ * 批次寫入
+ * - 呼叫端送進來的單字先放到pending，由寫入緒一次取出，合併成同一個transaction寫入。
+ * - 寫入緒正在忙(上一批還在寫)的期間送進來的單字，會在下一次一起寫入 (group commit)，
+ * 所以寫入越密集，每個transaction合併的單字就越多，不需要額外的等待時間。
+ * - 一個transaction最多MAX_BATCH_SIZE個單字，避免一次鎖住資料庫太久。
+ * - 有WordWriteJournal時，送進來的單字先交給日誌；整批都commit之後才從日誌刪除，
+ * process在這之間被終止的話，下次啟動的第一次drain (recover()) 會把日誌中的單字重新寫入。
+ * enqueue的呼叫端只是把單字排進日誌執行緒的佇列，不做I/O。
+ * - 有單字沒有記錄到日誌時 (日誌無法使用)，這次drain的每個callback都會先收到onNotJournaled。
+ * - Writer拋出例外時，這次drain取出的每個callback都會收到onFailure (不會有等不到的callback)，
+ * 這些單字的日誌直接刪除，不會在下次啟動時重新寫入 (每個單字最多寫入一次)。
+ */
+class WordInsertBatcher {
+
+    private static final String TAG = "WordInsertBatcher";
+
+    static final int MAX_BATCH_SIZE = 5000;
+
+    /**
+     * 實際寫入資料庫的動作，通常是WordDao::insertAll
+     */
+    interface Writer {
+        /**
+         * @return 每個單字的rowId，已存在而被忽略的為-1
+         * @throws RuntimeException 寫入失敗，整個transaction都沒有寫入
+         */
+        List<Long> insertAll(List<Word> words);
+    }
+
+    private final Writer mWriter;
+    private final Executor mWriteExecutor;
+    private final Executor mCallbackExecutor;
+    @Nullable
+    private final WordWriteJournal.Stream mJournal;
+
+    private final Object mLock = new Object();
+    private List<PendingInsert> mPending = new ArrayList<>();
+    private boolean mDrainScheduled;
+
+    /**
+     * @param writer 寫入資料庫的動作
+     * @param writeExecutor 執行寫入的背景緒
+     * @param callbackExecutor 執行完成callback的執行緒
+     */
+    WordInsertBatcher(Writer writer, Executor writeExecutor, Executor callbackExecutor) {
+        this(writer, writeExecutor, callbackExecutor, null);
+    }
+
+    /**
+     * @param writer 寫入資料庫的動作
+     * @param writeExecutor 執行寫入的背景緒
+     * @param callbackExecutor 執行完成callback的執行緒
+     * @param journal 寫入前的日誌，只給這個batcher使用，null代表不使用
+     */
+    WordInsertBatcher(Writer writer, Executor writeExecutor, Executor callbackExecutor,
+                      @Nullable WordWriteJournal.Stream journal) {
+        mWriter = writer;
+        mWriteExecutor = writeExecutor;
+        mCallbackExecutor = callbackExecutor;
+        mJournal = journal;
+    }
+
+    /**
+     * 安排一次drain，把上次沒有寫入的日誌(如果有的話)重新寫入。啟動時呼叫一次。
+     */
+    void recover() {
+        synchronized (mLock) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * 排入待寫入的單字，可以在任何執行緒呼叫，不會等待寫入完成。
+     * @param words
+     * @param callback 寫入完成後呼叫，可為null
+     */
+    void enqueue(List<Word> words, @Nullable WordRepository.InsertCallback callback) {
+        synchronized (mLock) {
+            // 與取出pending(drain)互斥，日誌中的順序與pending一致 (只是排進佇列，不做I/O)
+            if (mJournal != null) {
+                mJournal.append(words);
+            }
+            mPending.add(new PendingInsert(words, callback));
+            scheduleDrain();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (!mDrainScheduled) {
+            mDrainScheduled = true;
+            try {
+                mWriteExecutor.execute(InstrumentedExecutor.tagged("WordDao.insertAll", this::drain));
+            } catch (RuntimeException e) {
+                // 沒排進去(例如RejectedExecutionException)，下一次enqueue要能再安排；
+                // 已經在pending中的單字會跟著下一次drain寫入
+                mDrainScheduled = false;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 在寫入緒執行: 取出目前所有pending的單字，分批寫入
+     */
+    private void drain() {
+        List<PendingInsert> requests;
+        WordWriteJournal.PendingCheckpoint pendingCheckpoint = null;
+        synchronized (mLock) {
+            requests = mPending;
+            mPending = new ArrayList<>();
+            mDrainScheduled = false;
+            // 之後的單字寫到新的segment，這次取出的單字都在checkpoint之前
+            if (mJournal != null) {
+                pendingCheckpoint = mJournal.checkpoint();
+            }
+        }
+        WordWriteJournal.Checkpoint checkpoint = null;
+        int recoveredCount = 0;
+        if (pendingCheckpoint != null) {
+            // 在lock之外等待日誌執行緒，enqueue不會被擋住
+            checkpoint = pendingCheckpoint.await();
+            IOException error = checkpoint.getError();
+            if (error != null) {
+                for (PendingInsert request : requests) {
+                    WordRepository.InsertCallback callback = request.mCallback;
+                    if (callback != null) {
+                        mCallbackExecutor.execute(() -> callback.onNotJournaled(error));
+                    }
+                }
+            }
+            // 上次沒有commit的單字 (只有第一次drain會有)，它們的segment也在這次的checkpoint裡
+            List<Word> recovered = checkpoint.readRecovered();
+            if (!recovered.isEmpty()) {
+                recoveredCount = recovered.size();
+                requests.add(0, new PendingInsert(recovered, null));
+            }
+        }
+
+        // 每個request實際插入的筆數，給callback用
+        int[] insertedCounts = new int[requests.size()];
+        try {
+            List<Word> batch = new ArrayList<>(Math.min(countWords(requests), MAX_BATCH_SIZE));
+            // batch中每個單字屬於哪個request
+            int[] owners = new int[MAX_BATCH_SIZE];
+            for (int r = 0; r < requests.size(); r++) {
+                for (Word word : requests.get(r).mWords) {
+                    owners[batch.size()] = r;
+                    batch.add(word);
+                    if (batch.size() == MAX_BATCH_SIZE) {
+                        flush(batch, owners, insertedCounts);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                flush(batch, owners, insertedCounts);
+            }
+        } catch (RuntimeException e) {
+            // 不往外拋: 寫入緒不能因此終止，之後送進來的單字還要繼續寫入。
+            for (PendingInsert request : requests) {
+                WordRepository.InsertCallback callback = request.mCallback;
+                if (callback != null) {
+                    mCallbackExecutor.execute(() -> callback.onFailure(e));
+                }
+            }
+            // 失敗已經回報，刪除日誌: 下次啟動重新寫入的話，可能把之後才刪除的單字加回來
+            if (checkpoint != null) {
+                if (recoveredCount > 0) {
+                    // 沒有呼叫端可以回報
+                    Log.e(TAG, "dropping " + recoveredCount + " recovered words", e);
+                }
+                mJournal.commit(checkpoint);
+            }
+            return;
+        }
+        // 全部commit了才刪除日誌
+        if (checkpoint != null) {
+            mJournal.commit(checkpoint);
+        }
+
+        for (int i = 0; i < requests.size(); i++) {
+            WordRepository.InsertCallback callback = requests.get(i).mCallback;
+            if (callback != null) {
+                int insertedCount = insertedCounts[i];
+                mCallbackExecutor.execute(() -> callback.onComplete(insertedCount));
+            }
+        }
+    }
+
+    /**
+     * 寫入一批(一個transaction)，並清空batch
+     */
+    private void flush(List<Word> batch, int[] owners, int[] insertedCounts) {
+        List<Long> rowIds = mWriter.insertAll(batch);
+        for (int i = 0; i < rowIds.size(); i++) {
+            if (rowIds.get(i) != -1L) {
+                insertedCounts[owners[i]]++;
+            }
+        }
+        batch.clear();
+    }
+
+    private static int countWords(List<PendingInsert> requests) {
+        int count = 0;
+        for (PendingInsert request : requests) {
+            count += request.mWords.size();
+        }
+        return count;
+    }
+
+    private static class PendingInsert {
+        final List<Word> mWords;
+        final WordRepository.InsertCallback mCallback;
+
+        PendingInsert(List<Word> words, WordRepository.InsertCallback callback) {
+            mWords = words;
+            mCallback = callback;
+        }
+    }
+}
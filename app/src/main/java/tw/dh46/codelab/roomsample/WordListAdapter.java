@@ -7,61 +7,250 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.os.TraceCompat;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.paging.PagedList;
+import androidx.paging.PagedListAdapter;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import tw.dh46.codelab.roomsample.database.Word;
 
-public class WordListAdapter extends RecyclerView.Adapter<WordListAdapter.ViewHolder> {
+/**
+ * 分頁版本的Adapter
+ * - 繼承PagedListAdapter，資料由PagedList提供，只持有已載入的頁面。
+ * - 捲動到接近已載入資料的尾端時，PagedList會自動在背景緒載入下一頁。
+ * - 新的PagedList透過submitList()傳進來，差異由DIFF_CALLBACK比對。
+ *
+ * 增量更新
+ * - 以前setWordList()換掉整份list後呼叫notifyDataSetChanged()，插入一個字就會重新bind所有可見的列，
+ * RecyclerView的動畫與prefetch也都失效。
+ * - 現在DiffUtil在背景緒(DIFF_EXECUTOR)計算差異，主執行緒只收到最小的insert/remove/move通知。
+ * - 開啟stable ids (使用單字的資料庫id)，RecyclerView可以辨識同一列，只重新bind真正有變動的列。
+ *
+ * 預先排版
+ * - 每當PagedList載入新的頁面，就在背景緒(TEXT_EXECUTOR)先把這些單字的排版算好(PrecomputedTextCache)，
+ * bind時直接交給TextView，主執行緒不再測量文字。
+ * - 背景緒正在算的單字透過AppCompatTextView.setTextFuture()等它的結果，
+ * 沒有排進背景緒的單字直接在主執行緒設定文字，不排在預先計算的後面。
+ */
+public class WordListAdapter extends PagedListAdapter<Word, WordListAdapter.ViewHolder> {
+
+    private static final DiffUtil.ItemCallback<Word> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<Word>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull Word oldItem, @NonNull Word newItem) {
+                    return oldItem.getId() == newItem.getId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull Word oldItem, @NonNull Word newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
+    /**
+     * 專門計算差異的背景緒，所有WordListAdapter共用。
+     * 差異計算是依序進行的，單一執行緒就足夠，也不會跟DB的執行緒搶資源。
+     */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "word-list-diff");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * 預先計算文字排版的背景緒，所有WordListAdapter共用
+     */
+    private static final Executor TEXT_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "word-list-text");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // 大約是幾個畫面加上一頁預載的量
+    private static final int TEXT_CACHE_SIZE = 500;
 
     private LayoutInflater mLayoutInflater;
-    private List<Word> mWordList; // Cached copy of words
+    private final PrecomputedTextCache mTextCache = new PrecomputedTextCache(TEXT_CACHE_SIZE, TEXT_EXECUTOR);
+
+    /**
+     * PagedList載入新的頁面時(主執行緒)，預先排版這些單字
+     */
+    private final PagedList.Callback mPrefetchCallback = new PagedList.Callback() {
+        @Override
+        public void onChanged(int position, int count) {
+            prefetchText(getCurrentList(), position, count);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            prefetchText(getCurrentList(), position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+        }
+    };
 
     public WordListAdapter(Context context) {
+        super(new AsyncDifferConfig.Builder<>(DIFF_CALLBACK)
+                .setBackgroundThreadExecutor(DIFF_EXECUTOR)
+                .build());
         mLayoutInflater = LayoutInflater.from(context);
+        setHasStableIds(true);
     }
 
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        View itemView = mLayoutInflater.inflate(R.layout.recyclerview_item, parent, false);
-        return new ViewHolder(itemView);
+        // systrace/Perfetto中可以看到每次inflate與bind花的時間
+        TraceCompat.beginSection("WordListAdapter.create");
+        try {
+            View itemView = mLayoutInflater.inflate(R.layout.recyclerview_item, parent, false);
+            ViewHolder holder = new ViewHolder(itemView);
+            // 每一列的樣式都一樣，以新建立的TextView為準
+            mTextCache.updateParams(holder.tvWord);
+            return holder;
+        } finally {
+            TraceCompat.endSection();
+        }
     }
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        if (mWordList != null && mWordList.size() > 0) {
-            Word currentWord = mWordList.get(position);
-            holder.tvWord.setText(currentWord.getWord());
-        } else {
-            // Covers the case of data not being ready yet.
-            holder.tvWord.setText("No words available");
+        TraceCompat.beginSection("WordListAdapter.bind");
+        try {
+            Word currentWord = getItem(position);
+            if (currentWord != null) {
+                holder.bindWord(currentWord.getWord());
+            } else {
+                // Covers the case of data not being ready yet.
+                holder.setText("No words available");
+            }
+        } finally {
+            TraceCompat.endSection();
         }
     }
 
     /**
-     * 會被呼叫好幾次，包含第一次執行。
-     * 所以要做null檢查，避免資料還沒設定。
+     * Stable id: 直接使用資料庫的id (AUTOINCREMENT，不會重複使用，也不需要再算hash)
+     * @param position
      * @return
      */
     @Override
-    public int getItemCount() {
-        if (mWordList != null) {
-            return mWordList.size();
+    public long getItemId(int position) {
+        // 不用getItem()，避免只是查id就觸發PagedList載入鄰近的頁面
+        PagedList<Word> wordList = getCurrentList();
+        Word word = wordList != null ? wordList.get(position) : null;
+        if (word == null) {
+            return RecyclerView.NO_ID;
         }
-        return 0;
+        return word.getId();
     }
 
     /**
-     * 外部更新資料進來
-     * @param wordList
+     * @param position
+     * @return 該位置的單字，還沒載入時為null
      */
-    public void setWordList(List<Word> wordList) {
-        mWordList = wordList;
-        notifyDataSetChanged();
+    @Nullable
+    public Word getWordAt(int position) {
+        PagedList<Word> wordList = getCurrentList();
+        return wordList != null ? wordList.get(position) : null;
     }
 
+    @Override
+    public void onCurrentListChanged(@Nullable PagedList<Word> previousList,
+                                     @Nullable PagedList<Word> currentList) {
+        if (previousList != null) {
+            previousList.removeWeakCallback(mPrefetchCallback);
+        }
+        if (currentList != null) {
+            // 新的PagedList已經載入的部分 (大多數單字在前一個list就算過了，會直接略過)
+            prefetchText(currentList, currentList.getPositionOffset(), currentList.getLoadedCount());
+            currentList.addWeakCallback(null, mPrefetchCallback);
+        }
+    }
+
+    private void prefetchText(@Nullable PagedList<Word> wordList, int position, int count) {
+        if (wordList == null) {
+            return;
+        }
+        int end = Math.min(wordList.size(), position + count);
+        List<String> words = new ArrayList<>(Math.max(0, end - position));
+        for (int i = position; i < end; i++) {
+            // PagedList.get()不會觸發載入，還沒載入的位置是null
+            Word word = wordList.get(i);
+            if (word != null) {
+                words.add(word.getWord());
+            }
+        }
+        mTextCache.prefetch(words);
+    }
+
+    /**
+     * 系統記憶體不足時由Activity呼叫 (見MemoryTrimPolicy)
+     * - 縮小預先排版的快取。
+     * - 在背景時連已載入的頁面也放掉，WordViewModel.trimMemory()會讓列表在回到前景時重新載入。
+     * @param level ComponentCallbacks2.TRIM_MEMORY_*
+     */
+    public void trimMemory(int level) {
+        mTextCache.trimToSize((int) MemoryTrimPolicy.budgetFor(level, TEXT_CACHE_SIZE));
+        if (MemoryTrimPolicy.shouldReleasePages(level)) {
+            submitList(null);
+        }
+    }
+
+    /**
+     * 在已載入的單字中找第一個 >= key 的位置 (只看已載入的部分，不會觸發載入)
+     * - 已載入的單字最多只有幾頁，與資料表大小無關。
+     * @param key
+     * @return 找不到時回傳-1
+     */
+    public int findFirstPosition(String key) {
+        PagedList<Word> wordList = getCurrentList();
+        if (wordList == null) {
+            return -1;
+        }
+        for (int i = 0; i < wordList.size(); i++) {
+            Word word = wordList.get(i);
+            if (word != null && WordSectionIndex.compareBinary(word.getWord(), key) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 在已載入的單字中找指定id的位置 (只看已載入的部分，不會觸發載入)
+     * @param id 資料庫的id (與getItemId()相同)
+     * @return 找不到時回傳-1
+     */
+    public int findPosition(long id) {
+        PagedList<Word> wordList = getCurrentList();
+        if (wordList == null) {
+            return -1;
+        }
+        int start = wordList.getPositionOffset();
+        int end = Math.min(wordList.size(), start + wordList.getLoadedCount());
+        for (int i = start; i < end; i++) {
+            Word word = wordList.get(i);
+            if (word != null && word.getId() == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
     class ViewHolder extends RecyclerView.ViewHolder {
 
@@ -71,5 +260,40 @@ public class WordListAdapter extends RecyclerView.Adapter<WordListAdapter.ViewHo
             super(itemView);
             tvWord = itemView.findViewById(R.id.textView);
         }
+
+        /**
+         * 已經算好排版時直接使用，背景緒正在算時等它的結果 (AppCompatTextView才支援)，
+         * 否則直接設定文字
+         * - 沒算好的單字不再排進背景緒: 佇列後面可能還有好幾頁的預先計算，
+         * measure時會卡在Future.get()，比直接在主執行緒排版還慢。
+         * @param word
+         */
+        void bindWord(String word) {
+            PrecomputedTextCompat precomputed = mTextCache.get(word);
+            Future<PrecomputedTextCompat> pending;
+            if (precomputed != null) {
+                cancelTextFuture();
+                TextViewCompat.setPrecomputedText(tvWord, precomputed);
+            } else if (tvWord instanceof AppCompatTextView
+                    && (pending = mTextCache.pending(word)) != null) {
+                ((AppCompatTextView) tvWord).setTextFuture(pending);
+            } else {
+                setText(word);
+            }
+        }
+
+        void setText(CharSequence text) {
+            cancelTextFuture();
+            tvWord.setText(text);
+        }
+
+        /**
+         * 之前bind的setTextFuture()可能還沒被取用，不清掉的話measure時會蓋掉新的文字
+         */
+        private void cancelTextFuture() {
+            if (tvWord instanceof AppCompatTextView) {
+                ((AppCompatTextView) tvWord).setTextFuture(null);
+            }
+        }
     }
 }
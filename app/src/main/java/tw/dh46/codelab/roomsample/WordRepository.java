@@ -1,13 +1,41 @@
 package tw.dh46.codelab.roomsample;
 
 import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.paging.DataSource;
+import androidx.paging.LivePagedListBuilder;
+import androidx.paging.PagedList;
+import androidx.room.InvalidationTracker;
 
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import tw.dh46.codelab.roomsample.database.DatabaseExecutors;
+import tw.dh46.codelab.roomsample.database.InstrumentedDao;
+import tw.dh46.codelab.roomsample.database.InstrumentedExecutor;
+import tw.dh46.codelab.roomsample.database.QueryObserver;
+import tw.dh46.codelab.roomsample.database.QueryStats;
 import tw.dh46.codelab.roomsample.database.Word;
 import tw.dh46.codelab.roomsample.database.WordDao;
+import tw.dh46.codelab.roomsample.database.WordKeyedDataSource;
+import tw.dh46.codelab.roomsample.database.WordListLiveData;
 import tw.dh46.codelab.roomsample.database.WordRoomDatabase;
 
 /**
@@ -21,6 +49,23 @@ import tw.dh46.codelab.roomsample.database.WordRoomDatabase;
  */
 public class WordRepository {
 
+    private static final String TAG = "WordRepository";
+
+    // 一頁載入的單字數量，大約是幾個畫面的份量
+    private static final int PAGE_SIZE = 50;
+    // 第一次載入的單字數量 (WordApplication啟動時也預先讀取這麼多)
+    static final int INITIAL_LOAD_SIZE = PAGE_SIZE * 2;
+    // 搜尋結果最多的筆數
+    static final int SEARCH_LIMIT = 200;
+    // 查詢報告的輸出目錄
+    private static final String REPORT_DIR = "reports";
+    // insert日誌的目錄 (在noBackupFilesDir下)
+    private static final String JOURNAL_DIR = "word-journal";
+    // SQLite一句SQL最多的bind參數數量 (SQLITE_MAX_VARIABLE_NUMBER)
+    static final int MAX_BIND_PARAMS = 999;
+    // 範圍刪除時一個transaction最多刪除的筆數，避免一次鎖住資料庫太久
+    private static final int DELETE_BATCH_SIZE = WordInsertBatcher.MAX_BATCH_SIZE;
+
     /**
      * DAO被傳入而不是整個Database物件，因為所有操作的方法都在DAO身上，
      * Repository沒必要知道整個database物件。
@@ -31,7 +76,119 @@ public class WordRepository {
      * There's no need to expose the entire database to the repository.
      */
     private WordDao mWordDao;
-    private LiveData<List<Word>> mAllWords;
+    private WordRoomDatabase mDatabase;
+    private Application mApplication;
+    private WordListLiveData mAllWords;
+    private LiveData<PagedList<Word>> mPagedWords;
+    private PagedList.Config mPagedListConfig;
+    private WordInsertBatcher mInsertBatcher;
+    // insert()的單字寫入資料庫前先記錄，process被終止也不會遺失 (process內共用的日誌中自己的Stream)
+    private WordWriteJournal.Stream mWriteJournal;
+    // 串流查詢在讀取緒池執行
+    private Scheduler mReadScheduler;
+
+    /**
+     * 已知存在的單字，給contains()與insert略過重複的單字使用。
+     * - 自己寫入的單字直接加入，刪除的移除；只有其他來源(其他process、其他實體)寫入時才整個清空。
+     * - 通知本身無法分辨來源，由mWriteTracker比對write token (見WordWriteTracker)，
+     * 不靠計數: 計數與通知的先後沒有保證。
+     * - insert在寫入的transaction中、確認沒有其他來源的寫入之後才以索引略過單字，
+     * 不會因為還沒處理的通知而漏掉被其他來源刪除後重新加入的單字。
+     */
+    private final WordIndex mWordIndex;
+    // mWordIndex平常的記憶體上限 (R.integer.word_index_budget_kb)
+    private final long mWordIndexBudget;
+    private InvalidationTracker mInvalidationTracker;
+    private InvalidationTracker.Observer mWordTableObserver;
+    // 所有寫入都經過它，分辨異動通知是不是自己的寫入 (只在寫入緒使用)
+    private final WordWriteTracker mWriteTracker;
+    // 已經排入寫入緒、還沒執行的sync，連續的通知只確認一次
+    private final AtomicBoolean mSyncScheduled = new AtomicBoolean();
+
+    /**
+     * 字母索引: 第一次getSectionIndex()時查詢一次，之後隨自己的每次寫入增量更新，
+     * 只有其他來源寫入時才重新查詢。
+     * - 查詢在讀取緒池執行，不佔住寫入緒；結果回到寫入緒套用。
+     * - 增量更新在寫入緒，與寫入依序進行。查詢期間有寫入的話 (mSectionsVersion改變)，
+     * 查詢結果不確定是否包含這些寫入，直接作廢再查一次，增量一定是套用在正確的基礎上。
+     * mSections、mSectionsVersion、mSectionsLoading只在寫入緒存取，還沒查詢完成時mSections為null。
+     */
+    private WordSectionIndex mSections;
+    private final MutableLiveData<WordSectionIndex> mSectionIndex = new MutableLiveData<>();
+    private final AtomicBoolean mSectionsRequested = new AtomicBoolean();
+    private int mSectionsVersion;
+    // 有查詢還沒回到寫入緒，期間的重新查詢只要讓它作廢即可
+    private boolean mSectionsLoading;
+
+    /**
+     * 報告輸出完成的callback，會在主執行緒被呼叫
+     */
+    public interface ReportCallback {
+        /**
+         * @param file 輸出的檔案，失敗時為null
+         */
+        void onComplete(@Nullable File file);
+    }
+
+    /**
+     * 刪除完成的callback，會在主執行緒被呼叫
+     */
+    public interface DeleteCallback {
+        /**
+         * @param deleted 實際刪除的單字(含id)，可以交給restoreWords()復原
+         */
+        void onComplete(List<Word> deleted);
+
+        /**
+         * 刪除途中發生錯誤 (例如SQLiteException)
+         * - 已經commit的批次不會回復，deleted是錯誤發生前已經刪除的單字。
+         * - 預設當作只刪除了這些單字。
+         * @param error 刪除時拋出的例外
+         * @param deleted 錯誤發生前已經刪除的單字(含id)，可以交給restoreWords()復原
+         */
+        default void onFailure(@NonNull RuntimeException error, List<Word> deleted) {
+            onComplete(deleted);
+        }
+    }
+
+    /**
+     * 串流讀取時載入一頁
+     */
+    interface PageLoader {
+        /**
+         * @param afterKey 上一頁最後一個單字，第一頁時為null
+         * @param limit
+         * @return 依word升冪排序，少於limit筆代表已經沒有下一頁
+         */
+        List<Word> load(@Nullable String afterKey, int limit);
+    }
+
+    /**
+     * 寫入完成的callback，會在主執行緒被呼叫
+     */
+    public interface InsertCallback {
+        /**
+         * @param insertedCount 實際新增的筆數 (已存在的單字不會計算在內)
+         */
+        void onComplete(int insertedCount);
+
+        /**
+         * 寫入失敗 (例如SQLiteFullException)。同一批中可能已有部分單字寫入。
+         * 預設視為沒有新增任何單字。
+         * @param error 寫入時拋出的例外
+         */
+        default void onFailure(@NonNull RuntimeException error) {
+            onComplete(0);
+        }
+
+        /**
+         * 這次的單字沒有記錄到insert日誌 (WordWriteJournal無法使用，例如I/O錯誤)，
+         * 寫入資料庫之前process被終止的話會遺失。在onComplete/onFailure之前呼叫，預設不處理。
+         * @param error 無法記錄的原因
+         */
+        default void onNotJournaled(@NonNull IOException error) {
+        }
+    }
 
 
     /**
@@ -42,20 +199,350 @@ public class WordRepository {
      * @param application
      */
     public WordRepository(Application application) {
+        mApplication = application;
         WordRoomDatabase db = WordRoomDatabase.getDatabase(application);
-        mWordDao = db.wordDao();
-        mAllWords = mWordDao.getAlphabetizedWords();
+        mDatabase = db;
+        // 記錄每個DAO方法的時間與筆數 (沒有設定QueryObserver時不包裝)
+        QueryObserver observer = WordRoomDatabase.getQueryObserver();
+        mWordDao = observer == QueryObserver.NONE ? db.wordDao()
+                : InstrumentedDao.wrap(WordDao.class, db.wordDao(), observer);
+        // 重複使用沒變動的Word，新增一個單字不會重新建立整張表的物件
+        mAllWords = new WordListLiveData(db, DatabaseExecutors.get().reader());
+        mWordIndexBudget = application.getResources().getInteger(R.integer.word_index_budget_kb) * 1024L;
+        mWordIndex = new WordIndex(mWordIndexBudget);
+        mWriteTracker = new WordWriteTracker(db, () -> {
+            mWordIndex.clear();
+            if (mSectionsRequested.get()) {
+                reloadSections();
+            }
+        });
+
+        // 不使用placeholder: keyset分頁不知道總筆數，也不需要為了算總筆數掃整張表
+        mPagedListConfig = new PagedList.Config.Builder()
+                .setPageSize(PAGE_SIZE)
+                .setInitialLoadSizeHint(INITIAL_LOAD_SIZE)
+                .setEnablePlaceholders(false)
+                .build();
+        mPagedWords = new LivePagedListBuilder<>(new WordKeyedDataSource.Factory(db), mPagedListConfig)
+                .setFetchExecutor(DatabaseExecutors.get().reader())
+                .build();
+
+        mReadScheduler = Schedulers.from(DatabaseExecutors.get().reader());
+
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        mWriteJournal = WordWriteJournal.forDirectory(
+                new File(application.getNoBackupFilesDir(), JOURNAL_DIR)).openStream();
+        mInsertBatcher = new WordInsertBatcher(words -> {
+            try {
+                return writeWords(words);
+            } catch (RuntimeException e) {
+                // batcher會把失敗交給每個callback，這裡只留下紀錄
+                Log.e(TAG, "cannot insert " + words.size() + " words", e);
+                throw e;
+            }
+        }, DatabaseExecutors.get().writer(), mainHandler::post, mWriteJournal);
+        // 上次被終止前沒有寫入的單字，在寫入緒重新寫入
+        mInsertBatcher.recover();
+
+        mInvalidationTracker = db.getInvalidationTracker();
+        mWordTableObserver = new InvalidationTracker.Observer("word_table") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                // 自己的寫入已經更新過索引，其他來源的異動才清空並重新查詢 (例如有單字被刪除)
+                scheduleSync();
+            }
+        };
+        // DB已經開啟時(WordApplication的warm-up)addObserver會同步trigger，要存取DB，
+        // 所以不在主執行緒註冊；使用寫入緒，與close()的移除維持先後順序
+        DatabaseExecutors.get().writer().execute(InstrumentedExecutor.tagged(
+                "InvalidationTracker.addObserver",
+                () -> mInvalidationTracker.addObserver(mWordTableObserver)));
+    }
+
+    /**
+     * 在寫入緒確認異動通知的來源 (WordWriteTracker.sync)
+     */
+    private void scheduleSync() {
+        if (!mSyncScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        DatabaseExecutors.get().writer().execute(InstrumentedExecutor.tagged(
+                "WordWriteTracker.sync", () -> {
+                    mSyncScheduled.set(false);
+                    mWriteTracker.sync();
+                }));
+    }
+
+    /**
+     * 不再使用時呼叫 (ViewModel.onCleared)，停止監聽資料表
+     */
+    public void close() {
+        DatabaseExecutors.get().writer().execute(InstrumentedExecutor.tagged(
+                "InvalidationTracker.removeObserver",
+                () -> mInvalidationTracker.removeObserver(mWordTableObserver)));
+        // 排在已經送出的insert之後，讓它們寫入完成並刪除日誌
+        DatabaseExecutors.get().writer().execute(InstrumentedExecutor.tagged(
+                "WordWriteJournal.close", mWriteJournal::close));
+        mAllWords.close();
+    }
+
+    /**
+     * 系統記憶體不足時呼叫 (ComponentCallbacks2.onTrimMemory)，依MemoryTrimPolicy縮小快取
+     * - 這些都只是加速用的快取，縮小後需要時會再從資料庫讀取。
+     * @param level ComponentCallbacks2.TRIM_MEMORY_*
+     */
+    public void trimMemory(int level) {
+        mWordIndex.trimTo(MemoryTrimPolicy.budgetFor(level, mWordIndexBudget));
+        if (MemoryTrimPolicy.shouldReleaseSnapshot(level)) {
+            mAllWords.releaseCache();
+        }
     }
 
     /**
      * Room 會自動在非主緒執行
      * UI只要observe LiveData就好，LiveData會在資料異動時notify。
+     * - 不是增量更新: 每次寫入都會重新讀取整張表，只適合需要整張表的使用端。
      * @return
      */
     public LiveData<List<Word>> getAllWords() {
         return mAllWords;
     }
 
+    /**
+     * 分頁版本的單字列表
+     * - getAllWords()會把整張表讀進記憶體，資料量大時請改用這個方法。
+     * - 每次只載入一頁，捲動時才載入下一頁，第一個畫面只需要第一頁。
+     * @return
+     */
+    public LiveData<PagedList<Word>> getPagedWords() {
+        return mPagedWords;
+    }
+
+    /**
+     * 從initialKey開始的分頁單字列表 (跳到某個字母)
+     * - 只載入initialKey前後的頁面，中間跳過的單字完全不會讀取，透過word的索引直接定位。
+     * - 每次呼叫都會回傳新的LiveData。
+     * @param initialKey 第一次載入的位置，null代表從頭開始 (同getPagedWords())
+     * @return
+     */
+    public LiveData<PagedList<Word>> getPagedWords(@Nullable String initialKey) {
+        if (initialKey == null) {
+            return mPagedWords;
+        }
+        return new LivePagedListBuilder<>(new WordKeyedDataSource.Factory(mDatabase), mPagedListConfig)
+                .setInitialLoadKey(initialKey)
+                .setFetchExecutor(DatabaseExecutors.get().reader())
+                .build();
+    }
+
+    /**
+     * 字母索引 (各section的單字數量與起始位置)
+     * - 第一次呼叫時以一個GROUP BY查詢建立，之後每次寫入先更新受影響的section，讓列表立刻反應。
+     * - 只有其他來源(例如其他process)的寫入才重新查詢 (見WordWriteTracker)，自己的寫入不會。
+     * @return
+     */
+    public LiveData<WordSectionIndex> getSectionIndex() {
+        if (mSectionsRequested.compareAndSet(false, true)) {
+            DatabaseExecutors.get().writer().execute(InstrumentedExecutor.tagged(
+                    "WordSectionIndex.load", this::reloadSections));
+        }
+        return mSectionIndex;
+    }
+
+    /**
+     * 不知道改了什麼時重新查詢，在寫入緒執行
+     * - 正在查詢的話只讓它作廢，連續的通知合併成一次查詢。
+     */
+    private void reloadSections() {
+        mSectionsVersion++;
+        if (!mSectionsLoading) {
+            mSectionsLoading = true;
+            querySections();
+        }
+    }
+
+    /**
+     * 在讀取緒池查詢，回到寫入緒時版本沒變才套用
+     */
+    private void querySections() {
+        int version = mSectionsVersion;
+        DatabaseExecutors.get().reader().execute(InstrumentedExecutor.tagged(
+                "WordDao.getSectionCounts", () -> {
+                    WordSectionIndex sections;
+                    try {
+                        sections = WordSectionIndex.from(mWordDao.getSectionCounts());
+                    } catch (RuntimeException e) {
+                        // 保留目前的索引，下次其他來源寫入時再重新查詢
+                        Log.e(TAG, "cannot load sections", e);
+                        sections = null;
+                    }
+                    WordSectionIndex result = sections;
+                    DatabaseExecutors.get().writer().execute(InstrumentedExecutor.tagged(
+                            "WordSectionIndex.apply", () -> applySections(version, result)));
+                }));
+    }
+
+    /**
+     * 在寫入緒執行
+     * @param version 開始查詢時的mSectionsVersion
+     * @param sections 查詢失敗時為null
+     */
+    private void applySections(int version, @Nullable WordSectionIndex sections) {
+        if (sections != null && version != mSectionsVersion) {
+            querySections();
+            return;
+        }
+        mSectionsLoading = false;
+        if (sections != null) {
+            mSections = sections;
+            mSectionIndex.postValue(mSections);
+        }
+    }
+
+    /**
+     * 在寫入緒執行，還沒建立索引時只讓正在進行的查詢作廢
+     */
+    private void updateSections(List<WordChange> changes) {
+        mSectionsVersion++;
+        if (mSections != null) {
+            mSections = mSections.withChanges(changes);
+            mSectionIndex.postValue(mSections);
+        }
+    }
+
+    /**
+     * 搜尋單字，最多SEARCH_LIMIT筆，結果以分頁提供
+     * - 只有一個字詞時: 以它開頭的單字 (第一個字元不分大小寫)，在word的索引上做範圍查詢，
+     * 輸入很短的字首(例如一個字母)也只讀SEARCH_LIMIT筆，不會先排序所有符合的單字。
+     * - 多個字詞時: 透過FTS4全文索引，每個字詞都要是單字中某個字詞的前綴。
+     * - 每次搜尋都會回傳新的LiveData，不再使用的舊查詢由呼叫端丟棄即可。
+     * @param query 使用者輸入的文字
+     * @return
+     */
+    public LiveData<PagedList<Word>> searchWords(String query) {
+        String match = toPrefixMatch(query);
+        if (match == null) {
+            return mPagedWords;
+        }
+        DataSource.Factory<Integer, Word> factory;
+        if (match.indexOf(' ') == -1) {
+            String prefix = match.substring(0, match.length() - 1);
+            factory = mWordDao.searchPrefixPaged(prefix, swapFirstCase(prefix), SEARCH_LIMIT);
+        } else {
+            factory = mWordDao.searchWordsPaged(match, SEARCH_LIMIT);
+        }
+        return new LivePagedListBuilder<>(factory, mPagedListConfig)
+                .setFetchExecutor(DatabaseExecutors.get().reader())
+                .build();
+    }
+
+    /**
+     * 第一個字元換成另一種大小寫 (沒有大小寫的字元不變)，例如 app -> App、App -> app
+     * @param prefix 不能是空字串
+     * @return
+     */
+    static String swapFirstCase(String prefix) {
+        int first = prefix.codePointAt(0);
+        int swapped = Character.isUpperCase(first)
+                ? Character.toLowerCase(first) : Character.toUpperCase(first);
+        if (swapped == first) {
+            return prefix;
+        }
+        return new StringBuilder(prefix.length())
+                .appendCodePoint(swapped)
+                .append(prefix, Character.charCount(first), prefix.length())
+                .toString();
+    }
+
+    /**
+     * 以串流的方式依a~z讀取整張表，一次一頁
+     * - 下游request時才讀下一頁(backpressure)，不會把整張表讀進記憶體；dispose之後就不再查詢。
+     * - 在讀取緒池查詢，不會經過主執行緒，適合匯出、同步這類背景工作。
+     * - 以keyset分頁讀取，每頁是各自的查詢: 讀取期間其他的寫入可能會出現也可能不會，
+     * 但每個單字最多只會出現一次，順序也不會亂。
+     * @param pageSize 一頁的筆數
+     * @return
+     */
+    public Flowable<List<Word>> streamPages(int pageSize) {
+        return pages(this::loadPage, pageSize).subscribeOn(mReadScheduler);
+    }
+
+    /**
+     * keyset分頁讀取 (PageLoader)
+     */
+    private List<Word> loadPage(@Nullable String afterKey, int limit) {
+        return afterKey == null
+                ? mWordDao.getFirstPage(limit)
+                : mWordDao.getPageAfter(afterKey, limit);
+    }
+
+    /**
+     * 同streamPages()，但一次發出一個單字
+     * @return
+     */
+    public Flowable<Word> streamWords() {
+        return streamPages(PAGE_SIZE).concatMapIterable(page -> page);
+    }
+
+    /**
+     * 單字數量，每次資料表異動都會發出新的值 (見WordDao.observeWordCount)
+     * @return
+     */
+    public Flowable<Integer> observeWordCount() {
+        return mWordDao.observeWordCount().distinctUntilChanged();
+    }
+
+    /**
+     * 以keyset分頁逐頁發出，下游每request一個才載入一頁
+     * @param loader
+     * @param pageSize
+     * @return
+     */
+    static Flowable<List<Word>> pages(PageLoader loader, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        // state: 上一頁最後一個單字，null代表還沒開始 (Flowable不允許null，以陣列包起來)
+        return Flowable.generate(() -> new String[1], (afterKey, emitter) -> {
+            List<Word> page = loader.load(afterKey[0], pageSize);
+            if (!page.isEmpty()) {
+                emitter.onNext(page);
+                afterKey[0] = page.get(page.size() - 1).getWord();
+            }
+            if (page.size() < pageSize) {
+                emitter.onComplete();
+            }
+        });
+    }
+
+    /**
+     * 將使用者輸入轉成FTS的MATCH語法
+     * - 只保留字母與數字，避免輸入的符號被當成FTS語法 (例如 " * - :)
+     * - 每個字詞加上*變成前綴查詢，例如 "big app" -> "big* app*"
+     * @param query
+     * @return 沒有可查詢的字詞時回傳null
+     */
+    @Nullable
+    static String toPrefixMatch(String query) {
+        StringBuilder match = new StringBuilder();
+        boolean inToken = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                match.append(c);
+                inToken = true;
+            } else if (inToken) {
+                match.append("* ");
+                inToken = false;
+            }
+        }
+        if (inToken) {
+            match.append('*');
+        }
+        String result = match.toString().trim();
+        return result.isEmpty() ? null : result;
+    }
+
     /**
      * 記得不可在主執行緒呼叫DAO方法!!
      *
@@ -64,9 +551,276 @@ public class WordRepository {
      * @param word
      */
     public  void insert(Word word) {
-        // 這裡利用在WordRoomDatabase中所建立的executor來處理背景工作
-        WordRoomDatabase.databaseWriteExecutor.execute(() -> {
-            mWordDao.insert(word);
+        // 交給WordInsertBatcher，短時間內連續的insert會合併在同一個transaction
+        // 實際寫入是在DatabaseExecutors唯一的寫入緒執行
+        mInsertBatcher.enqueue(Collections.singletonList(word), null);
+    }
+
+    /**
+     * 一次插入多個單字
+     * - 每MAX_BATCH_SIZE個單字一個transaction，匯入大量單字時只需要少數幾個transaction。
+     * - 與其他同時送進來的insert合併寫入，已知存在的單字不進DB，其他已存在的單字由unique index忽略。
+     * @param words
+     * @param callback 寫入完成後在主執行緒呼叫，可為null
+     */
+    public void insertAll(List<Word> words, @Nullable InsertCallback callback) {
+        mInsertBatcher.enqueue(new ArrayList<>(words), callback);
+    }
+
+    /**
+     * 刪除指定的單字
+     * - 每MAX_BIND_PARAMS個單字一個transaction: 先查出id再依id刪除，只會改到被刪除的列。
+     * - 在寫入緒執行，不存在的單字會被忽略。
+     * @param words
+     * @param callback 在主執行緒呼叫，可為null
+     */
+    public void deleteWords(List<String> words, @Nullable DeleteCallback callback) {
+        List<String> copy = new ArrayList<>(words);
+        runDelete("WordDao.deleteWords", callback, deleted -> {
+            for (List<String> chunk : chunk(copy, MAX_BIND_PARAMS)) {
+                List<Word> rows = mWriteTracker.write(() -> {
+                    List<Word> found = mWordDao.findWords(chunk);
+                    deleteRows(found);
+                    return found;
+                });
+                onDeleted(rows);
+                deleted.addAll(rows);
+            }
+        });
+    }
+
+    /**
+     * 刪除 from <= word < to 的單字
+     * - 透過word的索引定位範圍，每DELETE_BATCH_SIZE筆一個transaction，
+     * 批次之間其他的讀寫可以穿插進來。
+     * @param from 包含
+     * @param to 不包含，null代表沒有上限
+     * @param callback 在主執行緒呼叫，可為null
+     */
+    public void deleteRange(String from, @Nullable String to, @Nullable DeleteCallback callback) {
+        runDelete("WordDao.deleteRange", callback, deleted -> {
+            List<Word> rows;
+            do {
+                // 上一批已經刪除了，每次都從from重新查詢下一批
+                rows = mWriteTracker.write(() -> {
+                    List<Word> found = to == null
+                            ? mWordDao.getPageFrom(from, DELETE_BATCH_SIZE)
+                            : mWordDao.getRange(from, to, DELETE_BATCH_SIZE);
+                    deleteRows(found);
+                    return found;
+                });
+                onDeleted(rows);
+                deleted.addAll(rows);
+            } while (rows.size() == DELETE_BATCH_SIZE);
         });
     }
+
+    /**
+     * 刪除以prefix開頭的單字 (區分大小寫，與列表的排序一致)
+     * @param prefix 不可為空字串，要刪除全部請用deleteAll
+     * @param callback 在主執行緒呼叫，可為null
+     */
+    public void deletePrefix(String prefix, @Nullable DeleteCallback callback) {
+        if (prefix.isEmpty()) {
+            throw new IllegalArgumentException("prefix must not be empty");
+        }
+        deleteRange(prefix, prefixUpperBound(prefix), callback);
+    }
+
+    /**
+     * 復原刪除的單字 (undo)，以原本的id寫回，列表的位置與stable id都不變
+     * - 這段期間如果又新增了相同的單字，會保留新的那一個。
+     * @param words DeleteCallback收到的單字
+     * @param callback 在主執行緒呼叫，可為null
+     */
+    public void restoreWords(List<Word> words, @Nullable InsertCallback callback) {
+        mInsertBatcher.enqueue(new ArrayList<>(words), callback);
+    }
+
+    private interface DeleteTask {
+        /**
+         * @param deleted 每個transaction commit後把刪除的單字加進來，失敗時保留已經刪除的部分
+         */
+        void run(List<Word> deleted);
+    }
+
+    private void runDelete(String tag, @Nullable DeleteCallback callback, DeleteTask task) {
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        DatabaseExecutors.get().writer().execute(InstrumentedExecutor.tagged(tag, () -> {
+            List<Word> deleted = new ArrayList<>();
+            try {
+                task.run(deleted);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "cannot delete, " + deleted.size() + " words deleted before the error", e);
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onFailure(e, deleted));
+                }
+                return;
+            }
+            if (callback != null) {
+                mainHandler.post(() -> callback.onComplete(deleted));
+            }
+        }));
+    }
+
+    /**
+     * 依id刪除 (在transaction中呼叫)
+     */
+    private void deleteRows(List<Word> rows) {
+        List<Long> ids = new ArrayList<>(rows.size());
+        for (Word word : rows) {
+            ids.add(word.getId());
+        }
+        for (List<Long> chunk : chunk(ids, MAX_BIND_PARAMS)) {
+            mWordDao.deleteByIds(chunk);
+        }
+    }
+
+    /**
+     * transaction完成後，同步更新索引並發出異動
+     */
+    private void onDeleted(List<Word> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<WordChange> changes = new ArrayList<>(rows.size());
+        for (Word word : rows) {
+            mWordIndex.remove(word.getWord());
+            changes.add(WordChange.deleted(word));
+        }
+        updateSections(changes);
+    }
+
+    /**
+     * 分成每份最多size個 (subList，不複製)
+     */
+    static <T> List<List<T>> chunk(List<T> list, int size) {
+        List<List<T>> chunks = new ArrayList<>((list.size() + size - 1) / size);
+        for (int start = 0; start < list.size(); start += size) {
+            chunks.add(list.subList(start, Math.min(list.size(), start + size)));
+        }
+        return chunks;
+    }
+
+    /**
+     * 以prefix開頭的字串的上限(不包含): 最後一個字元的code point加1
+     * - 依SQLite的BINARY排序，所有以prefix開頭的字串都 >= prefix 且 < 上限。
+     * @param prefix
+     * @return 沒有上限時(最後一個字元已經是最大的code point)回傳null
+     */
+    @Nullable
+    static String prefixUpperBound(String prefix) {
+        int end = prefix.length();
+        while (end > 0) {
+            int codePoint = prefix.codePointBefore(end);
+            int start = end - Character.charCount(codePoint);
+            if (codePoint < Character.MAX_CODE_POINT) {
+                int next = codePoint + 1;
+                // 跳過surrogate的範圍，它們不是合法的字元
+                if (next >= Character.MIN_SURROGATE && next <= Character.MAX_SURROGATE) {
+                    next = Character.MAX_SURROGATE + 1;
+                }
+                return prefix.substring(0, start) + new String(Character.toChars(next));
+            }
+            end = start;
+        }
+        return null;
+    }
+
+    /**
+     * 單字是否存在
+     * - 先查記憶體中的索引，沒有的話才查DB (查到會加入索引)。
+     * - 可能會查DB，所以不可在主執行緒呼叫。
+     * @param word
+     * @return
+     */
+    @WorkerThread
+    public boolean contains(String word) {
+        if (mWordIndex.contains(word)) {
+            return true;
+        }
+        long generation = mWordIndex.generation();
+        if (mWordDao.countWord(word) > 0) {
+            // 查詢之後被清空的話不加入: 可能剛好被其他來源刪除
+            mWordIndex.add(word, generation);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 實際寫入DB (在寫入緒執行)，寫入後同步更新索引並發出異動
+     * - 已知存在的單字不進DB，與unique index忽略的單字一樣回傳-1。
+     */
+    private List<Long> writeWords(List<Word> words) {
+        List<Long> rowIds = mWriteTracker.write(() -> {
+            // 在transaction中: 其他來源的寫入已經清空索引，之後也不會有其他寫入穿插進來
+            List<Word> unknownWords = new ArrayList<>(words.size());
+            for (Word word : words) {
+                if (!mWordIndex.contains(word.getWord())) {
+                    unknownWords.add(word);
+                }
+            }
+            if (unknownWords.size() == words.size()) {
+                return mWordDao.insertAll(words);
+            }
+            List<Long> unknownRowIds = unknownWords.isEmpty()
+                    ? Collections.emptyList() : mWordDao.insertAll(unknownWords);
+            List<Long> result = new ArrayList<>(words.size());
+            int next = 0;
+            for (Word word : words) {
+                if (next < unknownWords.size() && unknownWords.get(next) == word) {
+                    result.add(unknownRowIds.get(next++));
+                } else {
+                    result.add(-1L);
+                }
+            }
+            return result;
+        });
+        List<WordChange> changes = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++) {
+            // rowId為-1代表單字原本就存在，一樣可以加入索引
+            String text = words.get(i).getWord();
+            mWordIndex.add(text);
+            long rowId = rowIds.get(i);
+            if (rowId != -1L) {
+                Word inserted = new Word(text);
+                inserted.setId(rowId);
+                changes.add(WordChange.inserted(inserted));
+            }
+        }
+        // 全部都是重複的單字時資料表沒有變動，不會收到通知
+        if (!changes.isEmpty()) {
+            updateSections(changes);
+        }
+        return rowIds;
+    }
+
+    /**
+     * 將查詢統計(QueryStats)與DatabaseExecutors的指標寫入檔案 (在讀取緒執行)
+     * - 檔案放在App的外部檔案目錄reports/底下，可以用adb pull或檔案管理App取出。
+     * - 沒有使用QueryStats時只有Executor的指標。
+     * @param callback 在主執行緒呼叫
+     */
+    public void exportQueryReport(ReportCallback callback) {
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        DatabaseExecutors.get().reader().execute(InstrumentedExecutor.tagged("QueryReport", () -> {
+            File dir = mApplication.getExternalFilesDir(REPORT_DIR);
+            if (dir == null) {
+                dir = new File(mApplication.getFilesDir(), REPORT_DIR);
+            }
+            File file = new File(dir, "query-report-" + System.currentTimeMillis() + ".json");
+            QueryObserver observer = WordRoomDatabase.getQueryObserver();
+            QueryStats stats = observer instanceof QueryStats ? (QueryStats) observer : new QueryStats(0);
+            File result = file;
+            try {
+                stats.writeReport(file, DatabaseExecutors.get().getMetrics());
+            } catch (IOException e) {
+                Log.e(TAG, "cannot write " + file, e);
+                result = null;
+            }
+            File written = result;
+            mainHandler.post(() -> callback.onComplete(written));
+        }));
+    }
 }
@@ -0,0 +1,195 @@
+package tw.dh46.codelab.roomsample;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import tw.dh46.codelab.roomsample.database.SectionCount;
+
+/**
+ * 單字列表的字母索引: 每個section(單字的第一個字元)的單字數量與起始位置
+ * - section的順序與ORDER BY word相同 (依code point，見compareBinary)。
+ * - 起始位置是在整個排序後的單字表中的位置，以前綴和預先算好，
+ * 查詢某個section的位置是O(1)，由位置找section是O(log sections)。
+ * - 不可變的物件，可以直接交給其他執行緒；異動時由withChanges()產生新的索引，
+ * 只需要O(sections)，不用重新查詢。
+ */
+public final class WordSectionIndex {
+
+    static final WordSectionIndex EMPTY = new WordSectionIndex(new String[0], new int[0]);
+
+    private final String[] mSections;
+    private final int[] mCounts;
+    // mOffsets[i] = mCounts[0] + ... + mCounts[i - 1]，最後多一個總數
+    private final int[] mOffsets;
+
+    private WordSectionIndex(String[] sections, int[] counts) {
+        mSections = sections;
+        mCounts = counts;
+        mOffsets = new int[counts.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            mOffsets[i + 1] = mOffsets[i] + counts[i];
+        }
+    }
+
+    /**
+     * @param counts WordDao.getSectionCounts()的結果 (已依section排序)
+     * @return
+     */
+    static WordSectionIndex from(List<SectionCount> counts) {
+        String[] sections = new String[counts.size()];
+        int[] sectionCounts = new int[counts.size()];
+        for (int i = 0; i < counts.size(); i++) {
+            sections[i] = counts.get(i).getSection();
+            sectionCounts[i] = counts.get(i).getCount();
+        }
+        return new WordSectionIndex(sections, sectionCounts);
+    }
+
+    /**
+     * 套用新增/刪除的單字
+     * @param changes
+     * @return 新的索引，沒有影響時回傳自己
+     */
+    WordSectionIndex withChanges(List<WordChange> changes) {
+        if (changes.isEmpty()) {
+            return this;
+        }
+        List<String> sections = new ArrayList<>(Arrays.asList(mSections));
+        List<Integer> counts = new ArrayList<>(mCounts.length + 1);
+        for (int count : mCounts) {
+            counts.add(count);
+        }
+        for (WordChange change : changes) {
+            String section = sectionOf(change.word.getWord());
+            int index = indexOf(sections, section);
+            if (change.type == WordChange.Type.INSERT) {
+                if (index < 0) {
+                    index = -index - 1;
+                    sections.add(index, section);
+                    counts.add(index, 1);
+                } else {
+                    counts.set(index, counts.get(index) + 1);
+                }
+            } else if (index >= 0) {
+                int count = counts.get(index) - 1;
+                if (count > 0) {
+                    counts.set(index, count);
+                } else {
+                    sections.remove(index);
+                    counts.remove(index);
+                }
+            }
+        }
+        int[] countArray = new int[counts.size()];
+        for (int i = 0; i < countArray.length; i++) {
+            countArray[i] = counts.get(i);
+        }
+        return new WordSectionIndex(sections.toArray(new String[0]), countArray);
+    }
+
+    public int getSectionCount() {
+        return mSections.length;
+    }
+
+    @NonNull
+    public String getSection(int section) {
+        return mSections[section];
+    }
+
+    public int getCountForSection(int section) {
+        return mCounts[section];
+    }
+
+    /**
+     * @param section
+     * @return 這個section第一個單字在整個單字表中的位置
+     */
+    public int getPositionForSection(int section) {
+        return mOffsets[section];
+    }
+
+    /**
+     * @param position 在整個單字表中的位置
+     * @return 包含這個位置的section，超出範圍時回傳最接近的section，沒有任何section時回傳-1
+     */
+    public int getSectionForPosition(int position) {
+        if (mSections.length == 0) {
+            return -1;
+        }
+        // 最後一個 offset <= position 的section
+        int low = 0;
+        int high = mSections.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mOffsets[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param word
+     * @return 這個單字所在的section，不存在時為 -(插入位置) - 1
+     */
+    public int getSectionForWord(String word) {
+        return indexOf(Arrays.asList(mSections), sectionOf(word));
+    }
+
+    public int getTotalCount() {
+        return mOffsets[mSections.length];
+    }
+
+    /**
+     * 單字的第一個字元 (code point)，與SQLite的SUBSTR(word, 1, 1)相同
+     */
+    static String sectionOf(String word) {
+        if (word.isEmpty()) {
+            return word;
+        }
+        return word.substring(0, Character.charCount(word.codePointAt(0)));
+    }
+
+    private static int indexOf(List<String> sections, String section) {
+        int low = 0;
+        int high = sections.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareBinary(sections.get(mid), section);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * 依code point比較，與SQLite的BINARY collation(UTF-8)順序相同
+     * - String.compareTo是依UTF-16比較，在補充平面的字元上順序不同。
+     */
+    static int compareBinary(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca != cb) {
+                // surrogate(0xD800~0xDFFF)代表的字元 > 0xFFFF，要排在其他BMP字元之後
+                return fixUp(ca) - fixUp(cb);
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    private static int fixUp(char c) {
+        return Character.isSurrogate(c) ? c + 0x10000 : c;
+    }
+}
@@ -0,0 +1,159 @@
+package tw.dh46.codelab.roomsample;
+
+import android.app.Application;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import tw.dh46.codelab.roomsample.database.DatabaseExecutors;
+import tw.dh46.codelab.roomsample.database.InstrumentedExecutor;
+import tw.dh46.codelab.roomsample.database.Word;
+import tw.dh46.codelab.roomsample.database.WordDao;
+import tw.dh46.codelab.roomsample.database.WordRoomDatabase;
+
+/**
+ * 只負責匯入與匯出的Repository，給WordTransferService(:transfer process)使用
+ * - 不建立WordRepository的列表、分頁、索引、insert日誌與InvalidationTracker的監聽，
+ * 這些只有UI process用得到，在這個process只會多開日誌目錄、多註冊observer。
+ * - 寫入直接交給WordDao，UI process透過跨process的invalidation更新列表、索引與字母索引。
+ * 在同一個process使用時，每個寫入都記錄到WordWriteTracker，WordRepository才知道這不是它自己的寫入。
+ * - 不論成功與否，listener一定會收到一次最終狀態 (isFinished())，包含RuntimeException。
+ */
+public class WordTransferRepository {
+
+    private static final String TAG = "WordTransferRepository";
+
+    private final Application mApplication;
+    private final WordRoomDatabase mDatabase;
+    private final WordDao mWordDao;
+
+    public WordTransferRepository(Application application) {
+        mApplication = application;
+        mDatabase = WordRoomDatabase.getDatabase(application);
+        mWordDao = mDatabase.wordDao();
+    }
+
+    /**
+     * 從檔案匯入單字 (文字檔一行一個單字，或是CSV的第一個欄位)
+     * - 在讀取緒池串流讀取檔案，每一批交給寫入緒寫入，細節見WordImporter。
+     * - 匯入不會佔住寫入緒，其他的寫入可以穿插在批次之間。
+     * @param uri 透過Storage Access Framework選取的檔案
+     * @param listener 在背景緒被呼叫
+     * @return 可用來取消匯入
+     */
+    public WordImporter importWords(Uri uri, WordImporter.Listener listener) {
+        WordImporter importer = new WordImporter(this::insertAll, DatabaseExecutors.get().writer());
+        DatabaseExecutors.get().reader().execute(InstrumentedExecutor.tagged("WordImporter", () -> {
+            ContentResolver resolver = mApplication.getContentResolver();
+            try (InputStream inputStream = resolver.openInputStream(uri)) {
+                if (inputStream == null) {
+                    listener.onProgress(WordImporter.Progress.failed());
+                    return;
+                }
+                importer.run(inputStream, querySize(resolver, uri), listener);
+            } catch (IOException | RuntimeException e) {
+                // 例如沒有權限(SecurityException)，importer.run()自己的錯誤已經回報過
+                Log.e(TAG, "cannot open " + uri, e);
+                listener.onProgress(WordImporter.Progress.failed());
+            }
+        }));
+        return importer;
+    }
+
+    /**
+     * 將所有單字匯出成gzip壓縮的CSV
+     * - 在讀取緒池逐頁讀取並寫入，細節見WordExporter。
+     * - 取消或失敗時會刪除寫到一半的檔案。
+     * @param uri 透過Storage Access Framework建立的檔案
+     * @param listener 在背景緒被呼叫
+     * @return 可用來取消匯出
+     */
+    public WordExporter exportWords(Uri uri, WordExporter.Listener listener) {
+        WordExporter exporter = new WordExporter(this::loadPage);
+        DatabaseExecutors.get().reader().execute(InstrumentedExecutor.tagged("WordExporter", () -> {
+            ContentResolver resolver = mApplication.getContentResolver();
+            // 最終狀態等檔案關閉(或刪除)之後才通知
+            WordExporter.Progress[] result = {WordExporter.Progress.failed()};
+            try {
+                ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "wt");
+                if (descriptor == null) {
+                    listener.onProgress(WordExporter.Progress.failed());
+                    return;
+                }
+                // AutoCloseOutputStream關閉時會一併關閉descriptor
+                try (FileOutputStream outputStream = new ParcelFileDescriptor.AutoCloseOutputStream(descriptor);
+                     FileChannel channel = outputStream.getChannel()) {
+                    exporter.run(channel, mWordDao.countWords(), progress -> {
+                        if (progress.isFinished()) {
+                            result[0] = progress;
+                        } else {
+                            listener.onProgress(progress);
+                        }
+                    });
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "cannot write " + uri, e);
+                result[0] = WordExporter.Progress.failed();
+            }
+            if (result[0].state != WordExporter.Progress.State.COMPLETED) {
+                deleteDocument(resolver, uri);
+            }
+            listener.onProgress(result[0]);
+        }));
+        return exporter;
+    }
+
+    /**
+     * 匯入的一批 (WordInsertBatcher.Writer)，在寫入緒執行
+     */
+    private List<Long> insertAll(List<Word> words) {
+        return mDatabase.runInTransaction(() -> {
+            List<Long> rowIds = mWordDao.insertAll(words);
+            WordWriteTracker.onLocalWrite();
+            return rowIds;
+        });
+    }
+
+    /**
+     * keyset分頁讀取 (PageLoader)
+     */
+    private List<Word> loadPage(@Nullable String afterKey, int limit) {
+        return afterKey == null
+                ? mWordDao.getFirstPage(limit)
+                : mWordDao.getPageAfter(afterKey, limit);
+    }
+
+    private static void deleteDocument(ContentResolver resolver, Uri uri) {
+        try {
+            DocumentsContract.deleteDocument(resolver, uri);
+        } catch (FileNotFoundException | SecurityException | UnsupportedOperationException e) {
+            Log.w(TAG, "cannot delete " + uri, e);
+        }
+    }
+
+    /**
+     * @return 檔案大小，未知時回傳-1
+     */
+    private static long querySize(ContentResolver resolver, Uri uri) {
+        try (Cursor cursor = resolver.query(uri,
+                new String[]{OpenableColumns.SIZE}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,241 @@
+package tw.dh46.codelab.roomsample;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.ResultReceiver;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+/**
+ * 在獨立的process (:transfer，見AndroidManifest) 執行匯入與匯出
+ * - 大量讀寫產生的物件與GC都在這個process，UI process的記憶體與GC暫停不受影響。
+ * - 這個process有自己的WordRoomDatabase，透過enableMultiInstanceInvalidation，
+ * 寫入之後UI process的InvalidationTracker也會收到通知，LiveData與列表照常更新。
+ * - 寫入只需要WordTransferRepository，不建立WordRepository的列表、索引與日誌。
+ * - 以foreground service執行 (顯示通知)，App退到背景時系統不會為了回收記憶體先終止這個process。
+ * - 進度以ResultReceiver傳回UI process (可以跨process)，取消也是透過Intent送過來。
+ * - process仍然可能被終止而來不及送出最終狀態，UI process以bindService() + linkToDeath()偵測
+ * (見bindIntent)，不會一直停在進行中。
+ * - 匯入與匯出各自同時最多一個，都結束之後service自己停止。
+ *
+ * 使用方式見startImport/startExport/cancel。
+ */
+public class WordTransferService extends Service {
+
+    private static final String ACTION_IMPORT = "tw.dh46.codelab.roomsample.action.IMPORT";
+    private static final String ACTION_EXPORT = "tw.dh46.codelab.roomsample.action.EXPORT";
+    private static final String ACTION_CANCEL_IMPORT = "tw.dh46.codelab.roomsample.action.CANCEL_IMPORT";
+    private static final String ACTION_CANCEL_EXPORT = "tw.dh46.codelab.roomsample.action.CANCEL_EXPORT";
+    private static final String EXTRA_RECEIVER = "receiver";
+    private static final String CHANNEL_ID = "transfer";
+    private static final int NOTIFICATION_ID = 1;
+
+    // ResultReceiver的resultCode
+    static final int RESULT_IMPORT_PROGRESS = 1;
+    static final int RESULT_EXPORT_PROGRESS = 2;
+
+    private static final String KEY_STATE = "state";
+    private static final String KEY_BYTES_READ = "bytesRead";
+    private static final String KEY_TOTAL_BYTES = "totalBytes";
+    private static final String KEY_IMPORTED_COUNT = "importedCount";
+    private static final String KEY_EXPORTED_COUNT = "exportedCount";
+    private static final String KEY_TOTAL_COUNT = "totalCount";
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // 只用來讓UI process偵測這個process被終止 (linkToDeath)，沒有任何方法
+    private final IBinder mBinder = new Binder();
+    private WordTransferRepository mRepository;
+    // 進行中的工作，沒有的話為null，只在主執行緒修改
+    private WordImporter mImporter;
+    private WordExporter mExporter;
+
+    /**
+     * 從uri匯入單字
+     * @param context
+     * @param uri 透過Storage Access Framework選取的檔案
+     * @param receiver 收到RESULT_IMPORT_PROGRESS，以importProgressFrom()轉回Progress
+     */
+    static void startImport(Context context, Uri uri, ResultReceiver receiver) {
+        ContextCompat.startForegroundService(context, new Intent(context, WordTransferService.class)
+                .setAction(ACTION_IMPORT)
+                .setData(uri)
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+                .putExtra(EXTRA_RECEIVER, receiver));
+    }
+
+    /**
+     * 匯出所有單字到uri
+     * @param context
+     * @param uri 透過Storage Access Framework建立的檔案
+     * @param receiver 收到RESULT_EXPORT_PROGRESS，以exportProgressFrom()轉回Progress
+     */
+    static void startExport(Context context, Uri uri, ResultReceiver receiver) {
+        ContextCompat.startForegroundService(context, new Intent(context, WordTransferService.class)
+                .setAction(ACTION_EXPORT)
+                .setData(uri)
+                .addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION)
+                .putExtra(EXTRA_RECEIVER, receiver));
+    }
+
+    static void cancelImport(Context context) {
+        context.startService(new Intent(context, WordTransferService.class)
+                .setAction(ACTION_CANCEL_IMPORT));
+    }
+
+    static void cancelExport(Context context) {
+        context.startService(new Intent(context, WordTransferService.class)
+                .setAction(ACTION_CANCEL_EXPORT));
+    }
+
+    /**
+     * 給bindService()使用 (flags不含BIND_AUTO_CREATE)
+     * - 不會建立或延長service，只在service執行時連上，拿到的IBinder用來linkToDeath()。
+     * @param context
+     * @return
+     */
+    static Intent bindIntent(Context context) {
+        return new Intent(context, WordTransferService.class);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mRepository = new WordTransferRepository(getApplication());
+    }
+
+    @Override
+    public int onStartCommand(@Nullable Intent intent, int flags, int startId) {
+        String action = intent != null ? intent.getAction() : null;
+        if (ACTION_IMPORT.equals(action)) {
+            // startForegroundService()之後一定要呼叫，即使這次的要求被忽略
+            startForeground(NOTIFICATION_ID, buildNotification());
+            startImport(intent.getData(), intent.getParcelableExtra(EXTRA_RECEIVER));
+        } else if (ACTION_EXPORT.equals(action)) {
+            startForeground(NOTIFICATION_ID, buildNotification());
+            startExport(intent.getData(), intent.getParcelableExtra(EXTRA_RECEIVER));
+        } else if (ACTION_CANCEL_IMPORT.equals(action)) {
+            if (mImporter != null) {
+                mImporter.cancel();
+            }
+        } else if (ACTION_CANCEL_EXPORT.equals(action)) {
+            if (mExporter != null) {
+                mExporter.cancel();
+            }
+        }
+        stopIfIdle();
+        // process被系統終止時不重新開始，寫到一半的匯入已經保留，匯出則由使用者重新執行
+        return START_NOT_STICKY;
+    }
+
+    private void startImport(Uri uri, ResultReceiver receiver) {
+        if (mImporter != null) {
+            return;
+        }
+        mImporter = mRepository.importWords(uri, progress -> {
+            receiver.send(RESULT_IMPORT_PROGRESS, toBundle(progress));
+            if (progress.isFinished()) {
+                mMainHandler.post(() -> {
+                    mImporter = null;
+                    stopIfIdle();
+                });
+            }
+        });
+    }
+
+    private void startExport(Uri uri, ResultReceiver receiver) {
+        if (mExporter != null) {
+            return;
+        }
+        mExporter = mRepository.exportWords(uri, progress -> {
+            receiver.send(RESULT_EXPORT_PROGRESS, toBundle(progress));
+            if (progress.isFinished()) {
+                mMainHandler.post(() -> {
+                    mExporter = null;
+                    stopIfIdle();
+                });
+            }
+        });
+    }
+
+    private void stopIfIdle() {
+        if (mImporter == null && mExporter == null) {
+            stopForeground(true);
+            stopSelf();
+        }
+    }
+
+    private Notification buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = getSystemService(NotificationManager.class);
+            // 已經存在時不會重新建立
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.transfer_channel_name), NotificationManager.IMPORTANCE_LOW));
+        }
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentTitle(getString(R.string.transfer_notification_title))
+                .setProgress(0, 0, true)
+                .setOngoing(true)
+                .build();
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mImporter != null) {
+            mImporter.cancel();
+        }
+        if (mExporter != null) {
+            mExporter.cancel();
+        }
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    private static Bundle toBundle(WordImporter.Progress progress) {
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_STATE, progress.state.name());
+        bundle.putLong(KEY_BYTES_READ, progress.bytesRead);
+        bundle.putLong(KEY_TOTAL_BYTES, progress.totalBytes);
+        bundle.putInt(KEY_IMPORTED_COUNT, progress.importedCount);
+        return bundle;
+    }
+
+    private static Bundle toBundle(WordExporter.Progress progress) {
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_STATE, progress.state.name());
+        bundle.putInt(KEY_EXPORTED_COUNT, progress.exportedCount);
+        bundle.putInt(KEY_TOTAL_COUNT, progress.totalCount);
+        return bundle;
+    }
+
+    static WordImporter.Progress importProgressFrom(Bundle bundle) {
+        return new WordImporter.Progress(
+                WordImporter.Progress.State.valueOf(bundle.getString(KEY_STATE)),
+                bundle.getLong(KEY_BYTES_READ), bundle.getLong(KEY_TOTAL_BYTES),
+                bundle.getInt(KEY_IMPORTED_COUNT));
+    }
+
+    static WordExporter.Progress exportProgressFrom(Bundle bundle) {
+        return new WordExporter.Progress(
+                WordExporter.Progress.State.valueOf(bundle.getString(KEY_STATE)),
+                bundle.getInt(KEY_EXPORTED_COUNT), bundle.getInt(KEY_TOTAL_COUNT));
+    }
+}
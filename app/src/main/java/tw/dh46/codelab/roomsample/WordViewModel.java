@@ -1,11 +1,25 @@
 package tw.dh46.codelab.roomsample;
 
 import android.app.Application;
+import android.content.ComponentName;
+import android.content.ServiceConnection;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.ResultReceiver;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
+import androidx.paging.PagedList;
 
+import java.util.Collections;
 import java.util.List;
 
 import tw.dh46.codelab.roomsample.database.Word;
@@ -44,21 +58,150 @@ public class WordViewModel extends AndroidViewModel {
     // a private member variable to hold a reference to the repository.
     private WordRepository mRepository;
 
-    private LiveData<List<Word>> mAllWords;
+    private LiveData<PagedList<Word>> mPagedWords;
+
+    // 輸入停止多久之後才真正搜尋
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final MutableLiveData<String> mSearchQuery = new MutableLiveData<>("");
+    // 沒有搜尋時，列表從這個單字開始載入 (字母索引跳轉)，null代表從頭開始
+    private final MutableLiveData<String> mJumpKey = new MutableLiveData<>(null);
+    private Runnable mPendingSearch;
+
+    // 匯入/匯出在WordTransferService的process執行，進度由mTransferReceiver收到 (主執行緒)
+    private MutableLiveData<WordImporter.Progress> mImportProgress = new MutableLiveData<>();
+    private MutableLiveData<WordExporter.Progress> mExportProgress = new MutableLiveData<>();
+    // 滑動刪除的結果，callback只參考ViewModel，Activity重建後由新的Activity處理
+    private final MutableLiveData<DeleteResult> mDeleteResult = new MutableLiveData<>();
+    private final ResultReceiver mTransferReceiver = new ResultReceiver(mMainHandler) {
+        @Override
+        protected void onReceiveResult(int resultCode, Bundle resultData) {
+            if (resultCode == WordTransferService.RESULT_IMPORT_PROGRESS) {
+                mImportProgress.setValue(WordTransferService.importProgressFrom(resultData));
+            } else if (resultCode == WordTransferService.RESULT_EXPORT_PROGRESS) {
+                mExportProgress.setValue(WordTransferService.exportProgressFrom(resultData));
+            }
+            unbindTransferIfIdle();
+        }
+    };
+
+    /**
+     * :transfer process被終止時(例如記憶體不足、crash)收不到最終狀態，
+     * 以linkToDeath偵測，把進行中的匯入/匯出當作失敗
+     */
+    private final IBinder.DeathRecipient mTransferDeath =
+            () -> mMainHandler.post(this::onTransferProcessDied);
+    private final ServiceConnection mTransferConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            try {
+                service.linkToDeath(mTransferDeath, 0);
+                mTransferBinder = service;
+            } catch (RemoteException e) {
+                // 連上之前process就已經結束了
+                onTransferProcessDied();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            // process被終止時由mTransferDeath處理
+        }
+    };
+    private boolean mTransferBound;
+    @Nullable
+    private IBinder mTransferBinder;
 
     public WordViewModel(@NonNull Application application) {
         super(application);
         mRepository = new WordRepository(application);
-        // 透過repository的方法初始化allWords
-        mAllWords = mRepository.getAllWords();
+        // 搜尋字串改變時切換到新的查詢結果，舊的查詢結果不會再傳到UI
+        // 沒有搜尋時是全部單字，跳到某個字母時切換成從那裡開始載入的列表
+        mPagedWords = Transformations.switchMap(mSearchQuery, query -> query.isEmpty()
+                ? Transformations.switchMap(mJumpKey, mRepository::getPagedWords)
+                : mRepository.searchWords(query));
     }
 
     /**
-     * 取得Repository cached的資料
+     * 取得全部單字 (依word排序)
+     * - 列表畫面使用getPagedWords()，這裡只給需要整張表的使用端。
+     * - 不是增量更新: 每次寫入都會重新讀取整張表，資料量大時請改用getPagedWords()。
+     * - 發出的List是唯讀的，每次異動都是新的List，沒變動的單字是同一個Word物件。
      * @return
      */
     public LiveData<List<Word>> getAllWords() {
-        return mAllWords;
+        return mRepository.getAllWords();
+    }
+
+    /**
+     * 系統記憶體不足時由Activity呼叫 (ComponentCallbacks2.onTrimMemory)，依MemoryTrimPolicy釋放快取
+     * - 分頁列表: 在背景時讓目前的DataSource失效，回到前景(有Observer)時才從上次的位置重新載入，
+     * Adapter持有的頁面同時被放掉 (WordListAdapter.trimMemory)。
+     * - Repository裡的快取 (WordRepository.trimMemory)。
+     * @param level ComponentCallbacks2.TRIM_MEMORY_*
+     */
+    public void trimMemory(int level) {
+        if (MemoryTrimPolicy.shouldReleasePages(level)) {
+            PagedList<Word> pagedWords = mPagedWords.getValue();
+            if (pagedWords != null) {
+                pagedWords.getDataSource().invalidate();
+            }
+        }
+        mRepository.trimMemory(level);
+    }
+
+    /**
+     * 取得分頁的單字列表，給RecyclerView使用
+     * - 有搜尋字串時為搜尋結果，否則為全部單字。
+     * @return
+     */
+    public LiveData<PagedList<Word>> getPagedWords() {
+        return mPagedWords;
+    }
+
+    /**
+     * 字母索引，給快速捲動使用
+     * @return
+     */
+    public LiveData<WordSectionIndex> getSectionIndex() {
+        return mRepository.getSectionIndex();
+    }
+
+    /**
+     * 讓列表從key開始載入 (跳到某個字母)
+     * - 中間跳過的單字不會被讀取；新的列表透過getPagedWords()發出。
+     * - 搜尋中時沒有作用，結束搜尋後才會生效。
+     * @param key 例如section的字元，列表會從第一個 >= key 的單字開始
+     */
+    public void jumpTo(String key) {
+        mJumpKey.setValue(key);
+    }
+
+    /**
+     * 設定搜尋字串 (邊打字邊搜尋)
+     * - 停止輸入SEARCH_DEBOUNCE_MS之後才查詢，打字過程中的查詢會被取消。
+     * - 清空時立即回到全部單字。
+     * @param query
+     */
+    public void setSearchQuery(String query) {
+        if (mPendingSearch != null) {
+            mMainHandler.removeCallbacks(mPendingSearch);
+            mPendingSearch = null;
+        }
+        String trimmed = query == null ? "" : query.trim();
+        if (trimmed.isEmpty()) {
+            updateSearchQuery(trimmed);
+            return;
+        }
+        mPendingSearch = () -> updateSearchQuery(trimmed);
+        mMainHandler.postDelayed(mPendingSearch, SEARCH_DEBOUNCE_MS);
+    }
+
+    private void updateSearchQuery(String query) {
+        // 相同的字串不重新查詢
+        if (!query.equals(mSearchQuery.getValue())) {
+            mSearchQuery.setValue(query);
+        }
     }
 
     /**
@@ -68,4 +211,254 @@ public class WordViewModel extends AndroidViewModel {
     public void insert(Word word) {
         mRepository.insert(word);
     }
+
+    /**
+     * 一次新增多個單字
+     * @param words
+     * @param callback 寫入完成後在主執行緒呼叫，可為null
+     */
+    public void insertAll(List<Word> words, @Nullable WordRepository.InsertCallback callback) {
+        mRepository.insertAll(words, callback);
+    }
+
+    /**
+     * 刪除指定的單字 (在背景分批執行)
+     * @param words
+     * @param callback 在主執行緒收到實際刪除的單字，可以用來undo，可為null
+     */
+    public void deleteWords(List<String> words, @Nullable WordRepository.DeleteCallback callback) {
+        mRepository.deleteWords(words, callback);
+    }
+
+    /**
+     * 刪除滑掉的單字，結果透過getDeleteResult()通知
+     * @param word 滑掉的單字(含id)，刪除失敗時用id找回它在列表中的位置
+     */
+    public void deleteSwipedWord(Word word) {
+        mRepository.deleteWords(Collections.singletonList(word.getWord()),
+                new WordRepository.DeleteCallback() {
+                    @Override
+                    public void onComplete(List<Word> deleted) {
+                        mDeleteResult.setValue(new DeleteResult(word, deleted, false));
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull RuntimeException error, List<Word> deleted) {
+                        mDeleteResult.setValue(new DeleteResult(word, deleted, true));
+                    }
+                });
+    }
+
+    /**
+     * 滑動刪除的結果 (deleteSwipedWord)，每個結果只會被處理一次 (見DeleteResult.consume)
+     * @return
+     */
+    public LiveData<DeleteResult> getDeleteResult() {
+        return mDeleteResult;
+    }
+
+    /**
+     * 刪除以prefix開頭的單字
+     * @param prefix
+     * @param callback 在主執行緒收到實際刪除的單字，可為null
+     */
+    public void deletePrefix(String prefix, @Nullable WordRepository.DeleteCallback callback) {
+        mRepository.deletePrefix(prefix, callback);
+    }
+
+    /**
+     * 復原刪除的單字 (undo)
+     * @param words DeleteCallback收到的單字
+     */
+    public void restoreWords(List<Word> words) {
+        mRepository.restoreWords(words, null);
+    }
+
+    /**
+     * 從檔案匯入單字，進度透過getImportProgress()通知
+     * - 在WordTransferService的process執行，寫入後列表透過跨process的invalidation更新。
+     * - 同一時間只會有一個匯入，進行中再呼叫會被忽略。
+     * @param uri
+     */
+    public void importWords(Uri uri) {
+        if (isImporting()) {
+            return;
+        }
+        mImportProgress.setValue(new WordImporter.Progress(
+                WordImporter.Progress.State.RUNNING, 0, -1, 0));
+        WordTransferService.startImport(getApplication(), uri, mTransferReceiver);
+        bindTransfer();
+    }
+
+    public void cancelImport() {
+        if (isImporting()) {
+            WordTransferService.cancelImport(getApplication());
+        }
+    }
+
+    public boolean isImporting() {
+        WordImporter.Progress progress = mImportProgress.getValue();
+        return progress != null && !progress.isFinished();
+    }
+
+    /**
+     * 匯入進度，沒有進行中的匯入時為null
+     * @return
+     */
+    public LiveData<WordImporter.Progress> getImportProgress() {
+        return mImportProgress;
+    }
+
+    /**
+     * UI已經處理完匯入結果
+     */
+    public void clearImportProgress() {
+        mImportProgress.setValue(null);
+    }
+
+    /**
+     * 將所有單字匯出到檔案，進度透過getExportProgress()通知
+     * - 在WordTransferService的process執行。
+     * - 同一時間只會有一個匯出，進行中再呼叫會被忽略。
+     * @param uri
+     */
+    public void exportWords(Uri uri) {
+        if (isExporting()) {
+            return;
+        }
+        mExportProgress.setValue(new WordExporter.Progress(
+                WordExporter.Progress.State.RUNNING, 0, -1));
+        WordTransferService.startExport(getApplication(), uri, mTransferReceiver);
+        bindTransfer();
+    }
+
+    public void cancelExport() {
+        if (isExporting()) {
+            WordTransferService.cancelExport(getApplication());
+        }
+    }
+
+    public boolean isExporting() {
+        WordExporter.Progress progress = mExportProgress.getValue();
+        return progress != null && !progress.isFinished();
+    }
+
+    /**
+     * 匯出進度，沒有進行中的匯出時為null
+     * @return
+     */
+    public LiveData<WordExporter.Progress> getExportProgress() {
+        return mExportProgress;
+    }
+
+    /**
+     * UI已經處理完匯出結果
+     */
+    public void clearExportProgress() {
+        mExportProgress.setValue(null);
+    }
+
+    /**
+     * 監看:transfer process (不含BIND_AUTO_CREATE，不會延長service的生命週期)
+     */
+    private void bindTransfer() {
+        if (!mTransferBound) {
+            // 回傳false時也要unbindService()，所以不論結果都記為已bind
+            getApplication().bindService(
+                    WordTransferService.bindIntent(getApplication()), mTransferConnection, 0);
+            mTransferBound = true;
+        }
+    }
+
+    private void unbindTransferIfIdle() {
+        if (isImporting() || isExporting() || !mTransferBound) {
+            return;
+        }
+        if (mTransferBinder != null) {
+            mTransferBinder.unlinkToDeath(mTransferDeath, 0);
+            mTransferBinder = null;
+        }
+        getApplication().unbindService(mTransferConnection);
+        mTransferBound = false;
+    }
+
+    /**
+     * 在主執行緒: 進行中的工作不會再有任何進度，以最後收到的數量結束
+     * - 已經寫入的匯入批次會保留，匯出寫到一半的檔案則留在原處。
+     */
+    private void onTransferProcessDied() {
+        mTransferBinder = null;
+        WordImporter.Progress importProgress = mImportProgress.getValue();
+        if (isImporting()) {
+            mImportProgress.setValue(new WordImporter.Progress(WordImporter.Progress.State.FAILED,
+                    importProgress.bytesRead, importProgress.totalBytes, importProgress.importedCount));
+        }
+        WordExporter.Progress exportProgress = mExportProgress.getValue();
+        if (isExporting()) {
+            mExportProgress.setValue(new WordExporter.Progress(WordExporter.Progress.State.FAILED,
+                    exportProgress.exportedCount, exportProgress.totalCount));
+        }
+        unbindTransferIfIdle();
+    }
+
+    /**
+     * 匯出查詢統計報告
+     * @param callback 在主執行緒呼叫
+     */
+    public void exportQueryReport(WordRepository.ReportCallback callback) {
+        mRepository.exportQueryReport(callback);
+    }
+
+    /**
+     * ViewModel被銷毀時(Activity真正結束)，一併停止匯入、匯出與Repository的監聽
+     */
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        cancelImport();
+        cancelExport();
+        if (mTransferBinder != null) {
+            mTransferBinder.unlinkToDeath(mTransferDeath, 0);
+            mTransferBinder = null;
+        }
+        if (mTransferBound) {
+            getApplication().unbindService(mTransferConnection);
+            mTransferBound = false;
+        }
+        if (mPendingSearch != null) {
+            mMainHandler.removeCallbacks(mPendingSearch);
+        }
+        mRepository.close();
+    }
+
+    /**
+     * 一次滑動刪除的結果
+     * - LiveData在Activity重建後會再送一次最後的值，consume()確保Snackbar/Toast只出現一次。
+     */
+    public static class DeleteResult {
+        // 滑掉的單字(含id)
+        public final Word word;
+        // 實際刪除的單字(含id)，可以交給restoreWords()復原；空的代表沒有刪除任何單字
+        public final List<Word> deleted;
+        public final boolean failed;
+        private boolean mConsumed;
+
+        DeleteResult(Word word, List<Word> deleted, boolean failed) {
+            this.word = word;
+            this.deleted = deleted;
+            this.failed = failed;
+        }
+
+        /**
+         * 只能在主執行緒呼叫
+         * @return 第一次呼叫時回傳true，之後都是false
+         */
+        public boolean consume() {
+            if (mConsumed) {
+                return false;
+            }
+            mConsumed = true;
+            return true;
+        }
+    }
 }
@@ -0,0 +1,551 @@
+package tw.dh46.codelab.roomsample;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import tw.dh46.codelab.roomsample.database.Word;
+
+/**
+ * 寫入前的日誌 (write-ahead journal)，讓還沒寫進資料庫的單字在process被終止後不會遺失
+ * - 每個process、每個目錄只有一個 (forDirectory())，同一個process的多個WordRepository共用，
+ * 各自透過openStream()取得自己的Stream (自己的segment檔)，互相不會刪除對方還沒commit的記錄。
+ * - 所有檔案I/O都在專用的日誌執行緒依序執行。呼叫端(通常是主執行緒)的append()只是把單字放進
+ * lock-free的佇列並喚醒日誌執行緒，不會等待，也不會被StrictMode回報。
+ * - 建立時就在日誌執行緒開啟 (建立目錄、檔案鎖、掃描舊的segment)，開啟之前append的單字
+ * 排在開啟之後寫入，一樣有日誌保護。
+ * - 寫入(write()，進到kernel的page cache)不做fsync: process被終止時資料還在，
+ * 但斷電或系統當機時最後一段可能遺失 (與SQLite的synchronous=NORMAL相同等級)。
+ * 從append()到日誌執行緒寫入之間被終止的單字也會遺失，這段時間通常遠短於等待寫入資料庫的時間。
+ * - 寫入緒每次取出pending的單字時呼叫checkpoint()換一個新的segment，
+ * 這批單字的transaction都commit之後commit(checkpoint)刪除舊的segment。
+ * checkpoint()也經過同一個佇列，排在它之前append的單字一定在舊的segment中。
+ * - 寫入失敗時也commit(checkpoint)刪除: 失敗已經回報給呼叫端，由呼叫端決定是否重試，
+ * 下次啟動不會重新寫入 (可能在這之間已經被刪除)。每個單字最多寫入一次 (at-most-once)。
+ * - 下次啟動時，還留著的segment就是沒有commit的單字，第一個Stream的第一個Checkpoint會帶著它們，
+ * 由readRecovered()讀回來重新寫入。重複寫入是安全的: insert使用OnConflictStrategy.IGNORE。
+ * - 每筆記錄都有長度與CRC32，寫到一半的最後一筆會被略過。
+ * - 無法使用日誌 (其他process拿著檔案鎖、I/O錯誤) 時不會默默略過:
+ * 那段期間的Checkpoint帶著錯誤 (getError())，WordInsertBatcher會通知每個呼叫端。
+ *
+ * 所有方法都是執行緒安全的。
+ */
+class WordWriteJournal {
+
+    private static final String TAG = "WordWriteJournal";
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String LOCK_FILE = "journal.lock";
+    // 長度(int) + id(long) + crc(int)
+    private static final int RECORD_OVERHEAD = 4 + 8 + 4;
+    // 單一記錄的上限，超過代表檔案內容已經損壞
+    private static final int MAX_WORD_BYTES = 64 * 1024;
+
+    // 每個目錄一個，process結束前都不關閉
+    private static final Map<String, WordWriteJournal> sJournals = new HashMap<>();
+
+    /**
+     * checkpoint()的結果: 這次要寫入的單字都commit之後可以刪除的segment
+     */
+    static final class Checkpoint {
+        private final List<File> mSegments;
+        // 上次啟動留下的segment (也包含在mSegments中)
+        private final List<File> mRecovered;
+        @Nullable
+        private final IOException mError;
+
+        private Checkpoint(List<File> segments, List<File> recovered, @Nullable IOException error) {
+            mSegments = segments;
+            mRecovered = recovered;
+            mError = error;
+        }
+
+        /**
+         * @return 上一個checkpoint之後有單字沒有記錄到日誌時，無法記錄的原因
+         */
+        @Nullable
+        IOException getError() {
+            return mError;
+        }
+
+        /**
+         * 讀回上次啟動沒有commit的單字，要與這次的單字一起寫入之後才commit
+         * @return 沒有的話回傳空的List
+         */
+        @WorkerThread
+        List<Word> readRecovered() {
+            List<Word> words = new ArrayList<>();
+            for (File segment : mRecovered) {
+                try {
+                    read(segment, words);
+                } catch (IOException e) {
+                    Log.w(TAG, "cannot read " + segment, e);
+                }
+            }
+            return words;
+        }
+    }
+
+    /**
+     * 還沒完成的checkpoint()，在寫入緒等待日誌執行緒換好segment
+     */
+    static final class PendingCheckpoint extends FutureTask<Checkpoint> {
+
+        private PendingCheckpoint(Stream stream) {
+            super(stream::rotate);
+        }
+
+        @WorkerThread
+        Checkpoint await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return get();
+                    } catch (InterruptedException e) {
+                        // 一定要等到結果，否則不知道哪些segment可以刪除
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Log.e(TAG, "cannot rotate", e.getCause());
+                        return new Checkpoint(Collections.emptyList(), Collections.emptyList(),
+                                new IOException("cannot rotate", e.getCause()));
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * 一個WordInsertBatcher使用的記錄，有自己的segment檔
+     * - append()可以在任何執行緒呼叫，不會等待；其他方法在寫入緒呼叫。
+     * - 以下的欄位只在日誌執行緒存取。
+     */
+    final class Stream {
+        private FileChannel mChannel;
+        private File mSegment;
+        // 已經關閉、等待commit的segment (依序)
+        private final List<File> mSealed = new ArrayList<>();
+        private List<File> mRecovered = Collections.emptyList();
+        // 無法再使用的原因 (無法建立segment、已經close())
+        @Nullable
+        private IOException mDisabledError;
+        // 上一個checkpoint之後第一個沒有記錄到的原因
+        @Nullable
+        private IOException mError;
+        private ByteBuffer mBuffer = ByteBuffer.allocate(1024);
+        private final CRC32 mCrc = new CRC32();
+
+        private Stream() {
+        }
+
+        /**
+         * 記錄單字: 交給日誌執行緒寫入，不會等待
+         * - 在任何執行緒呼叫，與checkpoint()的先後順序就是寫入日誌的順序。
+         * @param words 呼叫端之後不能再修改
+         */
+        void append(List<Word> words) {
+            if (!words.isEmpty()) {
+                post(() -> write(words));
+            }
+        }
+
+        /**
+         * 關閉目前的segment，之後的append寫到新的segment
+         * - 必須與取出pending單字在同一個lock裡呼叫 (見WordInsertBatcher)，
+         * 確保舊segment中的單字剛好就是這次取出的單字。只是排入佇列，不會等待。
+         * @return 在lock之外呼叫await()取得結果
+         */
+        PendingCheckpoint checkpoint() {
+            PendingCheckpoint checkpoint = new PendingCheckpoint(this);
+            post(checkpoint);
+            return checkpoint;
+        }
+
+        /**
+         * checkpoint之前的單字都已經寫入資料庫 (或已經回報失敗)，刪除對應的segment
+         * @param checkpoint
+         */
+        @WorkerThread
+        void commit(Checkpoint checkpoint) {
+            for (File segment : checkpoint.mSegments) {
+                if (!segment.delete() && segment.exists()) {
+                    Log.w(TAG, "cannot delete " + segment);
+                }
+            }
+        }
+
+        /**
+         * 不再使用 (WordRepository.close)，目前的segment有內容的話保留，下次啟動時重新寫入
+         * - 排在之前的append之後，之後的append都會被記為沒有記錄到。
+         */
+        void close() {
+            post(() -> {
+                if (mDisabledError == null) {
+                    mDisabledError = new IOException("stream closed");
+                }
+                closeSegment(true);
+            });
+        }
+
+        /**
+         * 在日誌執行緒: 開啟之後才執行，領取上次啟動留下的segment
+         */
+        private void start() {
+            mRecovered = takeRecovered();
+            mSealed.addAll(mRecovered);
+            if (mDisabledError != null || mOpenError != null) {
+                return;
+            }
+            try {
+                openNextSegment();
+            } catch (IOException e) {
+                Log.w(TAG, "cannot create a segment in " + mDir, e);
+                mDisabledError = e;
+            }
+        }
+
+        /**
+         * 在日誌執行緒
+         */
+        private void write(List<Word> words) {
+            IOException error = disabledError();
+            if (error == null) {
+                try {
+                    writeRecords(words);
+                } catch (IOException e) {
+                    Log.w(TAG, "cannot append to " + mSegment, e);
+                    error = e;
+                }
+            }
+            if (error != null && mError == null) {
+                mError = error;
+            }
+        }
+
+        private void writeRecords(List<Word> words) throws IOException {
+            mBuffer.clear();
+            for (Word word : words) {
+                byte[] bytes = word.getWord().getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(RECORD_OVERHEAD + bytes.length);
+                int start = mBuffer.position();
+                mBuffer.putInt(bytes.length)
+                        .putLong(word.getId())
+                        .put(bytes);
+                // CRC涵蓋長度、id與單字
+                mCrc.reset();
+                mCrc.update(mBuffer.array(), start, mBuffer.position() - start);
+                mBuffer.putInt((int) mCrc.getValue());
+            }
+            mBuffer.flip();
+            while (mBuffer.hasRemaining()) {
+                mChannel.write(mBuffer);
+            }
+        }
+
+        /**
+         * 在日誌執行緒
+         */
+        private Checkpoint rotate() {
+            IOException error = mError;
+            mError = null;
+            if (disabledError() == null) {
+                try {
+                    if (mChannel.size() > 0) {
+                        mChannel.close();
+                        mSealed.add(mSegment);
+                        openNextSegment();
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "cannot rotate " + mSegment, e);
+                    mDisabledError = e;
+                    closeSegment(false);
+                }
+            }
+            Checkpoint checkpoint = new Checkpoint(new ArrayList<>(mSealed), mRecovered, error);
+            mSealed.clear();
+            mRecovered = Collections.emptyList();
+            return checkpoint;
+        }
+
+        @Nullable
+        private IOException disabledError() {
+            return mOpenError != null ? mOpenError : mDisabledError;
+        }
+
+        private void openNextSegment() throws IOException {
+            mSegment = segmentFile(mNextSegment++);
+            RandomAccessFile file = new RandomAccessFile(mSegment, "rw");
+            mChannel = file.getChannel();
+            mChannel.position(mChannel.size());
+        }
+
+        /**
+         * @param deleteIfEmpty 沒有任何記錄的segment直接刪除
+         */
+        private void closeSegment(boolean deleteIfEmpty) {
+            if (mChannel == null) {
+                return;
+            }
+            try {
+                boolean empty = mChannel.size() == 0;
+                mChannel.close();
+                if (deleteIfEmpty && empty && !mSegment.delete()) {
+                    Log.w(TAG, "cannot delete " + mSegment);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "cannot close " + mSegment, e);
+            }
+            mChannel = null;
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (mBuffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(mBuffer.capacity() * 2,
+                        mBuffer.position() + bytes));
+                mBuffer.flip();
+                larger.put(mBuffer);
+                mBuffer = larger;
+            }
+        }
+    }
+
+    private final File mDir;
+    private final ConcurrentLinkedQueue<Runnable> mQueue = new ConcurrentLinkedQueue<>();
+    private final Thread mThread;
+
+    // 以下只在日誌執行緒存取
+    // 無法開啟 (其他process拿著鎖、I/O錯誤) 或已經close()的原因
+    @Nullable
+    private IOException mOpenError;
+    private FileLock mLock;
+    private long mNextSegment;
+    // 上次啟動留下、還沒有Stream領取的segment
+    private List<File> mRecovered = Collections.emptyList();
+    private final List<Stream> mStreams = new ArrayList<>();
+
+    /**
+     * 這個process中dir的日誌，第一次呼叫時建立並開始開啟
+     * @param dir 日誌目錄，只給WordWriteJournal使用
+     * @return
+     */
+    static WordWriteJournal forDirectory(File dir) {
+        synchronized (sJournals) {
+            String key = dir.getAbsolutePath();
+            WordWriteJournal journal = sJournals.get(key);
+            if (journal == null) {
+                journal = new WordWriteJournal(dir);
+                sJournals.put(key, journal);
+            }
+            return journal;
+        }
+    }
+
+    /**
+     * 建立日誌執行緒並排入開啟，不在呼叫端的執行緒做I/O
+     * - 一般請使用forDirectory()；直接建立只用在測試 (模擬另一個process)。
+     * @param dir 日誌目錄
+     */
+    WordWriteJournal(File dir) {
+        mDir = dir;
+        mThread = new Thread(this::loop, "word-journal");
+        mThread.setDaemon(true);
+        mThread.start();
+        post(this::open);
+    }
+
+    /**
+     * 新的Stream，第一個Stream負責重新寫入上次啟動留下的單字
+     * @return
+     */
+    Stream openStream() {
+        Stream stream = new Stream();
+        post(() -> {
+            mStreams.add(stream);
+            stream.start();
+        });
+        return stream;
+    }
+
+    /**
+     * 關閉所有Stream並釋放檔案鎖，segment全部保留 (等同process被終止)
+     * - 會等待之前排入的記錄寫完。一般不需要呼叫，日誌與process同生命週期。
+     */
+    @WorkerThread
+    void close() {
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            for (Stream stream : mStreams) {
+                stream.closeSegment(false);
+                stream.mDisabledError = new IOException("journal closed");
+            }
+            mStreams.clear();
+            if (mLock != null) {
+                try {
+                    mLock.channel().close();
+                } catch (IOException e) {
+                    Log.w(TAG, "cannot unlock " + mDir, e);
+                }
+                mLock = null;
+            }
+            if (mOpenError == null) {
+                mOpenError = new IOException("journal closed");
+            }
+        }, null);
+        post(task);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                task.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                Log.w(TAG, "cannot close " + mDir, e.getCause());
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 讀取一個segment，遇到不完整或損壞的記錄就停止 (寫到一半時process被終止)
+     */
+    static void read(File segment, List<Word> out) throws IOException {
+        byte[] data;
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            data = new byte[(int) file.length()];
+            file.readFully(data);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_OVERHEAD) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length < 0 || length > MAX_WORD_BYTES || buffer.remaining() < length + 8 + 4) {
+                return;
+            }
+            long id = buffer.getLong();
+            int textStart = buffer.position();
+            buffer.position(textStart + length);
+            crc.reset();
+            crc.update(data, start, buffer.position() - start);
+            if (buffer.getInt() != (int) crc.getValue()) {
+                return;
+            }
+            Word word = new Word(new String(data, textStart, length, StandardCharsets.UTF_8));
+            word.setId(id);
+            out.add(word);
+        }
+    }
+
+    /**
+     * 交給日誌執行緒，不會等待 (ConcurrentLinkedQueue + unpark)
+     */
+    private void post(Runnable operation) {
+        mQueue.offer(operation);
+        LockSupport.unpark(mThread);
+    }
+
+    private void loop() {
+        while (true) {
+            Runnable operation = mQueue.poll();
+            if (operation == null) {
+                // post()先放進佇列才unpark，park之前的unpark也會讓park立刻返回
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                operation.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "journal operation failed", e);
+            }
+        }
+    }
+
+    /**
+     * 在日誌執行緒
+     */
+    private void open() {
+        try {
+            if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                throw new IOException("cannot create " + mDir);
+            }
+            FileChannel lockChannel = new RandomAccessFile(new File(mDir, LOCK_FILE), "rw").getChannel();
+            try {
+                mLock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // 只有直接建立的日誌 (測試) 會發生，forDirectory()每個目錄只有一個
+                mLock = null;
+            }
+            if (mLock == null) {
+                lockChannel.close();
+                throw new IOException(mDir + " is used by another process");
+            }
+            File[] existing = mDir.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+            long[] numbers = new long[existing != null ? existing.length : 0];
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = segmentNumber(existing[i]);
+            }
+            Arrays.sort(numbers);
+            List<File> recovered = new ArrayList<>(numbers.length);
+            for (long number : numbers) {
+                if (number >= 0) {
+                    recovered.add(segmentFile(number));
+                }
+            }
+            mRecovered = recovered;
+            mNextSegment = numbers.length > 0 ? numbers[numbers.length - 1] + 1 : 0;
+        } catch (IOException e) {
+            Log.w(TAG, "cannot open " + mDir + ", inserts are not journaled", e);
+            mOpenError = e;
+        }
+    }
+
+    /**
+     * 在日誌執行緒: 上次啟動留下的segment只交給一個Stream
+     */
+    private List<File> takeRecovered() {
+        List<File> recovered = mRecovered;
+        mRecovered = Collections.emptyList();
+        return recovered;
+    }
+
+    private File segmentFile(long number) {
+        return new File(mDir, number + SEGMENT_SUFFIX);
+    }
+
+    private static long segmentNumber(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package tw.dh46.codelab.roomsample;
+
+import android.database.Cursor;
+
+import androidx.room.RoomDatabase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分辨word_table的異動是不是自己寫入的 (write token)
+ * - InvalidationTracker的通知會合併，也不知道來源，只能知道「有異動」。
+ * - token = (PRAGMA data_version, process內的寫入次數)
+ * - data_version: 其他連線(其他process，例如:transfer)commit之後才會改變，同一個連線自己的commit不會。
+ * Android上所有寫入都經過同一個primary連線，要在transaction中讀取才是這個連線的值。
+ * SQLite 3.8.7之前沒有data_version (API 21、22)，這時每次確認都當作有其他來源的寫入。
+ * - process內的其他寫入者與自己共用primary連線，data_version不會改變，改用process內的寫入次數:
+ * 每個寫入都要在transaction中呼叫onLocalWrite()。transaction期間其他執行緒拿不到primary連線，
+ * 讀到的次數不會與其他寫入交錯。
+ * - 自己的寫入透過write()執行: 先確認token與上次同步的相同 (不同就通知Listener)，
+ * 寫入後的token就是新的同步點；收到異動通知時呼叫sync()，token沒變代表只有自己的寫入。
+ * - 除了onLocalWrite()，只能在寫入緒使用。
+ */
+class WordWriteTracker {
+
+    // 這個process所有寫入者的寫入次數
+    private static final AtomicLong sLocalWrites = new AtomicLong();
+    // 不支援PRAGMA data_version
+    private static final long NO_DATA_VERSION = -1;
+
+    /**
+     * 其他來源的寫入，在寫入緒、transaction中呼叫
+     */
+    interface Listener {
+        /**
+         * 上次同步之後有其他來源的寫入 (或是還沒同步過)，記憶體中的狀態不再可信
+         */
+        void onExternalWrite();
+    }
+
+    private final RoomDatabase mDatabase;
+    private final Listener mListener;
+    private boolean mSynced;
+    private long mDataVersion;
+    private long mLocalWrites;
+
+    WordWriteTracker(RoomDatabase database, Listener listener) {
+        mDatabase = database;
+        mListener = listener;
+    }
+
+    /**
+     * process內的寫入者在自己的transaction中呼叫 (WordTransferRepository、其他WordRepository)
+     */
+    static void onLocalWrite() {
+        sLocalWrites.incrementAndGet();
+    }
+
+    /**
+     * 在transaction中執行自己的寫入，寫入前如果有其他來源的寫入，先通知Listener
+     * - Listener在寫入之前被呼叫，寫入時用到的記憶體狀態(例如已知存在的單字)已經不包含過期的資料。
+     * @param write
+     * @return write的結果
+     */
+    <T> T write(Callable<T> write) {
+        return mDatabase.runInTransaction(() -> {
+            checkLocked();
+            T result = write.call();
+            // 自己的commit不會改變data_version，只需要更新寫入次數
+            mLocalWrites = sLocalWrites.incrementAndGet();
+            return result;
+        });
+    }
+
+    /**
+     * 收到異動通知時呼叫，有其他來源的寫入時通知Listener
+     */
+    void sync() {
+        mDatabase.runInTransaction(this::checkLocked);
+    }
+
+    private void checkLocked() {
+        long dataVersion = readDataVersion();
+        long localWrites = sLocalWrites.get();
+        if (mSynced && dataVersion != NO_DATA_VERSION
+                && dataVersion == mDataVersion && localWrites == mLocalWrites) {
+            return;
+        }
+        mSynced = true;
+        mDataVersion = dataVersion;
+        mLocalWrites = localWrites;
+        mListener.onExternalWrite();
+    }
+
+    private long readDataVersion() {
+        try (Cursor cursor = mDatabase.query("PRAGMA data_version", null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : NO_DATA_VERSION;
+        }
+    }
+}
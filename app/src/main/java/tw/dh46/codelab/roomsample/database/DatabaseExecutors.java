@@ -0,0 +1,106 @@
+package tw.dh46.codelab.roomsample.database;
+
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 資料庫使用的背景緒
+ * - SQLite同一時間只允許一個寫入者，多個寫入緒只會互相搶鎖，
+ * 因此所有寫入都交給單一的寫入緒(writer)依序執行。
+ * - 讀取(Room的查詢、LiveData、分頁)交給讀取緒池(reader)，數量預設與CPU核心數相同。
+ * - 兩者都是InstrumentedExecutor: 有名字、有佇列上限(backpressure)、會記錄指標。
+ * 只有背景緒會因為佇列滿而等待，逾時也只是改放到overflow，不會丟出例外；
+ * 主執行緒與executor自己的執行緒送進來的工作直接放到overflow，不會卡住UI，也不會自己等自己。
+ *
+ * 要調整設定的話，必須在第一次使用(第一次getDatabase)之前呼叫configure()。
+ */
+public final class DatabaseExecutors {
+
+    private static final String TAG = "DatabaseExecutors";
+
+    /**
+     * Executor的設定
+     */
+    public static class Config {
+        // 讀取緒數量
+        public int readThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        // 寫入佇列上限 (寫入大多經過WordInsertBatcher合併，佇列中通常只有少數工作)
+        public int writeQueueCapacity = 256;
+        // 讀取佇列上限
+        public int readQueueCapacity = 512;
+        // 佇列滿時背景緒的呼叫端最多等待的時間，逾時改放到overflow (主執行緒不等待)
+        public long offerTimeoutMs = 5000;
+    }
+
+    private static volatile DatabaseExecutors INSTANCE;
+    private static Config sConfig = new Config();
+
+    private final InstrumentedExecutor mWriter;
+    private final InstrumentedExecutor mReader;
+
+    private DatabaseExecutors(Config config) {
+        // 主執行緒不能等待 (Room的LiveData、InvalidationTracker都會從主執行緒送工作進來)
+        InstrumentedExecutor.BlockingCheck notMainThread =
+                () -> Looper.myLooper() != Looper.getMainLooper();
+        mWriter = new InstrumentedExecutor("word-db-write", 1,
+                config.writeQueueCapacity, config.offerTimeoutMs, notMainThread);
+        mReader = new InstrumentedExecutor("word-db-read", config.readThreads,
+                config.readQueueCapacity, config.offerTimeoutMs, notMainThread);
+    }
+
+    /**
+     * 設定Executor，必須在get()之前呼叫
+     * @param config
+     */
+    public static void configure(Config config) {
+        synchronized (DatabaseExecutors.class) {
+            if (INSTANCE != null) {
+                throw new IllegalStateException("DatabaseExecutors already created");
+            }
+            sConfig = config;
+        }
+    }
+
+    public static DatabaseExecutors get() {
+        if (INSTANCE == null) {
+            synchronized (DatabaseExecutors.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new DatabaseExecutors(sConfig);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * 唯一的寫入緒，所有insert/delete都在這裡依序執行
+     */
+    public InstrumentedExecutor writer() {
+        return mWriter;
+    }
+
+    /**
+     * 讀取緒池，給Room的查詢與分頁載入使用
+     */
+    public InstrumentedExecutor reader() {
+        return mReader;
+    }
+
+    /**
+     * @return 寫入緒與讀取緒池目前的指標
+     */
+    public List<InstrumentedExecutor.Metrics> getMetrics() {
+        return Arrays.asList(mWriter.getMetrics(), mReader.getMetrics());
+    }
+
+    /**
+     * 將目前的指標輸出到logcat
+     */
+    public void logMetrics() {
+        Log.i(TAG, mWriter.getMetrics().toString());
+        Log.i(TAG, mReader.getMetrics().toString());
+    }
+}
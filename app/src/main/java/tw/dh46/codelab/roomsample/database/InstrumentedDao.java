@@ -0,0 +1,69 @@
+package tw.dh46.codelab.roomsample.database;
+
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+
+/**
+ * 以java.lang.reflect.Proxy包裝DAO，量測每個方法的時間與回傳筆數
+ * - 不需要修改Room產生的程式碼，所有DAO介面都可以用同一個方式包裝。
+ * - 執行期間會記錄目前的DAO方法，讓InstrumentedOpenHelperFactory記錄的SQL知道是誰發出的。
+ * - 回傳LiveData/DataSource.Factory的方法只是建立物件，真正的查詢在之後才執行，
+ * 那些查詢只會出現在SQL的統計中。
+ */
+public final class InstrumentedDao {
+
+    private static final ThreadLocal<String> CURRENT_METHOD = new ThreadLocal<>();
+
+    private InstrumentedDao() {
+    }
+
+    /**
+     * @param type DAO介面
+     * @param dao Room產生的實作
+     * @param observer 接收量測結果
+     * @return 包裝後的DAO
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T wrap(Class<T> type, T dao, QueryObserver observer) {
+        String prefix = type.getSimpleName() + ".";
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(dao, args);
+            }
+            String name = prefix + method.getName();
+            String outer = CURRENT_METHOD.get();
+            CURRENT_METHOD.set(name);
+            long start = System.nanoTime();
+            try {
+                Object result = method.invoke(dao, args);
+                observer.onDaoCall(name, System.nanoTime() - start, rowsOf(result));
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                CURRENT_METHOD.set(outer);
+            }
+        };
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    /**
+     * @return 目前執行緒正在執行的DAO方法，沒有的話為null
+     */
+    @Nullable
+    static String currentMethod() {
+        return CURRENT_METHOD.get();
+    }
+
+    private static int rowsOf(Object result) {
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,382 @@
+package tw.dh46.codelab.roomsample.database;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有容量上限、會記錄指標的ThreadPoolExecutor
+ * - 執行緒有名字 (例如 word-db-write-1)，在trace/ANR報告裡一眼就能認出來。
+ * - 佇列有上限，滿了的時候呼叫端最多等offerTimeoutMs (backpressure)，
+ * 逾時就改放到overflow並記錄在timedOutCount，不會在任意的背景緒丟出例外。
+ * - 不能等待的呼叫端(BlockingCheck回傳false，例如主執行緒)不套用backpressure:
+ * 佇列滿時工作放到overflow，等佇列有空位再依序移入，呼叫端立刻返回。
+ * - 自己的執行緒送進來的工作也不等待，直接放到overflow:
+ * 執行緒等待自己的佇列空出位置只會卡住，單一執行緒的writer更是永遠等不到。
+ * - 要放進佇列還是overflow，都在overflow的鎖裡決定，移入佇列也在同一個鎖裡，
+ * overflow中有工作時，之後的工作一定排在overflow後面，順序不會改變。
+ * - 只有shutdown之後送進來的工作會丟出RejectedExecutionException。
+ * - 每個工作依tag分別統計等待時間(排隊)與執行時間，tag通常是DAO方法名稱，
+ * 用tagged()包裝Runnable即可，沒有tag的工作統計在executor的名字底下。
+ *
+ * 這個類別只使用java.util.concurrent，可以直接在JVM上測試。
+ */
+public class InstrumentedExecutor extends ThreadPoolExecutor {
+
+    private final String mName;
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    private final AtomicLong mOverflowCount = new AtomicLong();
+    private final AtomicLong mTimedOutCount = new AtomicLong();
+    // 佇列滿時不能等待的呼叫端送進來的工作，以自己為鎖；等待佇列空位的呼叫端也在這個鎖上wait
+    private final ArrayDeque<Runnable> mOverflow = new ArrayDeque<>();
+    private final long mOfferTimeoutNanos;
+    private final BlockingCheck mBlockingCheck;
+    // 目前執行緒正在執行哪個executor的工作，用來認出自己的執行緒
+    private static final ThreadLocal<InstrumentedExecutor> sRunningOn = new ThreadLocal<>();
+    private final Map<String, TaskStats> mStats = new ConcurrentHashMap<>();
+
+    /**
+     * 判斷目前的呼叫端能不能等待佇列空出位置
+     */
+    public interface BlockingCheck {
+        /**
+         * @return false代表不能等待 (例如主執行緒)，佇列滿時工作會放到overflow
+         */
+        boolean mayBlock();
+    }
+
+    /**
+     * 所有呼叫端都可以等待
+     * @param name 執行緒名稱的前綴，也是預設的tag
+     * @param threads 固定的執行緒數量
+     * @param queueCapacity 佇列上限
+     * @param offerTimeoutMs 佇列滿時呼叫端最多等待的時間
+     */
+    public InstrumentedExecutor(String name, int threads, int queueCapacity, long offerTimeoutMs) {
+        this(name, threads, queueCapacity, offerTimeoutMs, () -> true);
+    }
+
+    /**
+     * @param name 執行緒名稱的前綴，也是預設的tag
+     * @param threads 固定的執行緒數量
+     * @param queueCapacity 佇列上限
+     * @param offerTimeoutMs 佇列滿時呼叫端最多等待的時間
+     * @param blockingCheck 呼叫端能不能等待，不能的話佇列滿時放到overflow
+     */
+    public InstrumentedExecutor(String name, int threads, int queueCapacity, long offerTimeoutMs,
+                                BlockingCheck blockingCheck) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new NamedThreadFactory(name),
+                new CountingAbortPolicy());
+        mName = name;
+        mOfferTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMs);
+        mBlockingCheck = blockingCheck;
+        // execute()直接把工作放進佇列，執行緒要先建立好
+        prestartAllCoreThreads();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * 為工作加上tag，讓指標可以依DAO方法分別統計
+     */
+    public static Runnable tagged(String tag, Runnable command) {
+        return new TimedTask(tag, command);
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        TimedTask task = command instanceof TimedTask
+                ? (TimedTask) command : new TimedTask(mName, command);
+        task.mEnqueuedAt = System.nanoTime();
+        if (isShutdown()) {
+            // 交給ThreadPoolExecutor拒絕
+            super.execute(task);
+            return;
+        }
+        boolean mayBlock = sRunningOn.get() != this && mBlockingCheck.mayBlock();
+        long deadline = task.mEnqueuedAt + mOfferTimeoutNanos;
+        synchronized (mOverflow) {
+            while (true) {
+                // overflow中有工作時排在它們後面
+                if (mOverflow.isEmpty() && getQueue().offer(task)) {
+                    recordQueueDepth();
+                    return;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (!mayBlock || remaining <= 0 || isShutdown()) {
+                    if (mayBlock) {
+                        mTimedOutCount.incrementAndGet();
+                    }
+                    mOverflow.add(task);
+                    mOverflowCount.incrementAndGet();
+                    return;
+                }
+                try {
+                    // 執行緒取走工作時(beforeExecute)會通知
+                    TimeUnit.NANOSECONDS.timedWait(mOverflow, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    mayBlock = false;
+                }
+            }
+        }
+    }
+
+    private void recordQueueDepth() {
+        int depth = getQueue().size();
+        int max;
+        while (depth > (max = mMaxQueueDepth.get())
+                && !mMaxQueueDepth.compareAndSet(max, depth)) {
+            // retry
+        }
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        sRunningOn.set(this);
+        // 執行緒剛從佇列取走這個工作，佇列有空位了
+        drainOverflow();
+        if (r instanceof TimedTask) {
+            ((TimedTask) r).mStartedAt = System.nanoTime();
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        sRunningOn.remove();
+        if (r instanceof TimedTask) {
+            TimedTask task = (TimedTask) r;
+            long now = System.nanoTime();
+            statsFor(task.mTag).record(task.mStartedAt - task.mEnqueuedAt, now - task.mStartedAt);
+        }
+    }
+
+    /**
+     * 依序把overflow中的工作移入佇列，直到佇列滿為止，不會等待；
+     * overflow清空後叫醒等待佇列空位的呼叫端
+     */
+    private void drainOverflow() {
+        synchronized (mOverflow) {
+            Runnable task;
+            while ((task = mOverflow.peek()) != null && getQueue().offer(task)) {
+                mOverflow.poll();
+            }
+            if (mOverflow.isEmpty()) {
+                mOverflow.notifyAll();
+            }
+        }
+    }
+
+    private TaskStats statsFor(String tag) {
+        TaskStats stats = mStats.get(tag);
+        if (stats == null) {
+            TaskStats created = new TaskStats(tag);
+            stats = mStats.putIfAbsent(tag, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 目前的指標快照
+     */
+    public Metrics getMetrics() {
+        List<TaskMetrics> tasks = new ArrayList<>(mStats.size());
+        for (TaskStats stats : mStats.values()) {
+            tasks.add(stats.snapshot());
+        }
+        return new Metrics(mName, getActiveCount(), getQueue().size(), mMaxQueueDepth.get(),
+                getCompletedTaskCount(), mRejectedCount.get(), mOverflowCount.get(),
+                mTimedOutCount.get(), tasks);
+    }
+
+    /**
+     * 執行緒命名: name-1, name-2 ...
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String mPrefix;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            mPrefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            return new Thread(runnable, mPrefix + "-" + mCount.incrementAndGet());
+        }
+    }
+
+    /**
+     * 只有shutdown之後送進來的工作會走到這裡: 記錄後拒絕
+     */
+    private static class CountingAbortPolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            InstrumentedExecutor instrumented = (InstrumentedExecutor) executor;
+            instrumented.mRejectedCount.incrementAndGet();
+            throw new RejectedExecutionException(instrumented.mName + " is shut down");
+        }
+    }
+
+    private static class TimedTask implements Runnable {
+
+        final String mTag;
+        final Runnable mCommand;
+        volatile long mEnqueuedAt;
+        volatile long mStartedAt;
+
+        TimedTask(String tag, Runnable command) {
+            mTag = tag;
+            mCommand = command;
+        }
+
+        @Override
+        public void run() {
+            mCommand.run();
+        }
+    }
+
+    /**
+     * 單一tag的累計數據
+     */
+    private static class TaskStats {
+
+        private final String mTag;
+        private long mCount;
+        private long mTotalWaitNanos;
+        private long mMaxWaitNanos;
+        private long mTotalExecNanos;
+        private long mMaxExecNanos;
+
+        TaskStats(String tag) {
+            mTag = tag;
+        }
+
+        synchronized void record(long waitNanos, long execNanos) {
+            mCount++;
+            mTotalWaitNanos += waitNanos;
+            mMaxWaitNanos = Math.max(mMaxWaitNanos, waitNanos);
+            mTotalExecNanos += execNanos;
+            mMaxExecNanos = Math.max(mMaxExecNanos, execNanos);
+        }
+
+        synchronized TaskMetrics snapshot() {
+            return new TaskMetrics(mTag, mCount, mTotalWaitNanos, mMaxWaitNanos,
+                    mTotalExecNanos, mMaxExecNanos);
+        }
+    }
+
+    /**
+     * Executor整體的指標
+     */
+    public static class Metrics {
+        public final String name;
+        public final int activeCount;
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final long completedCount;
+        // shutdown之後被拒絕的工作數
+        public final long rejectedCount;
+        // 佇列滿時放到overflow的工作數 (不能等待的呼叫端、自己的執行緒、等待逾時)
+        public final long overflowCount;
+        // 其中背景緒等待逾時才放到overflow的工作數，持續增加代表佇列容量或執行緒不夠
+        public final long timedOutCount;
+        public final List<TaskMetrics> tasks;
+
+        Metrics(String name, int activeCount, int queueDepth, int maxQueueDepth,
+                long completedCount, long rejectedCount, long overflowCount, long timedOutCount,
+                List<TaskMetrics> tasks) {
+            this.name = name;
+            this.activeCount = activeCount;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.completedCount = completedCount;
+            this.rejectedCount = rejectedCount;
+            this.overflowCount = overflowCount;
+            this.timedOutCount = timedOutCount;
+            this.tasks = tasks;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder()
+                    .append(name)
+                    .append(" active=").append(activeCount)
+                    .append(" queue=").append(queueDepth)
+                    .append(" maxQueue=").append(maxQueueDepth)
+                    .append(" completed=").append(completedCount)
+                    .append(" rejected=").append(rejectedCount)
+                    .append(" overflow=").append(overflowCount)
+                    .append(" timedOut=").append(timedOutCount);
+            for (TaskMetrics task : tasks) {
+                builder.append("\n  ").append(task);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * 單一tag(DAO方法)的指標
+     */
+    public static class TaskMetrics {
+        public final String tag;
+        public final long count;
+        public final long totalWaitNanos;
+        public final long maxWaitNanos;
+        public final long totalExecNanos;
+        public final long maxExecNanos;
+
+        TaskMetrics(String tag, long count, long totalWaitNanos, long maxWaitNanos,
+                    long totalExecNanos, long maxExecNanos) {
+            this.tag = tag;
+            this.count = count;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.totalExecNanos = totalExecNanos;
+            this.maxExecNanos = maxExecNanos;
+        }
+
+        public double getAverageWaitMs() {
+            return count == 0 ? 0 : totalWaitNanos / 1e6 / count;
+        }
+
+        public double getAverageExecMs() {
+            return count == 0 ? 0 : totalExecNanos / 1e6 / count;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s count=%d wait(avg/max)=%.2f/%.2fms exec(avg/max)=%.2f/%.2fms",
+                    tag, count, getAverageWaitMs(), maxWaitNanos / 1e6,
+                    getAverageExecMs(), maxExecNanos / 1e6);
+        }
+    }
+}
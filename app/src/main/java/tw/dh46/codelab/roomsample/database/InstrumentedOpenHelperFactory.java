@@ -0,0 +1,163 @@
+package tw.dh46.codelab.roomsample.database;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Locale;
+
+/**
+ * 記錄每一句SQL的SupportSQLiteOpenHelper.Factory
+ * - 包在原本的Factory外面 (Room的openHelperFactory)，Room所有的存取都會經過這裡，
+ * 包含DAO、LiveData、分頁、InvalidationTracker自己的查詢。
+ * - 查詢的時間是從query()到cursor被close()，包含讀取所有資料列 (SQLite真正的工作是在讀取時才做)。
+ * - 寫入以SupportSQLiteStatement的execute*計時，筆數為影響的列數。
+ *
+ * 以java.lang.reflect.Proxy實作，SupportSQLiteDatabase的其他方法都直接交給原本的物件。
+ */
+class InstrumentedOpenHelperFactory implements SupportSQLiteOpenHelper.Factory {
+
+    private final SupportSQLiteOpenHelper.Factory mDelegate;
+    private final QueryObserver mObserver;
+
+    InstrumentedOpenHelperFactory(SupportSQLiteOpenHelper.Factory delegate, QueryObserver observer) {
+        mDelegate = delegate;
+        mObserver = observer;
+    }
+
+    @Override
+    public SupportSQLiteOpenHelper create(SupportSQLiteOpenHelper.Configuration configuration) {
+        SupportSQLiteOpenHelper helper = mDelegate.create(configuration);
+        return proxy(SupportSQLiteOpenHelper.class, helper, new InvocationHandler() {
+
+            // Room會頻繁呼叫getWritableDatabase()，同一個db只包裝一次
+            private SupportSQLiteDatabase mDatabase;
+            private SupportSQLiteDatabase mWrapped;
+
+            @Override
+            public synchronized Object invoke(Object proxy, Method method, Object[] args)
+                    throws Throwable {
+                Object result = invoke(helper, method, args);
+                if (result instanceof SupportSQLiteDatabase) {
+                    if (result != mDatabase) {
+                        mDatabase = (SupportSQLiteDatabase) result;
+                        mWrapped = wrapDatabase(mDatabase);
+                    }
+                    return mWrapped;
+                }
+                return result;
+            }
+        });
+    }
+
+    private SupportSQLiteDatabase wrapDatabase(SupportSQLiteDatabase db) {
+        return proxy(SupportSQLiteDatabase.class, db, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "query": {
+                    String sql = args[0] instanceof SupportSQLiteQuery
+                            ? ((SupportSQLiteQuery) args[0]).getSql() : (String) args[0];
+                    long start = System.nanoTime();
+                    Cursor cursor = (Cursor) invoke(db, method, args);
+                    return new TimedCursor(cursor, InstrumentedDao.currentMethod(), sql, start);
+                }
+                case "compileStatement": {
+                    String sql = (String) args[0];
+                    SupportSQLiteStatement statement =
+                            (SupportSQLiteStatement) invoke(db, method, args);
+                    return wrapStatement(statement, sql);
+                }
+                case "execSQL":
+                    return timed(db, method, args, (String) args[0]);
+                case "insert":
+                case "update":
+                case "delete":
+                    return timed(db, method, args, method.getName().toUpperCase(Locale.US) + " " + args[0]);
+                default:
+                    return invoke(db, method, args);
+            }
+        });
+    }
+
+    private SupportSQLiteStatement wrapStatement(SupportSQLiteStatement statement, String sql) {
+        return proxy(SupportSQLiteStatement.class, statement, (proxy, method, args) ->
+                method.getName().startsWith("execute") || method.getName().startsWith("simpleQuery")
+                        ? timed(statement, method, args, sql)
+                        : invoke(statement, method, args));
+    }
+
+    private Object timed(Object target, Method method, Object[] args, String sql) throws Throwable {
+        long start = System.nanoTime();
+        Object result = invoke(target, method, args);
+        mObserver.onSql(InstrumentedDao.currentMethod(), sql, System.nanoTime() - start,
+                rowsOf(method, result));
+        return result;
+    }
+
+    /**
+     * executeInsert回傳rowId，其他寫入回傳影響的筆數
+     */
+    private static int rowsOf(Method method, Object result) {
+        switch (method.getName()) {
+            case "executeInsert":
+            case "insert":
+                return ((Long) result) == -1L ? 0 : 1;
+            case "executeUpdateDelete":
+            case "update":
+            case "delete":
+                return (Integer) result;
+            case "simpleQueryForLong":
+            case "simpleQueryForString":
+                return 1;
+            default:
+                return -1;
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, T target, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    /**
+     * close()時記錄從query到現在的時間與讀取的筆數
+     */
+    private class TimedCursor extends CursorWrapper {
+
+        private final String mDaoMethod;
+        private final String mSql;
+        private final long mStart;
+
+        TimedCursor(Cursor cursor, String daoMethod, String sql, long start) {
+            super(cursor);
+            mDaoMethod = daoMethod;
+            mSql = sql;
+            mStart = start;
+        }
+
+        @Override
+        public void close() {
+            if (!isClosed()) {
+                // 讀到最後時就是全部的筆數，中途關閉時為讀到的位置
+                int rows = isAfterLast() ? getCount() : getPosition() + 1;
+                mObserver.onSql(mDaoMethod, mSql, System.nanoTime() - mStart, Math.max(0, rows));
+            }
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package tw.dh46.codelab.roomsample.database;
+
+/**
+ * 以2的次方分組的延遲分布，用來估計percentile
+ * - 第i組為 [2^i, 2^(i+1)) 微秒，記錄時不需要配置記憶體，也不用保留每一筆資料。
+ * - percentile()回傳該組的上限，誤差在2倍以內，足以找出熱點。
+ *
+ * 不是執行緒安全的，由呼叫端同步 (見QueryStats)。
+ */
+class LatencyHistogram {
+
+    // 2^31微秒約35分鐘，足夠了
+    private static final int BUCKETS = 32;
+
+    private final long[] mCounts = new long[BUCKETS];
+    private long mTotal;
+
+    void record(long nanos) {
+        long micros = Math.max(1, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+        mCounts[bucket]++;
+        mTotal++;
+    }
+
+    long count() {
+        return mTotal;
+    }
+
+    /**
+     * @param percentile 0~100
+     * @return 估計值(毫秒)，沒有資料時為0
+     */
+    double percentileMs(double percentile) {
+        if (mTotal == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * mTotal);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return (1L << (i + 1)) / 1000.0;
+            }
+        }
+        return (1L << BUCKETS) / 1000.0;
+    }
+}
@@ -0,0 +1,42 @@
+package tw.dh46.codelab.roomsample.database;
+
+import androidx.annotation.Nullable;
+
+/**
+ * 接收資料庫操作的量測結果 (可抽換的instrumentation)
+ * - onDaoCall: 每一次DAO方法呼叫 (InstrumentedDao)
+ * - onSql: 每一句實際執行的SQL (InstrumentedOpenHelperFactory)
+ * 兩者都在執行查詢的執行緒上同步呼叫，實作必須是執行緒安全且很快的。
+ *
+ * 使用方式: 在第一次getDatabase之前呼叫WordRoomDatabase.setQueryObserver()
+ */
+public interface QueryObserver {
+
+    /**
+     * 什麼都不做，預設值
+     */
+    QueryObserver NONE = new QueryObserver() {
+        @Override
+        public void onDaoCall(String method, long durationNanos, int rows) {
+        }
+
+        @Override
+        public void onSql(@Nullable String daoMethod, String sql, long durationNanos, int rows) {
+        }
+    };
+
+    /**
+     * @param method 例如 "WordDao.getPageFrom"
+     * @param durationNanos
+     * @param rows 回傳的筆數，無法得知時為-1
+     */
+    void onDaoCall(String method, long durationNanos, int rows);
+
+    /**
+     * @param daoMethod 發出這句SQL的DAO方法，不是透過DAO執行時為null (例如LiveData的查詢)
+     * @param sql
+     * @param durationNanos 查詢: 從query到cursor關閉；其他: 執行時間
+     * @param rows 讀取或影響的筆數，無法得知時為-1
+     */
+    void onSql(@Nullable String daoMethod, String sql, long durationNanos, int rows);
+}
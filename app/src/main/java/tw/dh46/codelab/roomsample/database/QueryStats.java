@@ -0,0 +1,206 @@
+package tw.dh46.codelab.roomsample.database;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 預設的QueryObserver: 累計每個DAO方法與每句SQL的次數、筆數、延遲分布
+ * - 超過slowThresholdMs的SQL會輸出到logcat (tag: QueryStats)，並保留最近的幾筆在報告中。
+ * - toJson()/writeReport()輸出成JSON，可以一併附上Executor的指標(排隊與執行時間)。
+ */
+public class QueryStats implements QueryObserver {
+
+    private static final String TAG = "QueryStats";
+    private static final int MAX_SLOW_QUERIES = 50;
+    // IN (?, ?, ?)的參數數量不同也算同一句
+    private static final Pattern BIND_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+
+    private final long mSlowThresholdNanos;
+    private final Map<String, Entry> mDaoStats = new ConcurrentHashMap<>();
+    private final Map<String, Entry> mSqlStats = new ConcurrentHashMap<>();
+    private final ArrayDeque<String> mSlowQueries = new ArrayDeque<>();
+
+    /**
+     * @param slowThresholdMs 超過這個時間的SQL視為慢查詢
+     */
+    public QueryStats(long slowThresholdMs) {
+        mSlowThresholdNanos = slowThresholdMs * 1_000_000L;
+    }
+
+    @Override
+    public void onDaoCall(String method, long durationNanos, int rows) {
+        entryFor(mDaoStats, method).record(durationNanos, rows);
+    }
+
+    @Override
+    public void onSql(@Nullable String daoMethod, String sql, long durationNanos, int rows) {
+        String key = sql.indexOf(',') >= 0 ? BIND_LIST.matcher(sql).replaceAll("?...") : sql;
+        entryFor(mSqlStats, key).record(durationNanos, rows);
+        if (durationNanos >= mSlowThresholdNanos) {
+            String message = String.format(Locale.US, "%.1fms rows=%d dao=%s thread=%s sql=%s",
+                    durationNanos / 1e6, rows, daoMethod, Thread.currentThread().getName(), sql);
+            Log.w(TAG, "slow query: " + message);
+            synchronized (mSlowQueries) {
+                if (mSlowQueries.size() == MAX_SLOW_QUERIES) {
+                    mSlowQueries.removeFirst();
+                }
+                mSlowQueries.addLast(message);
+            }
+        }
+    }
+
+    /**
+     * 清除目前為止的數據
+     */
+    public void reset() {
+        mDaoStats.clear();
+        mSqlStats.clear();
+        synchronized (mSlowQueries) {
+            mSlowQueries.clear();
+        }
+    }
+
+    /**
+     * 寫入報告檔
+     * @param file
+     * @param executors 一併輸出的Executor指標，可為空
+     */
+    public void writeReport(File file, List<InstrumentedExecutor.Metrics> executors)
+            throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        // java.nio.file需要API 26，minSdk是21
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write(toJson(executors));
+        }
+    }
+
+    public String toJson(List<InstrumentedExecutor.Metrics> executors) {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"generatedAt\": ").append(System.currentTimeMillis()).append(",\n");
+        appendEntries(json, "dao", mDaoStats);
+        json.append(",\n");
+        appendEntries(json, "sql", mSqlStats);
+        json.append(",\n  \"slowQueries\": [");
+        List<String> slowQueries;
+        synchronized (mSlowQueries) {
+            slowQueries = new ArrayList<>(mSlowQueries);
+        }
+        for (int i = 0; i < slowQueries.size(); i++) {
+            json.append(i == 0 ? "\n    " : ",\n    ").append(quote(slowQueries.get(i)));
+        }
+        json.append("\n  ],\n  \"executors\": [");
+        for (int i = 0; i < executors.size(); i++) {
+            InstrumentedExecutor.Metrics metrics = executors.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append(String.format(Locale.US,
+                    "    {\"name\": %s, \"queueDepth\": %d, \"maxQueueDepth\": %d, "
+                            + "\"completed\": %d, \"rejected\": %d, \"overflow\": %d, \"timedOut\": %d, "
+                            + "\"tasks\": [",
+                    quote(metrics.name), metrics.queueDepth, metrics.maxQueueDepth,
+                    metrics.completedCount, metrics.rejectedCount, metrics.overflowCount,
+                    metrics.timedOutCount));
+            for (int j = 0; j < metrics.tasks.size(); j++) {
+                InstrumentedExecutor.TaskMetrics task = metrics.tasks.get(j);
+                json.append(j == 0 ? "\n" : ",\n").append(String.format(Locale.US,
+                        "      {\"tag\": %s, \"count\": %d, \"avgWaitMs\": %.3f, "
+                                + "\"maxWaitMs\": %.3f, \"avgExecMs\": %.3f, \"maxExecMs\": %.3f}",
+                        quote(task.tag), task.count, task.getAverageWaitMs(),
+                        task.maxWaitNanos / 1e6, task.getAverageExecMs(), task.maxExecNanos / 1e6));
+            }
+            json.append("\n    ]}");
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private static void appendEntries(StringBuilder json, String name, Map<String, Entry> stats) {
+        json.append("  \"").append(name).append("\": [");
+        // 依key排序，方便比較前後兩份報告
+        Map<String, Entry> sorted = new TreeMap<>(stats);
+        boolean first = true;
+        for (Map.Entry<String, Entry> entry : sorted.entrySet()) {
+            json.append(first ? "\n    " : ",\n    ");
+            entry.getValue().appendJson(json, entry.getKey());
+            first = false;
+        }
+        json.append("\n  ]");
+    }
+
+    private static Entry entryFor(Map<String, Entry> stats, String key) {
+        Entry entry = stats.get(key);
+        if (entry == null) {
+            Entry created = new Entry();
+            entry = stats.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * 單一DAO方法/SQL的累計數據
+     */
+    private static class Entry {
+
+        private long mCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+        private long mTotalRows;
+        private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+        synchronized void record(long nanos, int rows) {
+            mCount++;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+            if (rows > 0) {
+                mTotalRows += rows;
+            }
+            mHistogram.record(nanos);
+        }
+
+        synchronized void appendJson(StringBuilder json, String key) {
+            json.append(String.format(Locale.US,
+                    "{\"key\": %s, \"count\": %d, \"rows\": %d, \"meanMs\": %.3f, "
+                            + "\"p50Ms\": %.3f, \"p95Ms\": %.3f, \"p99Ms\": %.3f, \"maxMs\": %.3f}",
+                    quote(key), mCount, mTotalRows, mTotalNanos / 1e6 / Math.max(1, mCount),
+                    mHistogram.percentileMs(50), mHistogram.percentileMs(95),
+                    mHistogram.percentileMs(99), mMaxNanos / 1e6));
+        }
+    }
+}
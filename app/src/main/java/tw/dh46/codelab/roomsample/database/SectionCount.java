@@ -0,0 +1,32 @@
+package tw.dh46.codelab.roomsample.database;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+
+/**
+ * 一個section(單字的第一個字元)的單字數量，見WordDao.getSectionCounts()
+ * - 不是資料表，只是查詢結果對應的物件 (POJO)。
+ */
+public class SectionCount {
+
+    @NonNull
+    @ColumnInfo(name = "section")
+    private final String mSection;
+
+    @ColumnInfo(name = "count")
+    private final int mCount;
+
+    public SectionCount(@NonNull String section, int count) {
+        mSection = section;
+        mCount = count;
+    }
+
+    @NonNull
+    public String getSection() {
+        return mSection;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+}
@@ -0,0 +1,233 @@
+package tw.dh46.codelab.roomsample.database;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.RoomDatabase;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * SQLite的開啟設定
+ * - journalMode: 交給Room的Builder設定。WAL模式下讀取不會被寫入擋住，匯入大量單字時列表仍可捲動。
+ * - cache_size / mmap_size / synchronous / temp_store: 在每次開啟DB時以PRAGMA設定。
+ *
+ * 這些PRAGMA都只作用在執行它的那一條連線。WAL模式下系統的連線池另外有多條唯讀連線
+ * (Room的查詢大多在這些連線上執行)，所以:
+ * - API 30以上: 以SQLiteDatabase.execPerConnectionSQL交給連線池，現有與之後開啟的每一條連線都會套用。
+ * - API 30以下: 系統沒有對每條連線設定的方式，只能套用在主要連線(寫入)，唯讀連線沿用系統預設值。
+ * 量測profile時要注意這個差異，見appliesToAllConnections()。
+ *
+ * 使用方式
+ * <pre>
+ * WordRoomDatabase.getDatabase(context, SqliteProfile.BALANCED);
+ * </pre>
+ */
+public class SqliteProfile {
+
+    public enum Synchronous {
+        OFF, NORMAL, FULL
+    }
+
+    public enum TempStore {
+        DEFAULT, FILE, MEMORY
+    }
+
+    /**
+     * 不做任何調整，完全使用Room/系統的預設值
+     */
+    public static final SqliteProfile DEFAULT = new Builder("default")
+            .setJournalMode(RoomDatabase.JournalMode.AUTOMATIC)
+            .build();
+
+    /**
+     * 預設使用: WAL + synchronous=NORMAL (WAL下仍可保證資料庫不會損毀，只是斷電時可能少最後幾筆)
+     * 加大page cache並開啟mmap，暫存表放在記憶體
+     */
+    public static final SqliteProfile BALANCED = new Builder("balanced")
+            .setJournalMode(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING)
+            .setCacheSizeKb(8 * 1024)
+            .setMmapSizeBytes(64L * 1024 * 1024)
+            .setSynchronous(Synchronous.NORMAL)
+            .setTempStore(TempStore.MEMORY)
+            .build();
+
+    /**
+     * 最重視資料安全: WAL + synchronous=FULL，每次commit都同步到磁碟
+     */
+    public static final SqliteProfile DURABLE = new Builder("durable")
+            .setJournalMode(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING)
+            .setSynchronous(Synchronous.FULL)
+            .build();
+
+    private final String mName;
+    private final RoomDatabase.JournalMode mJournalMode;
+    // 以下為null/0代表不設定，沿用預設值
+    private final int mCacheSizeKb;
+    private final long mMmapSizeBytes;
+    private final Synchronous mSynchronous;
+    private final TempStore mTempStore;
+
+    private SqliteProfile(Builder builder) {
+        mName = builder.mName;
+        mJournalMode = builder.mJournalMode;
+        mCacheSizeKb = builder.mCacheSizeKb;
+        mMmapSizeBytes = builder.mMmapSizeBytes;
+        mSynchronous = builder.mSynchronous;
+        mTempStore = builder.mTempStore;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public RoomDatabase.JournalMode getJournalMode() {
+        return mJournalMode;
+    }
+
+    /**
+     * @return 這台裝置上PRAGMA設定是否會套用到連線池中的每一條連線 (API 30以上)
+     */
+    public static boolean appliesToAllConnections() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+    }
+
+    /**
+     * 開啟DB時套用PRAGMA設定
+     * @param db
+     */
+    void apply(SupportSQLiteDatabase db) {
+        List<String> statements = new ArrayList<>(4);
+        if (mCacheSizeKb > 0) {
+            // 負數代表以KiB為單位，而不是page數
+            statements.add("cache_size = -" + mCacheSizeKb);
+        }
+        if (mMmapSizeBytes > 0) {
+            statements.add("mmap_size = " + mMmapSizeBytes);
+        }
+        if (mSynchronous != null) {
+            statements.add("synchronous = " + mSynchronous.name());
+        }
+        if (mTempStore != null) {
+            statements.add("temp_store = " + mTempStore.name());
+        }
+        if (statements.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase framework = appliesToAllConnections() ? frameworkDatabase(db) : null;
+        for (String statement : statements) {
+            if (framework != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                framework.execPerConnectionSQL("PRAGMA " + statement, null);
+            } else {
+                pragma(db, statement);
+            }
+        }
+    }
+
+    /**
+     * SupportSQLiteDatabase沒有公開底層的SQLiteDatabase，從它回傳的SQLiteCursor取得
+     * @return 不是系統的SQLite實作時為null
+     */
+    @Nullable
+    private static SQLiteDatabase frameworkDatabase(SupportSQLiteDatabase db) {
+        try (Cursor cursor = db.query("SELECT 1")) {
+            Cursor unwrapped = cursor;
+            // InstrumentedOpenHelperFactory會再包一層
+            while (unwrapped instanceof CursorWrapper) {
+                unwrapped = ((CursorWrapper) unwrapped).getWrappedCursor();
+            }
+            return unwrapped instanceof SQLiteCursor ? ((SQLiteCursor) unwrapped).getDatabase() : null;
+        }
+    }
+
+    /**
+     * 有些PRAGMA會回傳結果，execSQL不允許，所以一律用query執行
+     */
+    private static void pragma(SupportSQLiteDatabase db, String statement) {
+        try (Cursor cursor = db.query("PRAGMA " + statement)) {
+            cursor.moveToFirst();
+        }
+    }
+
+    /**
+     * 給Room Builder使用的callback，在每次開啟時套用設定
+     */
+    RoomDatabase.Callback asCallback() {
+        return new RoomDatabase.Callback() {
+            @Override
+            public void onOpen(@NonNull SupportSQLiteDatabase db) {
+                super.onOpen(db);
+                apply(db);
+            }
+        };
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%s(journal=%s cache=%dKiB mmap=%d synchronous=%s temp_store=%s)",
+                mName, mJournalMode, mCacheSizeKb, mMmapSizeBytes, mSynchronous, mTempStore);
+    }
+
+    public static class Builder {
+
+        private final String mName;
+        private RoomDatabase.JournalMode mJournalMode = RoomDatabase.JournalMode.AUTOMATIC;
+        private int mCacheSizeKb;
+        private long mMmapSizeBytes;
+        private Synchronous mSynchronous;
+        private TempStore mTempStore;
+
+        /**
+         * @param name 顯示在log與benchmark報告中的名稱
+         */
+        public Builder(String name) {
+            mName = name;
+        }
+
+        public Builder setJournalMode(RoomDatabase.JournalMode journalMode) {
+            mJournalMode = journalMode;
+            return this;
+        }
+
+        /**
+         * @param cacheSizeKb page cache大小 (KiB)
+         */
+        public Builder setCacheSizeKb(int cacheSizeKb) {
+            mCacheSizeKb = cacheSizeKb;
+            return this;
+        }
+
+        /**
+         * @param mmapSizeBytes 以memory-mapped I/O讀取的最大範圍 (bytes)
+         */
+        public Builder setMmapSizeBytes(long mmapSizeBytes) {
+            mMmapSizeBytes = mmapSizeBytes;
+            return this;
+        }
+
+        public Builder setSynchronous(Synchronous synchronous) {
+            mSynchronous = synchronous;
+            return this;
+        }
+
+        public Builder setTempStore(TempStore tempStore) {
+            mTempStore = tempStore;
+            return this;
+        }
+
+        public SqliteProfile build() {
+            return new SqliteProfile(this);
+        }
+    }
+}
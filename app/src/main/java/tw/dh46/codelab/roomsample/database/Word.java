@@ -3,6 +3,7 @@ package tw.dh46.codelab.roomsample.database;
 import androidx.annotation.NonNull;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 /**
@@ -20,24 +21,44 @@ import androidx.room.PrimaryKey;
  * - PrimaryKey: 每張資料表/每個Entity類別都需要一個主鍵。
  * - NonNull: 這個欄位/屬性不得為NULL值
  * - ColumnInfo(name = "word"): 自訂欄位名稱、預設值是屬性名稱。
+ *
+ * 主鍵
+ * - 以自動產生的整數id為主鍵 (就是SQLite的rowid)，資料表的B-tree以8 bytes以內的整數排序，
+ * 之後其他資料表要參照單字時也只需要存id。
+ * - 單字本身改由unique index保證不重複，insert的IGNORE一樣會忽略重複的單字。
+ * - autoGenerate使用AUTOINCREMENT，刪除的id不會被重複使用，可以直接當作列表的stable id。
  */
-@Entity(tableName = "word_table")
+@Entity(tableName = "word_table", indices = {@Index(value = "word", unique = true)})
 public class Word {
 
-    // 主鍵也可以像一般資料表一樣設置自動產生的流水號
-//    @PrimaryKey(autoGenerate = true)
-//    private int id;
-
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "id")
+    private long mId;
 
-    @PrimaryKey
     @NonNull
     @ColumnInfo(name = "word")
     private String mWord;
 
+    /**
+     * 新的單字id為0，寫入時由資料庫產生
+     * @param word
+     */
     public Word(@NonNull String word) {
         mWord = word;
     }
 
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * 給Room讀取資料時設定id使用
+     * @param id
+     */
+    public void setId(long id) {
+        mId = id;
+    }
+
     /**
      * 因為word屬性修飾字為private，所以要給一個public的getter方法
      * @return
@@ -45,4 +66,21 @@ public class Word {
     public String getWord() {
         return mWord;
     }
+
+    /**
+     * 以單字內容判斷是否相同 (還沒寫入、沒有id的Word也能比較)
+     * @param o
+     * @return
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return mWord.equals(((Word) o).mWord);
+    }
+
+    @Override
+    public int hashCode() {
+        return mWord.hashCode();
+    }
 }
@@ -1,11 +1,16 @@
 package tw.dh46.codelab.roomsample.database;
 
+import android.database.Cursor;
+
 import androidx.lifecycle.LiveData;
+import androidx.paging.DataSource;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
+import io.reactivex.Flowable;
+
 import java.util.List;
 
 /**
@@ -21,6 +26,10 @@ import java.util.List;
  * - 取得資料表中所有單字並以字母升冪排序 (a~z)
  * - 插入一個新單字到資料表
  * - 刪除所有單字
+ * - 以keyset方式分頁取得單字
+ * - 以全文檢索(FTS4)搜尋單字
+ * - 各字首的單字數量 (字母索引)
+ * - 以Flowable觀察單字數量 (給不在主執行緒的背景工作使用)
  *
  */
 @Dao // 告訴Room這是個DAO介面
@@ -35,6 +44,17 @@ public interface WordDao {
     @Insert(onConflict = OnConflictStrategy.IGNORE)
     void insert(Word word);
 
+    /**
+     * 一次插入多個單字
+     * - Room會把整個List包在同一個transaction裡，比一個一個insert快很多
+     * (每個transaction都要寫journal並同步到磁碟)。
+     * - 已存在的單字會被忽略，回傳值中對應的rowId為-1。
+     * @param words
+     * @return 每個單字的rowId，順序與傳入的List相同
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    List<Long> insertAll(List<Word> words);
+
     /**
      * 刪除所有單字
      * - 目前沒有方便的Annotation可以一次刪除多筆資料，因此用Query搭配SQL command來實現。
@@ -43,6 +63,35 @@ public interface WordDao {
     @Query("DELETE FROM word_table")
     void deleteAll();
 
+    /**
+     * 依id刪除
+     * - 每個id是一個bind參數，SQLite最多999個，呼叫端要自己分批 (見WordRepository)。
+     * - 只刪除指定的列，其他資料完全不會被改寫。
+     * @param ids
+     * @return 實際刪除的筆數
+     */
+    @Query("DELETE FROM word_table WHERE id IN (:ids)")
+    int deleteByIds(List<Long> ids);
+
+    /**
+     * 查詢指定的單字 (刪除前先取得id，給異動通知與復原使用)
+     * - 一樣受999個bind參數的限制。
+     * @param words
+     * @return 存在的單字，順序不固定
+     */
+    @Query("SELECT * FROM word_table WHERE word IN (:words)")
+    List<Word> findWords(List<String> words);
+
+    /**
+     * 範圍查詢: from <= word < to，透過word的索引直接定位
+     * @param from 包含
+     * @param to 不包含
+     * @param limit
+     * @return
+     */
+    @Query("SELECT * FROM word_table WHERE word >= :from AND word < :to ORDER BY word ASC LIMIT :limit")
+    List<Word> getRange(String from, String to, int limit);
+
     /**
      * 取得所有單字並以字母a~z排序
      * @return
@@ -50,6 +99,142 @@ public interface WordDao {
     @Query("SELECT * FROM word_table ORDER BY word ASC")
     LiveData<List<Word>> getAlphabetizedWords();
 
+    /**
+     * 同getAlphabetizedWords()，但直接回傳Cursor，由WordListLiveData自己轉成Word
+     * (重複使用之前建立的Word，見WordInterner)。只能在背景緒呼叫，用完要close。
+     * @return 欄位順序固定為 id, word
+     */
+    @Query("SELECT id, word FROM word_table ORDER BY word ASC")
+    Cursor getAlphabetizedWordsCursor();
+
+    /**
+     * 查詢單字是否存在 (透過word的unique index，只會讀到一筆)
+     * @param word
+     * @return 存在時為1，否則為0
+     */
+    @Query("SELECT COUNT(*) FROM word_table WHERE word = :word")
+    int countWord(String word);
+
+    /**
+     * 單字總數 (匯出時計算進度用，只能在背景緒呼叫)
+     * @return
+     */
+    @Query("SELECT COUNT(*) FROM word_table")
+    int countWords();
+
+    /**
+     * 每個section(單字的第一個字元)的單字數量，依section a~z排序
+     * - 一次GROUP BY走完word的索引 (覆蓋索引，不需要讀資料表)，之後由WordRepository增量更新。
+     * - SUBSTR以字元(code point)為單位，排序與ORDER BY word一致 (BINARY，大寫在小寫之前)。
+     * @return
+     */
+    @Query("SELECT SUBSTR(word, 1, 1) AS section, COUNT(*) AS count FROM word_table "
+            + "GROUP BY section ORDER BY section ASC")
+    List<SectionCount> getSectionCounts();
+
+    /**
+     * 觀察單字數量
+     * - 與LiveData不同，不會固定在主執行緒發出，可以搭配RxJava的operator組合，
+     * 不再訂閱(dispose)時就停止監聽資料表。
+     * - 每次word_table有異動就重新查詢一次，只是COUNT，不會讀出單字。
+     * @return
+     */
+    @Query("SELECT COUNT(*) FROM word_table")
+    Flowable<Integer> observeWordCount();
+
+    /**
+     * 分頁查詢: 取得第一頁
+     * - 以下幾個分頁查詢都是以word做keyset paging，
+     * 透過word的unique index直接定位，不使用OFFSET (OFFSET越後面要跳過的筆數越多，會越來越慢)。
+     * - 這些方法是同步的，只能在背景緒呼叫 (由WordKeyedDataSource負責)。
+     * @param limit 一頁的筆數
+     * @return
+     */
+    @Query("SELECT * FROM word_table ORDER BY word ASC LIMIT :limit")
+    List<Word> getFirstPage(int limit);
+
+    /**
+     * 分頁查詢: 從key開始(包含key)往後取一頁
+     * @param key
+     * @param limit
+     * @return
+     */
+    @Query("SELECT * FROM word_table WHERE word >= :key ORDER BY word ASC LIMIT :limit")
+    List<Word> getPageFrom(String key, int limit);
+
+    /**
+     * 分頁查詢: 取得key之後(不包含key)的一頁
+     * @param key 上一頁最後一個單字
+     * @param limit
+     * @return
+     */
+    @Query("SELECT * FROM word_table WHERE word > :key ORDER BY word ASC LIMIT :limit")
+    List<Word> getPageAfter(String key, int limit);
+
+    /**
+     * 分頁查詢: 取得key之前(不包含key)的一頁
+     * - 注意回傳的順序是z~a (降冪)，呼叫端要自己反轉。
+     * @param key 下一頁第一個單字
+     * @param limit
+     * @return
+     */
+    @Query("SELECT * FROM word_table WHERE word < :key ORDER BY word DESC LIMIT :limit")
+    List<Word> getPageBefore(String key, int limit);
+
+    /**
+     * 搜尋單字
+     * - 透過word_fts的全文索引比對，不需要掃整張word_table。
+     * - match是FTS4的MATCH語法，例如 "app*" 代表以app開頭的字詞 (由WordRepository產生)。
+     * - 以LIMIT限制筆數，輸入很短的前綴時也不會一次讀出大量結果。
+     * @param match
+     * @param limit
+     * @return
+     */
+    @Query("SELECT word_table.* FROM word_table JOIN word_fts ON word_table.rowid = word_fts.rowid "
+            + "WHERE word_fts MATCH :match ORDER BY word_table.word ASC LIMIT :limit")
+    List<Word> searchWords(String match, int limit);
+
+    /**
+     * 同searchWords，但以分頁的方式提供給RecyclerView
+     * - 先找出所有符合的列再排序，才套用LIMIT，符合的筆數越多越慢，
+     * 所以只用在多個字詞的搜尋 (交集通常很小)，單一字首改用searchPrefixPaged。
+     * @param match
+     * @param limit
+     * @return
+     */
+    @Query("SELECT word_table.* FROM word_table JOIN word_fts ON word_table.rowid = word_fts.rowid "
+            + "WHERE word_fts MATCH :match ORDER BY word_table.word ASC LIMIT :limit")
+    DataSource.Factory<Integer, Word> searchWordsPaged(String match, int limit);
+
+    /**
+     * 以字首搜尋: 以prefix或otherCase開頭的單字
+     * - 在word的unique index上做範圍查詢 (prefix <= word < prefix || x'FFFF')，
+     * 結果本來就依word排序，讀到limit筆就停止，不必先找出所有符合的列再排序。
+     * - x'FFFF'比任何UTF-8字元的第一個位元組都大，範圍涵蓋所有以prefix開頭的單字。
+     * - 兩個範圍以UNION合併 (兩邊都已排序，SQLite直接合併)，第一個字元不分大小寫；
+     * 兩者相同時UNION會去除重複。
+     * @param prefix
+     * @param otherCase 第一個字元換成另一種大小寫的prefix
+     * @param limit
+     * @return
+     */
+    @Query("SELECT * FROM word_table WHERE word >= :prefix AND word < :prefix || x'FFFF' "
+            + "UNION SELECT * FROM word_table WHERE word >= :otherCase AND word < :otherCase || x'FFFF' "
+            + "ORDER BY word ASC LIMIT :limit")
+    List<Word> searchPrefix(String prefix, String otherCase, int limit);
+
+    /**
+     * 同searchPrefix，但以分頁的方式提供給RecyclerView
+     * @param prefix
+     * @param otherCase
+     * @param limit
+     * @return
+     */
+    @Query("SELECT * FROM word_table WHERE word >= :prefix AND word < :prefix || x'FFFF' "
+            + "UNION SELECT * FROM word_table WHERE word >= :otherCase AND word < :otherCase || x'FFFF' "
+            + "ORDER BY word ASC LIMIT :limit")
+    DataSource.Factory<Integer, Word> searchPrefixPaged(String prefix, String otherCase, int limit);
+
     /**
      * LiveData class
      * - 當資料有異動時，UI須即時更新，這代表我們必須觀察資料的變化。
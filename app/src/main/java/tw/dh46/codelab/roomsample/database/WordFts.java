@@ -0,0 +1,32 @@
+package tw.dh46.codelab.roomsample.database;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+
+/**
+ * word_table的全文檢索(FTS4)索引
+ * - contentEntity指向Word，這張虛擬表只存索引，不會再存一份單字。
+ * - Room會自動在word_table上建立trigger，insert/update/delete時同步更新索引。
+ * - 只用在WordDao的搜尋查詢中(MATCH)，不會直接讀取這個Entity。
+ * - prefix: 另外為長度2、3的字首建立索引，"ab*"這類短前綴直接查索引，
+ * 不用逐一合併所有以ab開頭的字詞 (索引會變大，見MIGRATION_3_4)。
+ */
+@Fts4(contentEntity = Word.class, prefix = {2, 3})
+@Entity(tableName = "word_fts")
+public class WordFts {
+
+    @NonNull
+    @ColumnInfo(name = "word")
+    private String mWord;
+
+    public WordFts(@NonNull String word) {
+        mWord = word;
+    }
+
+    @NonNull
+    public String getWord() {
+        return mWord;
+    }
+}
@@ -0,0 +1,154 @@
+package tw.dh46.codelab.roomsample.database;
+
+/**
+ * 依id重複使用Word物件 (flyweight)
+ * - 一筆資料寫入後就不會再修改，同一個id的Word可以在每次重新查詢時共用，
+ * 只有新的列才需要建立Word與讀取單字字串。
+ * - 以pass為單位使用: beginPass() -> 每一列obtain()/add() -> endPass()，
+ * 這次沒有出現的id(已被刪除)會在endPass()時移除。
+ * - 以long為key的open addressing雜湊表，查詢時不需要把id包成Long，不會配置任何物件。
+ *
+ * 不是執行緒安全的，同一時間只能有一個執行緒使用 (見WordListLiveData)。
+ */
+class WordInterner {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mIds;
+    private Word[] mWords;
+    // 最後一次被使用的pass
+    private int[] mPasses;
+    private int mSize;
+
+    private int mCurrentPass;
+    private int mSeenInPass;
+    private long mMaterializedCount;
+
+    WordInterner() {
+        allocate(MIN_CAPACITY);
+    }
+
+    void beginPass() {
+        mCurrentPass++;
+        mSeenInPass = 0;
+    }
+
+    /**
+     * @param id
+     * @return 已經建立過的Word，沒有的話回傳null (呼叫端再讀取單字並add)
+     */
+    Word obtain(long id) {
+        int slot = slotOf(id);
+        Word word = mWords[slot];
+        if (word != null) {
+            markSeen(slot);
+        }
+        return word;
+    }
+
+    /**
+     * 建立新的Word並記住
+     * @param id
+     * @param text
+     * @return
+     */
+    Word add(long id, String text) {
+        Word word = new Word(text);
+        word.setId(id);
+        mMaterializedCount++;
+        int slot = slotOf(id);
+        if (mWords[slot] == null) {
+            mSize++;
+        }
+        mIds[slot] = id;
+        mWords[slot] = word;
+        mPasses[slot] = mCurrentPass - 1;
+        markSeen(slot);
+        if (mSize * 4 >= mIds.length * 3) {
+            rehash(mIds.length * 2, false);
+        }
+        return word;
+    }
+
+    /**
+     * 結束這次查詢，移除沒有出現的Word
+     */
+    void endPass() {
+        if (mSeenInPass < mSize) {
+            rehash(capacityFor(mSeenInPass), true);
+        }
+    }
+
+    /**
+     * 清空所有Word (記憶體不足時)，下一次查詢會重新建立
+     */
+    void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return 累計建立過的Word數量
+     */
+    long getMaterializedCount() {
+        return mMaterializedCount;
+    }
+
+    private void markSeen(int slot) {
+        if (mPasses[slot] != mCurrentPass) {
+            mPasses[slot] = mCurrentPass;
+            mSeenInPass++;
+        }
+    }
+
+    /**
+     * @return id所在的位置，不存在時為應該放入的空位
+     */
+    private int slotOf(long id) {
+        int mask = mIds.length - 1;
+        int slot = mix(id) & mask;
+        while (mWords[slot] != null && mIds[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity, boolean seenOnly) {
+        long[] ids = mIds;
+        Word[] words = mWords;
+        int[] passes = mPasses;
+        allocate(capacity);
+        for (int i = 0; i < ids.length; i++) {
+            if (words[i] != null && (!seenOnly || passes[i] == mCurrentPass)) {
+                int slot = slotOf(ids[i]);
+                mIds[slot] = ids[i];
+                mWords[slot] = words[i];
+                mPasses[slot] = passes[i];
+                mSize++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mIds = new long[capacity];
+        mWords = new Word[capacity];
+        mPasses = new int[capacity];
+        mSize = 0;
+    }
+
+    private static int capacityFor(int size) {
+        int capacity = MIN_CAPACITY;
+        while (size * 4 >= capacity * 3) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private static int mix(long id) {
+        long h = id * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
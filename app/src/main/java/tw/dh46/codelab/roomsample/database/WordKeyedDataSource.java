@@ -0,0 +1,131 @@
+package tw.dh46.codelab.roomsample.database;
+
+import androidx.annotation.NonNull;
+import androidx.paging.DataSource;
+import androidx.paging.ItemKeyedDataSource;
+import androidx.room.InvalidationTracker;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 以單字(unique index)為key的分頁資料來源
+ * - 搭配Paging Library使用，一次只從DB載入一頁，記憶體用量不會隨資料表大小成長。
+ * - 採用keyset paging: 下一頁 = word > 上一頁最後一個單字，透過word的索引直接定位。
+ * - Room內建的DataSource.Factory是LIMIT/OFFSET分頁，資料量大時越後面越慢，因此自己實作。
+ *
+ * DataSource是不可變的，資料表有異動時要invalidate()，
+ * 由Factory重新建立一個新的DataSource，這裡透過Room的InvalidationTracker監聽word_table。
+ * InvalidationTracker只持有WeakObserver，被丟棄的LivePagedList(例如搜尋換了關鍵字)
+ * 不會因為還在監聽而留在記憶體裡，與Room的LimitOffsetDataSource使用addWeakObserver的做法相同。
+ */
+public class WordKeyedDataSource extends ItemKeyedDataSource<String, Word> {
+
+    private final WordDao mWordDao;
+    private final InvalidationTracker mInvalidationTracker;
+    private final InvalidationTracker.Observer mObserver;
+
+    WordKeyedDataSource(WordRoomDatabase db) {
+        mWordDao = db.wordDao();
+        mInvalidationTracker = db.getInvalidationTracker();
+        mObserver = new WeakObserver(mInvalidationTracker, this);
+        mInvalidationTracker.addObserver(mObserver);
+        // 失效之後就不需要再監聽了，避免Observer越積越多
+        addInvalidatedCallback(() -> mInvalidationTracker.removeObserver(mObserver));
+    }
+
+    /**
+     * 第一次載入
+     * - 沒有指定key時從頭開始
+     * - 有指定key時(例如資料異動後重新建立DataSource)，以key為中心前後各載入一些，
+     * 讓畫面停留在原本的位置。
+     */
+    @Override
+    public void loadInitial(@NonNull LoadInitialParams<String> params,
+                            @NonNull LoadInitialCallback<Word> callback) {
+        String key = params.requestedInitialKey;
+        if (key == null) {
+            callback.onResult(mWordDao.getFirstPage(params.requestedLoadSize));
+            return;
+        }
+        int beforeSize = params.requestedLoadSize / 2;
+        List<Word> result = new ArrayList<>(params.requestedLoadSize);
+        result.addAll(reversed(mWordDao.getPageBefore(key, beforeSize)));
+        result.addAll(mWordDao.getPageFrom(key, params.requestedLoadSize - beforeSize));
+        callback.onResult(result);
+    }
+
+    @Override
+    public void loadAfter(@NonNull LoadParams<String> params,
+                          @NonNull LoadCallback<Word> callback) {
+        callback.onResult(mWordDao.getPageAfter(params.key, params.requestedLoadSize));
+    }
+
+    @Override
+    public void loadBefore(@NonNull LoadParams<String> params,
+                           @NonNull LoadCallback<Word> callback) {
+        callback.onResult(reversed(mWordDao.getPageBefore(params.key, params.requestedLoadSize)));
+    }
+
+    @NonNull
+    @Override
+    public String getKey(@NonNull Word item) {
+        return item.getWord();
+    }
+
+    /**
+     * getPageBefore是降冪查詢，要反轉回a~z的順序
+     */
+    private static List<Word> reversed(List<Word> words) {
+        Collections.reverse(words);
+        return words;
+    }
+
+    /**
+     * 只以WeakReference指向DataSource的Observer
+     * - addWeakObserver是Room內部(RestrictTo)的API，這裡自己實作同樣的行為。
+     * - DataSource被回收之後，下一次失效時把自己移除。
+     */
+    private static class WeakObserver extends InvalidationTracker.Observer {
+
+        private final InvalidationTracker mTracker;
+        private final WeakReference<WordKeyedDataSource> mDataSource;
+
+        WeakObserver(InvalidationTracker tracker, WordKeyedDataSource dataSource) {
+            super("word_table");
+            mTracker = tracker;
+            mDataSource = new WeakReference<>(dataSource);
+        }
+
+        @Override
+        public void onInvalidated(@NonNull Set<String> tables) {
+            WordKeyedDataSource dataSource = mDataSource.get();
+            if (dataSource == null) {
+                mTracker.removeObserver(this);
+            } else {
+                dataSource.invalidate();
+            }
+        }
+    }
+
+    /**
+     * 每次失效後，LivePagedListBuilder會透過Factory建立新的DataSource
+     */
+    public static class Factory extends DataSource.Factory<String, Word> {
+
+        private final WordRoomDatabase mDatabase;
+
+        public Factory(WordRoomDatabase database) {
+            mDatabase = database;
+        }
+
+        @NonNull
+        @Override
+        public DataSource<String, Word> create() {
+            return new WordKeyedDataSource(mDatabase);
+        }
+    }
+}
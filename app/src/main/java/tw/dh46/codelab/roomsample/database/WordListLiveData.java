@@ -0,0 +1,157 @@
+package tw.dh46.codelab.roomsample.database;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.LiveData;
+import androidx.room.InvalidationTracker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 所有單字(a~z排序)的LiveData，取代WordDao.getAlphabetizedWords()
+ * - Room產生的LiveData每次word_table有異動就重新查詢，並為每一列建立新的Word與String，
+ * 資料表很大時，新增一個單字就會重新配置整張表的物件。
+ * - 這裡自己讀取Cursor: 先讀id (不配置物件)，已經見過的id直接共用上次的Word，
+ * 只有新的列才讀取單字字串並建立Word，配置的物件數量與異動的筆數成正比。
+ * - 沒變動的列在每次發出的List中都是同一個Word物件，可以用==比較。
+ *
+ * 與Room的LiveData一樣，只有在有Observer時才會查詢，失效時由背景緒重新查詢。
+ *
+ * 只用在整張表的API (WordRepository/WordViewModel.getAllWords)。列表畫面是keyset分頁
+ * (WordKeyedDataSource)，每次只讀一頁，失效時也只重新讀取看得到的頁面，不經過這裡；
+ * 分頁的載入可能在多個讀取緒同時進行，也沒有「一次走過整張表」可以淘汰舊的Word，
+ * 所以不套用WordInterner。
+ *
+ * Observer的註冊(第一次查詢時，在背景緒)與移除(close)都在mObserverLock裡判斷，
+ * close()之後才執行到的查詢不會再註冊，不會留下沒人移除的Observer。
+ */
+public class WordListLiveData extends LiveData<List<Word>> {
+
+    private final WordRoomDatabase mDatabase;
+    private final Executor mExecutor;
+    // 只在mComputing期間使用，同一時間只有一個執行緒存取
+    private final WordInterner mInterner = new WordInterner();
+    // 記憶體不足時設定，下一次查詢前清空mInterner (在查詢的執行緒上)
+    private final AtomicBoolean mReleaseInterner = new AtomicBoolean(false);
+
+    private final AtomicBoolean mInvalid = new AtomicBoolean(true);
+    private final AtomicBoolean mComputing = new AtomicBoolean(false);
+    private final Object mObserverLock = new Object();
+    // 以下兩個欄位由mObserverLock保護
+    private boolean mObserverRegistered;
+    private boolean mClosed;
+    private final InvalidationTracker.Observer mObserver;
+
+    /**
+     * @param database
+     * @param executor 執行查詢的背景緒，通常是DatabaseExecutors的讀取緒池
+     */
+    public WordListLiveData(WordRoomDatabase database, Executor executor) {
+        mDatabase = database;
+        mExecutor = executor;
+        mObserver = new InvalidationTracker.Observer("word_table") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                if (mInvalid.compareAndSet(false, true) && hasActiveObservers()) {
+                    mExecutor.execute(mRefreshRunnable);
+                }
+            }
+        };
+    }
+
+    /**
+     * 與Room的RoomTrackingLiveData相同的做法:
+     * 同一時間只有一個執行緒在查詢，查詢期間又失效的話再查一次，只發出最新的結果。
+     */
+    private final Runnable mRefreshRunnable = () -> {
+        synchronized (mObserverLock) {
+            if (mClosed) {
+                return;
+            }
+            if (!mObserverRegistered) {
+                // addObserver會存取DB，所以在背景緒註冊
+                mDatabase.getInvalidationTracker().addObserver(mObserver);
+                mObserverRegistered = true;
+            }
+        }
+        boolean computed;
+        do {
+            computed = false;
+            if (mComputing.compareAndSet(false, true)) {
+                try {
+                    List<Word> value = null;
+                    while (mInvalid.compareAndSet(true, false)) {
+                        computed = true;
+                        value = load();
+                    }
+                    if (computed) {
+                        postValue(value);
+                    }
+                } finally {
+                    mComputing.set(false);
+                }
+            }
+        } while (computed && mInvalid.get());
+    };
+
+    @Override
+    protected void onActive() {
+        super.onActive();
+        mExecutor.execute(mRefreshRunnable);
+    }
+
+    @WorkerThread
+    private List<Word> load() {
+        try (Cursor cursor = mDatabase.wordDao().getAlphabetizedWordsCursor()) {
+            List<Word> words = new ArrayList<>(cursor.getCount());
+            if (mReleaseInterner.getAndSet(false)) {
+                mInterner.clear();
+            }
+            mInterner.beginPass();
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                Word word = mInterner.obtain(id);
+                if (word == null) {
+                    word = mInterner.add(id, cursor.getString(1));
+                }
+                words.add(word);
+            }
+            mInterner.endPass();
+            return Collections.unmodifiableList(words);
+        }
+    }
+
+    /**
+     * 記憶體不足時呼叫: 下一次查詢不再共用之前的Word，之後重新累積
+     * - mInterner只能由查詢的執行緒存取，所以只做標記，在下一次查詢開始時清空。
+     * - 已經發出的List仍然參考這些Word，沒有Observer之後才會真正被回收。
+     */
+    public void releaseCache() {
+        mReleaseInterner.set(true);
+    }
+
+    /**
+     * 不再使用時呼叫，停止監聽資料表 (removeObserver會存取DB，在背景緒執行)
+     * - 之後的查詢不會再註冊Observer，也不再查詢。
+     */
+    public void close() {
+        synchronized (mObserverLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (!mObserverRegistered) {
+                return;
+            }
+            mObserverRegistered = false;
+        }
+        mExecutor.execute(() -> mDatabase.getInvalidationTracker().removeObserver(mObserver));
+    }
+}
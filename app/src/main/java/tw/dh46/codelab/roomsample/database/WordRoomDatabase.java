@@ -1,15 +1,20 @@
 package tw.dh46.codelab.roomsample.database;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Room database
@@ -23,12 +28,18 @@ import java.util.concurrent.Executors;
  * 實作WordRoomDatabase
  * - 繼承 RoomDatabase 類別，且必須為抽象abstract
  * - 使用Annotation指定資料庫中的資料表(Entity)、版本、是否匯出Schema
- * - 由於這個練習不會練到資料庫的版本升級處理，因此exportSchema設為false，避免IDE警告。
- * 正常來說，應該要指定一個路徑讓Room可以匯出，並讓git可以add進版控。
+ * - exportSchema: 每個版本的schema匯出到app/schemas (路徑見app/build.gradle的room.schemaLocation)，
+ * 並加進版控，改版時可以比對差異，migration也能對照舊版本的DDL測試 (WordRoomDatabaseMigrationTest)。
  *
  * - 如果有改database schema，一定要更改version並建立更版的機制。
+ *
+ * 版本紀錄
+ * - 1: word_table
+ * - 2: 新增全文檢索索引word_fts (見MIGRATION_1_2)
+ * - 3: word_table改以整數id為主鍵，word改為unique index (見MIGRATION_2_3)
+ * - 4: word_fts加上長度2、3的字首索引 (見MIGRATION_3_4)
  */
-@Database(entities = {Word.class}, version = 1, exportSchema = false)
+@Database(entities = {Word.class, WordFts.class}, version = 4, exportSchema = true)
 public abstract class WordRoomDatabase extends RoomDatabase {
 
     /**
@@ -38,64 +49,188 @@ public abstract class WordRoomDatabase extends RoomDatabase {
      */
     public abstract WordDao wordDao();
 
+    private static final String TAG = "WordRoomDatabase";
+    private static final String DATABASE_NAME = "word_database";
+
+    /**
+     * 預先建好的資料庫 (放在assets/databases/word_database.db)
+     * - 有放這個檔案的話，第一次開啟時Room會直接複製它，完全不用寫入初始資料。
+     * - 檔案的schema版本必須與目前的version相同。
+     */
+    private static final String PREPACKAGED_DATABASE_DIR = "databases";
+    private static final String PREPACKAGED_DATABASE_FILE = DATABASE_NAME + ".db";
+
+    /**
+     * 沒有預先建好的資料庫時，第一次建立DB要寫入的初始單字
+     */
+    private static final String[] SEED_WORDS = {"Hello", "world"};
+
+    /**
+     * 1 -> 2: 建立word_fts，並以現有的單字重建索引
+     * - 同步用的trigger不需要在這裡建立，Room在migration結束後會自動為FTS的contentEntity建立。
+     * - CREATE語法必須與Room產生的一致，否則開啟時的schema檢查會失敗。
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `word_fts` "
+                    + "USING FTS4(`word` TEXT NOT NULL, content=`word_table`)");
+            database.execSQL("INSERT INTO word_fts(word_fts) VALUES('rebuild')");
+        }
+    };
+
+    /**
+     * 2 -> 3: word_table改以整數id為主鍵
+     * - SQLite不能修改主鍵，只能建立新表、複製資料後換掉舊表。
+     * - 舊表的rowid直接當作新的id，既有單字的順序與word_fts的docid都不變。
+     * - DROP舊表時它的trigger也會一起刪除，Room在migration結束後會重新建立；
+     * 刪除過程中word_fts可能被同步刪除，所以最後重建一次索引。
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `word_table_new` "
+                    + "(`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `word` TEXT NOT NULL)");
+            database.execSQL("INSERT INTO word_table_new (id, word) "
+                    + "SELECT rowid, word FROM word_table ORDER BY rowid");
+            database.execSQL("DROP TABLE word_table");
+            database.execSQL("ALTER TABLE word_table_new RENAME TO word_table");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_word_table_word` "
+                    + "ON `word_table` (`word`)");
+            database.execSQL("INSERT INTO word_fts(word_fts) VALUES('rebuild')");
+        }
+    };
+
+    /**
+     * 3 -> 4: word_fts加上prefix索引
+     * - FTS4的選項不能修改，只能刪掉虛擬表重建；content是word_table，單字本身不會被刪除。
+     * - 同步用的trigger一樣由Room在migration結束後重新建立。
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("DROP TABLE IF EXISTS `word_fts`");
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `word_fts` "
+                    + "USING FTS4(`word` TEXT NOT NULL, content=`word_table`, prefix=`2,3`)");
+            database.execSQL("INSERT INTO word_fts(word_fts) VALUES('rebuild')");
+        }
+    };
+
     private static volatile WordRoomDatabase INSTANCE;
-    // 建立固定的背景緒限制，負責DB的背景非同步行為
-    private static final int NUMBER_OF_THREADS = 4;
-    public static final ExecutorService databaseWriteExecutor =
-            Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+
+    // 接收每一句SQL的量測結果，見setQueryObserver()
+    private static volatile QueryObserver sQueryObserver = QueryObserver.NONE;
+
+    /**
+     * 設定資料庫的instrumentation，必須在第一次getDatabase之前呼叫
+     * - SQL層級: 每一句SQL的時間與筆數 (InstrumentedOpenHelperFactory)
+     * - DAO層級: 由使用端以InstrumentedDao.wrap()包裝DAO，傳入getQueryObserver()
+     * @param observer
+     */
+    public static void setQueryObserver(QueryObserver observer) {
+        sQueryObserver = observer;
+    }
+
+    public static QueryObserver getQueryObserver() {
+        return sQueryObserver;
+    }
 
     /**
      * 建立Singleton方法，確保一直取到的都是同一個物件實體，不會有同時開了很多個的情況。
+     * 使用SqliteProfile.BALANCED的設定開啟。
+     * - Singleton只限於同一個process: WordTransferService的process有自己的實體，
+     * 兩邊的異動透過multi-instance invalidation互相通知 (見buildDatabase)。
      *
      * @param context
      * @return
      */
     public static WordRoomDatabase getDatabase(Context context) {
+        return getDatabase(context, SqliteProfile.BALANCED);
+    }
+
+    /**
+     * 同getDatabase(Context)，但可指定SQLite的開啟設定。
+     * 只有第一次呼叫(真正建立DB時)的設定有效。
+     *
+     * @param context
+     * @param profile
+     * @return
+     */
+    public static WordRoomDatabase getDatabase(Context context, SqliteProfile profile) {
         if (INSTANCE == null) {
             synchronized (WordRoomDatabase.class) {
                 if (INSTANCE == null) {
                     // 第一次存取的時候會利用Builder來建立物件，並取名為word_database
-                    INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
-                            WordRoomDatabase.class, "word_database")
-                            .addCallback(sRoomDatabaseCallback)
-                            .build();
+                    INSTANCE = buildDatabase(context, DATABASE_NAME, profile);
                 }
             }
         }
         return INSTANCE;
     }
 
+    /**
+     * 建立database物件 (不經過Singleton，benchmark與測試可以用不同的檔名各自開啟)
+     * - 查詢與寫入分別使用DatabaseExecutors的讀取緒池與唯一的寫入緒
+     * - journal mode由profile決定，其餘PRAGMA在每次開啟時套用
+     * - 開啟multi-instance invalidation: 同一個檔案的其他實體(包含其他process)寫入時，
+     * 這個實體的InvalidationTracker也會收到通知，LiveData、DataSource與WordRepository的索引都會更新。
+     * Room透過它內建的MultiInstanceInvalidationService (IPC) 傳遞，只有檔案DB有效。
+     */
+    static WordRoomDatabase buildDatabase(Context context, String name, SqliteProfile profile) {
+        DatabaseExecutors executors = DatabaseExecutors.get();
+        RoomDatabase.Builder<WordRoomDatabase> builder = Room.databaseBuilder(
+                context.getApplicationContext(), WordRoomDatabase.class, name)
+                .setQueryExecutor(executors.reader())
+                .setTransactionExecutor(executors.writer())
+                .setJournalMode(profile.getJournalMode())
+                .addCallback(sRoomDatabaseCallback)
+                .addCallback(profile.asCallback())
+                .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4)
+                .enableMultiInstanceInvalidation();
+        QueryObserver observer = sQueryObserver;
+        if (observer != QueryObserver.NONE) {
+            builder.openHelperFactory(new InstrumentedOpenHelperFactory(
+                    new FrameworkSQLiteOpenHelperFactory(), observer));
+        }
+        if (DATABASE_NAME.equals(name) && hasPrepackagedDatabase(context)) {
+            builder.createFromAsset(PREPACKAGED_DATABASE_DIR + "/" + PREPACKAGED_DATABASE_FILE);
+        }
+        return builder.build();
+    }
+
+    private static boolean hasPrepackagedDatabase(Context context) {
+        try {
+            String[] files = context.getAssets().list(PREPACKAGED_DATABASE_DIR);
+            return files != null && Arrays.asList(files).contains(PREPACKAGED_DATABASE_FILE);
+        } catch (IOException e) {
+            Log.w(TAG, "cannot list assets", e);
+            return false;
+        }
+    }
+
 
     /**
      * 產生DB的Callback
      */
     private static RoomDatabase.Callback sRoomDatabaseCallback = new Callback() {
 
+        /**
+         * 第一次建立DB時寫入初始單字 (只會執行一次)
+         * - 以前是在onOpen每次開啟都deleteAll再重新插入，每次冷啟動都會重寫整張表，
+         * 並讓所有Observer失效，UI要等寫完才能顯示。
+         * - onCreate在建立資料表的同一個transaction中執行，直接用傳入的db寫入即可，
+         * 不需要再丟到寫入緒，之後的冷啟動完全不會有寫入。
+         * - 資料表的version就是初始資料的版本標記: 只有全新建立的DB才會執行onCreate，
+         * 從assets複製預先建好的資料庫時也不會執行。
+         */
         @Override
         public void onCreate(@NonNull SupportSQLiteDatabase db) {
             super.onCreate(db);
-            // 第一次建立DB時做事
-            // 通常都是複寫這裡而已
-        }
-
-
-        @Override
-        public void onOpen(@NonNull SupportSQLiteDatabase db) {
-            super.onOpen(db);
-            // 每次開啟DB時做事
-            // 這次要練習的範例，是每次開啟都會清空資料，並增加兩個單字。
-            // 如果不要清空，請把下方註解
-            // 因為是操作DB所以一樣要用databaseWriteExecutor
-            // 在背景緒執行
-            databaseWriteExecutor.execute(() -> {
-                WordDao dao = INSTANCE.wordDao();
-                dao.deleteAll();
-
-                Word word = new Word("Hello");
-                dao.insert(word);
-                word = new Word("world");
-                dao.insert(word);
-            });
+            ContentValues values = new ContentValues();
+            for (String word : SEED_WORDS) {
+                values.put("word", word);
+                db.insert("word_table", SQLiteDatabase.CONFLICT_IGNORE, values);
+            }
         }
     };
 }
@@ -0,0 +1,94 @@
+package tw.dh46.codelab.roomsample;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MemoryTrimPolicy的各個等級，以及套用到WordIndex後保留的記憶體
+ */
+public class MemoryTrimPolicyTest {
+
+    private static final long BUDGET = 64 * 1024;
+
+    @Test
+    public void budget_shrinksWithLevel() {
+        assertEquals(BUDGET, MemoryTrimPolicy.budgetFor(0, BUDGET));
+        assertEquals(BUDGET / 2, MemoryTrimPolicy.budgetFor(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE, BUDGET));
+        assertEquals(BUDGET / 4, MemoryTrimPolicy.budgetFor(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW, BUDGET));
+        assertEquals(0, MemoryTrimPolicy.budgetFor(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL, BUDGET));
+        assertEquals(BUDGET / 2, MemoryTrimPolicy.budgetFor(
+                ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN, BUDGET));
+        assertEquals(BUDGET / 4, MemoryTrimPolicy.budgetFor(
+                ComponentCallbacks2.TRIM_MEMORY_BACKGROUND, BUDGET));
+        assertEquals(0, MemoryTrimPolicy.budgetFor(
+                ComponentCallbacks2.TRIM_MEMORY_MODERATE, BUDGET));
+        assertEquals(0, MemoryTrimPolicy.budgetFor(
+                ComponentCallbacks2.TRIM_MEMORY_COMPLETE, BUDGET));
+    }
+
+    @Test
+    public void pagesAndSnapshot_areKeptWhileVisible() {
+        assertFalse(MemoryTrimPolicy.shouldReleasePages(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertFalse(MemoryTrimPolicy.shouldReleasePages(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertTrue(MemoryTrimPolicy.shouldReleasePages(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertTrue(MemoryTrimPolicy.shouldReleasePages(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+
+        assertFalse(MemoryTrimPolicy.shouldReleaseSnapshot(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertFalse(MemoryTrimPolicy.shouldReleaseSnapshot(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        // 前景時記憶體極度不足，全部單字的快取也要放掉 (見WordRepository.trimMemory)
+        assertTrue(MemoryTrimPolicy.shouldReleaseSnapshot(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertTrue(MemoryTrimPolicy.shouldReleaseSnapshot(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+    }
+
+    @Test
+    public void wordIndex_retainsAtMostBudgetForLevel() {
+        int[] levels = {
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE,
+                ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN,
+                ComponentCallbacks2.TRIM_MEMORY_BACKGROUND,
+                ComponentCallbacks2.TRIM_MEMORY_COMPLETE,
+        };
+        for (int level : levels) {
+            WordIndex index = filledIndex();
+            long budget = MemoryTrimPolicy.budgetFor(level, BUDGET);
+
+            index.trimTo(budget);
+
+            assertTrue("level " + level, index.getEstimatedBytes() <= budget);
+            // 只淘汰超過的部分，不會全部清空
+            if (budget > 0) {
+                assertTrue("level " + level, index.getEstimatedBytes() > budget / 2);
+            }
+        }
+    }
+
+    @Test
+    public void wordIndex_growsBackAfterTrim() {
+        WordIndex index = filledIndex();
+        index.trimTo(MemoryTrimPolicy.budgetFor(ComponentCallbacks2.TRIM_MEMORY_COMPLETE, BUDGET));
+        assertEquals(0, index.size());
+
+        index.add("apple");
+
+        assertTrue(index.contains("apple"));
+    }
+
+    /**
+     * 剛好填滿BUDGET的WordIndex
+     */
+    private static WordIndex filledIndex() {
+        WordIndex index = new WordIndex(BUDGET);
+        for (int i = 0; index.getEstimatedBytes() < BUDGET - 200; i++) {
+            index.add("word" + i);
+        }
+        return index;
+    }
+}
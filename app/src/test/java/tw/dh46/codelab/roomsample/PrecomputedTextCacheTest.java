@@ -0,0 +1,121 @@
+package tw.dh46.codelab.roomsample;
+
+import android.util.TypedValue;
+import android.widget.TextView;
+
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * PrecomputedTextCache: 背景緒以直接執行的Executor代替
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PrecomputedTextCacheTest {
+
+    private TextView mTextView;
+    private PrecomputedTextCache mCache;
+
+    @Before
+    public void setUp() {
+        mTextView = new TextView(ApplicationProvider.getApplicationContext());
+        mCache = new PrecomputedTextCache(2, Runnable::run);
+    }
+
+    @Test
+    public void prefetch_withoutParams_doesNothing() {
+        mCache.prefetch(Arrays.asList("apple", "banana"));
+
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void prefetch_keepsMostRecentWords() {
+        mCache.updateParams(mTextView);
+        mCache.prefetch(Arrays.asList("apple", "banana", "cherry"));
+
+        assertNull(mCache.get("apple"));
+        PrecomputedTextCompat text = mCache.get("cherry");
+        assertNotNull(text);
+        assertEquals("cherry", text.toString());
+    }
+
+    @Test
+    public void pending_onlyForQueuedWords() throws Exception {
+        List<Runnable> queue = new ArrayList<>();
+        mCache = new PrecomputedTextCache(2, queue::add);
+        mCache.updateParams(mTextView);
+
+        mCache.prefetch(Arrays.asList("apple"));
+        // 沒有排進去的單字由呼叫端直接設定文字
+        assertNull(mCache.pending("banana"));
+        Future<PrecomputedTextCompat> pending = mCache.pending("apple");
+        assertNotNull(pending);
+        assertFalse(pending.isDone());
+
+        queue.remove(0).run();
+
+        assertEquals("apple", pending.get().toString());
+        assertNotNull(mCache.get("apple"));
+        assertNull(mCache.pending("apple"));
+    }
+
+    @Test
+    public void pending_droppedWhenParamsChange() {
+        List<Runnable> queue = new ArrayList<>();
+        mCache = new PrecomputedTextCache(2, queue::add);
+        mCache.updateParams(mTextView);
+        mCache.prefetch(Arrays.asList("apple"));
+
+        mTextView.setTextSize(TypedValue.COMPLEX_UNIT_PX, mTextView.getTextSize() * 2);
+        mCache.updateParams(mTextView);
+        assertNull(mCache.pending("apple"));
+
+        queue.remove(0).run();
+        assertNull(mCache.get("apple"));
+    }
+
+    @Test
+    public void updateParams_changedTextSize_clears() {
+        mCache.updateParams(mTextView);
+        mCache.prefetch(Arrays.asList("apple", "banana"));
+
+        // 同樣的參數不會清空
+        mCache.updateParams(mTextView);
+        assertEquals(2, mCache.size());
+
+        mTextView.setTextSize(TypedValue.COMPLEX_UNIT_PX, mTextView.getTextSize() * 2);
+        mCache.updateParams(mTextView);
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void trimToSize_keepsMostRecentAndGrowsBack() {
+        mCache.updateParams(mTextView);
+        mCache.prefetch(Arrays.asList("apple", "banana"));
+
+        mCache.trimToSize(1);
+        assertEquals(1, mCache.size());
+        assertNotNull(mCache.get("banana"));
+
+        // 上限不變，之後可以再放回來
+        mCache.prefetch(Arrays.asList("apple"));
+        assertEquals(2, mCache.size());
+    }
+}
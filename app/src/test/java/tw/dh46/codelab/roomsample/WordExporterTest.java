@@ -0,0 +1,130 @@
+package tw.dh46.codelab.roomsample;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import tw.dh46.codelab.roomsample.database.Word;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * WordExporter: 以假的PageLoader代替資料庫
+ */
+public class WordExporterTest {
+
+    @Test
+    public void run_writesAllPagesAsGzipCsv() throws IOException {
+        List<String> words = words(WordExporter.PAGE_SIZE * 2 + 3);
+        List<WordExporter.Progress> progress = new ArrayList<>();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        new WordExporter(new FakePageLoader(words))
+                .run(Channels.newChannel(output), words.size(), progress::add);
+
+        assertEquals(words, readLines(output.toByteArray()));
+        // 每一頁一次，再加上最終狀態
+        assertEquals(4, progress.size());
+        WordExporter.Progress last = progress.get(progress.size() - 1);
+        assertEquals(WordExporter.Progress.State.COMPLETED, last.state);
+        assertEquals(words.size(), last.exportedCount);
+        assertEquals(100, last.getPercent());
+    }
+
+    @Test
+    public void run_cancelled_stopsAfterCurrentPage() throws IOException {
+        List<String> words = words(WordExporter.PAGE_SIZE * 3);
+        FakePageLoader loader = new FakePageLoader(words);
+        WordExporter exporter = new WordExporter(loader);
+        List<WordExporter.Progress> progress = new ArrayList<>();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        exporter.run(Channels.newChannel(output), words.size(), p -> {
+            progress.add(p);
+            exporter.cancel();
+        });
+
+        assertEquals(1, loader.loads);
+        assertEquals(WordExporter.PAGE_SIZE, readLines(output.toByteArray()).size());
+        assertEquals(WordExporter.Progress.State.CANCELLED, progress.get(progress.size() - 1).state);
+    }
+
+    @Test
+    public void writeCsvField_quotesOnlyWhenNeeded() throws IOException {
+        assertEquals("apple", csv("apple"));
+        assertEquals("big apple", csv("big apple"));
+        assertEquals("\"a,b\"", csv("a,b"));
+        assertEquals("\"say \"\"hi\"\"\"", csv("say \"hi\""));
+        assertEquals("\"#tag\"", csv("#tag"));
+        assertEquals("\" padded\"", csv(" padded"));
+    }
+
+    @Test
+    public void writeCsvField_readBackByImporter() throws IOException {
+        for (String word : new String[]{"apple", "big apple", "a,b", "#tag", " padded"}) {
+            // WordImporter本來就會去除前後空白
+            assertEquals(word.trim(), WordImporter.normalize(csv(word)));
+        }
+    }
+
+    private static String csv(String field) throws IOException {
+        StringWriter writer = new StringWriter();
+        WordExporter.writeCsvField(writer, field);
+        return writer.toString();
+    }
+
+    private static List<String> words(int count) {
+        List<String> words = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            words.add(String.format("w%06d", i));
+        }
+        return words;
+    }
+
+    private static List<String> readLines(byte[] gzip) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(gzip)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * 以排序好的單字模擬keyset分頁查詢
+     */
+    private static class FakePageLoader implements WordRepository.PageLoader {
+
+        private final List<String> mWords;
+        int loads;
+
+        FakePageLoader(List<String> words) {
+            mWords = words;
+        }
+
+        @Override
+        public List<Word> load(String afterKey, int limit) {
+            loads++;
+            List<Word> page = new ArrayList<>();
+            for (String word : mWords) {
+                if ((afterKey == null || word.compareTo(afterKey) > 0) && page.size() < limit) {
+                    page.add(new Word(word));
+                }
+            }
+            return page;
+        }
+    }
+}
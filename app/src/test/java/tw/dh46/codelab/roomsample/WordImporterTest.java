@@ -0,0 +1,163 @@
+package tw.dh46.codelab.roomsample;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import tw.dh46.codelab.roomsample.database.Word;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * WordImporter逐行轉換單字的規則，以及以假的Writer代替資料庫的匯入流程
+ */
+public class WordImporterTest {
+
+    @Test
+    public void normalize_plainWord_isTrimmed() {
+        assertEquals("hello", WordImporter.normalize("  hello \t"));
+    }
+
+    @Test
+    public void normalize_csv_takesFirstColumn() {
+        assertEquals("apple", WordImporter.normalize("apple, a fruit, 3"));
+        assertEquals("big apple", WordImporter.normalize("\" big apple \",city"));
+    }
+
+    @Test
+    public void normalize_stripsByteOrderMark() {
+        assertEquals("first", WordImporter.normalize("\uFEFFfirst"));
+    }
+
+    @Test
+    public void normalize_skipsBlankAndCommentLines() {
+        assertNull(WordImporter.normalize(""));
+        assertNull(WordImporter.normalize("   "));
+        assertNull(WordImporter.normalize("# header"));
+        assertNull(WordImporter.normalize(" ,second column only"));
+    }
+
+    @Test
+    public void normalize_quotedField_unescapesDoubledQuotes() {
+        assertEquals("say \"hi\"", WordImporter.normalize("\"say \"\"hi\"\"\",second"));
+        assertEquals("\"", WordImporter.normalize("\"\"\"\""));
+        assertEquals("a,b", WordImporter.normalize("\"a,b\""));
+        // 沒有結尾的引號時讀到行尾
+        assertEquals("open", WordImporter.normalize("\"open"));
+        assertNull(WordImporter.normalize("\"\",second column only"));
+    }
+
+    @Test
+    public void run_writesInChunksAndCountsOnlyNewWords() throws IOException {
+        StringBuilder file = new StringBuilder();
+        int total = WordImporter.CHUNK_SIZE * 2 + 5;
+        for (int i = 0; i < total; i++) {
+            file.append(String.format("w%06d", i)).append('\n');
+            if (i % 10 == 0) {
+                // 同一批之內的重複
+                file.append(String.format("w%06d", i)).append('\n');
+            }
+        }
+        // 與前一批重複，由unique index忽略
+        file.append("w000000\n");
+        FakeWriter writer = new FakeWriter();
+        writer.mExisting.add("w000001");
+        List<WordImporter.Progress> progress = new ArrayList<>();
+
+        new WordImporter(writer, Runnable::run).run(stream(file.toString()), file.length(), progress::add);
+
+        assertEquals(Arrays.asList(WordImporter.CHUNK_SIZE, WordImporter.CHUNK_SIZE, 6), writer.mChunkSizes);
+        // 每一批一次，再加上最終狀態
+        assertEquals(3, progress.size());
+        WordImporter.Progress last = progress.get(progress.size() - 1);
+        assertEquals(WordImporter.Progress.State.COMPLETED, last.state);
+        assertEquals(total - 1, last.importedCount);
+        assertEquals(100, last.getPercent());
+    }
+
+    @Test
+    public void run_cancelled_stopsAfterCurrentChunk() throws IOException {
+        StringBuilder file = new StringBuilder();
+        for (int i = 0; i < WordImporter.CHUNK_SIZE * 3; i++) {
+            file.append(String.format("w%06d", i)).append('\n');
+        }
+        FakeWriter writer = new FakeWriter();
+        WordImporter importer = new WordImporter(writer, Runnable::run);
+        List<WordImporter.Progress> progress = new ArrayList<>();
+
+        importer.run(stream(file.toString()), -1, p -> {
+            progress.add(p);
+            importer.cancel();
+        });
+
+        assertEquals(Collections.singletonList(WordImporter.CHUNK_SIZE), writer.mChunkSizes);
+        WordImporter.Progress last = progress.get(progress.size() - 1);
+        assertEquals(WordImporter.Progress.State.CANCELLED, last.state);
+        assertEquals(WordImporter.CHUNK_SIZE, last.importedCount);
+        assertEquals(-1, last.getPercent());
+    }
+
+    @Test
+    public void exportThenImport_roundTrips() throws IOException {
+        List<String> words = Arrays.asList("#tag", "a,b", "apple", "big apple",
+                "say \"hi\"", "\"quoted\"", "\u4e2d\u6587");
+        List<Word> rows = new ArrayList<>();
+        for (String word : words) {
+            rows.add(new Word(word));
+        }
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        new WordExporter((afterKey, limit) -> afterKey == null ? rows : Collections.<Word>emptyList())
+                .run(Channels.newChannel(exported), rows.size(), progress -> { });
+
+        FakeWriter writer = new FakeWriter();
+        List<WordImporter.Progress> progress = new ArrayList<>();
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(exported.toByteArray()))) {
+            new WordImporter(writer, Runnable::run).run(input, -1, progress::add);
+        }
+
+        assertEquals(WordImporter.Progress.State.COMPLETED, progress.get(progress.size() - 1).state);
+        assertEquals(words, writer.mWritten);
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 模擬word的unique index與OnConflictStrategy.IGNORE
+     */
+    private static class FakeWriter implements WordInsertBatcher.Writer {
+
+        final Set<String> mExisting = new HashSet<>();
+        final List<String> mWritten = new ArrayList<>();
+        final List<Integer> mChunkSizes = new ArrayList<>();
+
+        @Override
+        public List<Long> insertAll(List<Word> words) {
+            mChunkSizes.add(words.size());
+            List<Long> rowIds = new ArrayList<>(words.size());
+            for (Word word : words) {
+                if (mExisting.add(word.getWord())) {
+                    mWritten.add(word.getWord());
+                    rowIds.add((long) mExisting.size());
+                } else {
+                    rowIds.add(-1L);
+                }
+            }
+            return rowIds;
+        }
+    }
+}
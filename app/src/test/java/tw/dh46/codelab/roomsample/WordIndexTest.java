@@ -0,0 +1,129 @@
+package tw.dh46.codelab.roomsample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WordIndex的記憶體上限、淘汰與緊密排列
+ */
+public class WordIndexTest {
+
+    @Test
+    public void addAndRemove() {
+        WordIndex index = new WordIndex(1024 * 1024);
+        index.addAll(Arrays.asList("apple", "banana"));
+        assertTrue(index.contains("apple"));
+        assertFalse(index.contains("cherry"));
+
+        index.remove("apple");
+        assertFalse(index.contains("apple"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void addAfterClear_withOldGeneration_isIgnored() {
+        WordIndex index = new WordIndex(1024 * 1024);
+        long generation = index.generation();
+        // 查DB期間收到異動通知
+        index.clear();
+        index.add("apple", generation);
+        assertFalse(index.contains("apple"));
+
+        index.add("apple", index.generation());
+        assertTrue(index.contains("apple"));
+    }
+
+    @Test
+    public void exceedingCap_evictsWordsNotLookedUp() {
+        long cap = 64 * 1024;
+        WordIndex index = new WordIndex(cap);
+        List<String> words = words("a", 2000);
+        index.addAll(words);
+        // 查過的單字優先保留
+        for (int i = 0; i < words.size(); i += 10) {
+            assertTrue(index.contains(words.get(i)));
+        }
+
+        index.addAll(words("b", 4000));
+
+        assertTrue(index.getEstimatedBytes() <= cap);
+        for (int i = 0; i < words.size(); i += 10) {
+            assertTrue(words.get(i), index.contains(words.get(i)));
+        }
+        assertTrue(index.size() < 6000);
+    }
+
+    @Test
+    public void packedEntries_useFarLessThanAnObjectPerWord() {
+        WordIndex index = new WordIndex(Long.MAX_VALUE);
+        List<String> words = words("w", 10000);
+        index.addAll(words);
+        index.trimTo(Long.MAX_VALUE - 1);
+
+        for (String word : words) {
+            assertTrue(index.contains(word));
+        }
+        assertFalse(index.contains("w"));
+        assertFalse(index.contains("w0000100"));
+        assertEquals(words.size(), index.size());
+        // 單字本身的字元 + 每個單字約4 bytes (暫存區以外)
+        assertTrue(index.getEstimatedBytes() < 10000L * (2 * 6 + 4) + 512L * 120);
+    }
+
+    @Test
+    public void removeThenAdd_acrossMerges() {
+        WordIndex index = new WordIndex(Long.MAX_VALUE);
+        List<String> words = words("w", 3000);
+        index.addAll(words);
+        index.remove("w00010");
+        index.remove("w02999");
+        assertFalse(index.contains("w00010"));
+        assertEquals(2998, index.size());
+
+        index.add("w00010");
+        index.addAll(words("x", 1000));
+
+        assertTrue(index.contains("w00010"));
+        assertFalse(index.contains("w02999"));
+        assertEquals(3999, index.size());
+    }
+
+    @Test
+    public void addAfterRemove_withOldGeneration_isIgnored() {
+        WordIndex index = new WordIndex(1024 * 1024);
+        long generation = index.generation();
+        // 查DB期間被自己刪除
+        index.remove("apple");
+        index.add("apple", generation);
+        assertFalse(index.contains("apple"));
+    }
+
+    private static List<String> words(String prefix, int count) {
+        List<String> words = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            words.add(String.format(Locale.US, "%s%05d", prefix, i));
+        }
+        // 加入的順序與排序無關
+        Collections.shuffle(words, new Random(count));
+        return words;
+    }
+
+    @Test
+    public void trimTo_releasesMemory() {
+        WordIndex index = new WordIndex(1024 * 1024);
+        index.addAll(Arrays.asList("a", "b", "c", "d"));
+        index.trimTo(0);
+        assertEquals(0, index.size());
+        assertEquals(0, index.getEstimatedBytes());
+    }
+}
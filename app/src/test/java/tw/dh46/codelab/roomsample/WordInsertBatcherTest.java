@@ -0,0 +1,153 @@
+package tw.dh46.codelab.roomsample;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import tw.dh46.codelab.roomsample.database.Word;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * WordInsertBatcher的合併與分批行為
+ */
+public class WordInsertBatcherTest {
+
+    private final Queue<Runnable> mWriteTasks = new ArrayDeque<>();
+    private final Executor mWriteExecutor = mWriteTasks::add;
+    private final Executor mDirectExecutor = Runnable::run;
+
+    // 模擬資料表: 已存在的單字回傳-1
+    private final Set<String> mTable = new HashSet<>();
+    private final List<Integer> mTransactionSizes = new ArrayList<>();
+
+    private WordInsertBatcher mBatcher;
+
+    @Before
+    public void setUp() {
+        mBatcher = new WordInsertBatcher(words -> {
+            mTransactionSizes.add(words.size());
+            List<Long> rowIds = new ArrayList<>(words.size());
+            for (Word word : words) {
+                rowIds.add(mTable.add(word.getWord()) ? (long) mTable.size() : -1L);
+            }
+            return rowIds;
+        }, mWriteExecutor, mDirectExecutor);
+    }
+
+    @Test
+    public void concurrentSingleInserts_coalesceIntoOneTransaction() {
+        int[] inserted = new int[3];
+        mBatcher.enqueue(Collections.singletonList(new Word("a")), count -> inserted[0] = count);
+        mBatcher.enqueue(Collections.singletonList(new Word("b")), count -> inserted[1] = count);
+        mBatcher.enqueue(Collections.singletonList(new Word("a")), count -> inserted[2] = count);
+
+        assertEquals(1, mWriteTasks.size());
+        runWriteTasks();
+
+        assertEquals(Collections.singletonList(3), mTransactionSizes);
+        assertEquals(1, inserted[0]);
+        assertEquals(1, inserted[1]);
+        // 重複的單字被忽略
+        assertEquals(0, inserted[2]);
+    }
+
+    @Test
+    public void largeInsert_isSplitIntoBoundedTransactions() {
+        int total = WordInsertBatcher.MAX_BATCH_SIZE * 2 + 1;
+        List<Word> words = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            words.add(new Word("word" + i));
+        }
+        int[] inserted = new int[1];
+        mBatcher.enqueue(words, count -> inserted[0] = count);
+        runWriteTasks();
+
+        assertEquals(Arrays.asList(WordInsertBatcher.MAX_BATCH_SIZE,
+                WordInsertBatcher.MAX_BATCH_SIZE, 1), mTransactionSizes);
+        assertEquals(total, inserted[0]);
+    }
+
+    @Test
+    public void insertAfterDrain_schedulesNewTransaction() {
+        mBatcher.enqueue(Collections.singletonList(new Word("a")), null);
+        runWriteTasks();
+        mBatcher.enqueue(Collections.singletonList(new Word("b")), null);
+        runWriteTasks();
+
+        assertEquals(Arrays.asList(1, 1), mTransactionSizes);
+    }
+
+    @Test
+    public void failedTransaction_completesEveryCallback() {
+        WordInsertBatcher batcher = new WordInsertBatcher(words -> {
+            if (words.get(0).getWord().equals("broken")) {
+                throw new IllegalStateException("disk full");
+            }
+            mTransactionSizes.add(words.size());
+            return Collections.nCopies(words.size(), 1L);
+        }, mWriteExecutor, mDirectExecutor);
+        int[] completed = {-1, -1};
+        batcher.enqueue(Collections.singletonList(new Word("broken")), count -> completed[0] = count);
+        batcher.enqueue(Collections.singletonList(new Word("a")), count -> completed[1] = count);
+        runWriteTasks();
+
+        // 同一批一起失敗，預設的onFailure回報0筆
+        assertEquals(0, completed[0]);
+        assertEquals(0, completed[1]);
+
+        // 寫入緒沒有卡住，之後的單字照常寫入
+        int[] inserted = new int[1];
+        batcher.enqueue(Collections.singletonList(new Word("b")), count -> inserted[0] = count);
+        runWriteTasks();
+
+        assertEquals(Collections.singletonList(1), mTransactionSizes);
+        assertEquals(1, inserted[0]);
+    }
+
+    @Test
+    public void rejectedDrain_isScheduledAgainByNextEnqueue() {
+        boolean[] reject = {true};
+        WordInsertBatcher batcher = new WordInsertBatcher(words -> {
+            mTransactionSizes.add(words.size());
+            return Collections.nCopies(words.size(), 1L);
+        }, command -> {
+            if (reject[0]) {
+                throw new RejectedExecutionException("queue is full");
+            }
+            mWriteTasks.add(command);
+        }, mDirectExecutor);
+        try {
+            batcher.enqueue(Collections.singletonList(new Word("a")), null);
+            fail();
+        } catch (RejectedExecutionException expected) {
+            // 呼叫端收到例外
+        }
+
+        reject[0] = false;
+        batcher.enqueue(Collections.singletonList(new Word("b")), null);
+        assertEquals(1, mWriteTasks.size());
+        runWriteTasks();
+
+        // 第一次沒排進去的單字也一起寫入
+        assertEquals(Collections.singletonList(2), mTransactionSizes);
+    }
+
+    private void runWriteTasks() {
+        Runnable task;
+        while ((task = mWriteTasks.poll()) != null) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package tw.dh46.codelab.roomsample;
+
+import android.app.Application;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import tw.dh46.codelab.roomsample.benchmark.Benchmark;
+import tw.dh46.codelab.roomsample.benchmark.BenchmarkReport;
+import tw.dh46.codelab.roomsample.database.DatabaseExecutors;
+import tw.dh46.codelab.roomsample.database.QueryObserver;
+import tw.dh46.codelab.roomsample.database.Word;
+import tw.dh46.codelab.roomsample.database.WordDao;
+import tw.dh46.codelab.roomsample.database.WordRoomDatabase;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * WordRepository.insert的端對端效能 (WordInsertBatcher -> 寫入緒 -> SQLite)
+ * - 使用正式的檔案DB與DatabaseExecutors，量到的是App實際的寫入路徑。
+ * - 每次量測後以一個帶callback的空insertAll當作barrier，等前面的寫入全部完成。
+ * - alloc/op只計算呼叫端(測試緒)的配置，寫入緒上的配置不包含在內。
+ *
+ * 執行: ./gradlew benchmark [-PbenchmarkRows=1000,100000,1000000]
+ * 結果: app/build/reports/benchmarks/WordRepositoryBenchmark.json
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class WordRepositoryBenchmark {
+
+    private static final int BURST_SIZE = 1000;
+
+    private WordDao mWordDao;
+    private WordRepository mRepository;
+    private int mNext;
+
+    @Before
+    public void setUp() {
+        Application application = ApplicationProvider.getApplicationContext();
+        // 量測的是App的寫入路徑，不經過instrumentation的Proxy (DB與DAO都不包裝)
+        WordRoomDatabase.setQueryObserver(QueryObserver.NONE);
+        mWordDao = WordRoomDatabase.getDatabase(application).wordDao();
+        mRepository = new WordRepository(application);
+    }
+
+    @After
+    public void tearDown() {
+        mRepository.close();
+    }
+
+    @Test
+    public void repositoryInsert() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("WordRepositoryBenchmark");
+        for (int rows : Benchmark.rowCounts()) {
+            populate(rows);
+
+            report.add(Benchmark.measure("insert", rows, 50, 500, i -> {
+                mRepository.insert(new Word(nextWord()));
+                awaitWrites();
+            }));
+            report.add(Benchmark.measure("insert[burst=" + BURST_SIZE + "]", rows, 1, 10, i -> {
+                for (int j = 0; j < BURST_SIZE; j++) {
+                    mRepository.insert(new Word(nextWord()));
+                }
+                awaitWrites();
+            }));
+
+            // 已存在的單字一樣進到寫入緒，由unique index忽略
+            Word known = new Word(nextWord());
+            mRepository.insert(known);
+            awaitWrites();
+            report.add(Benchmark.measure("insert[known]", rows, 50, 500, i -> {
+                mRepository.insert(known);
+                awaitWrites();
+            }));
+        }
+        report.write();
+    }
+
+    /**
+     * 清空後寫入rows筆 (在寫入緒執行，Room不允許在主執行緒存取DB)
+     */
+    private void populate(int rows) throws Exception {
+        DatabaseExecutors.get().writer().submit(() -> {
+            mWordDao.deleteAll();
+            List<Word> batch = new ArrayList<>(WordInsertBatcher.MAX_BATCH_SIZE);
+            for (int i = 0; i < rows; i++) {
+                batch.add(new Word(nextWord()));
+                if (batch.size() == WordInsertBatcher.MAX_BATCH_SIZE) {
+                    mWordDao.insertAll(batch);
+                    batch.clear();
+                }
+            }
+            mWordDao.insertAll(batch);
+        }).get();
+    }
+
+    /**
+     * 等待之前送出的寫入全部完成 (callback會post到主執行緒，需要手動執行main looper)
+     */
+    private void awaitWrites() {
+        AtomicBoolean done = new AtomicBoolean();
+        mRepository.insertAll(Collections.emptyList(), count -> done.set(true));
+        while (!done.get()) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.yield();
+        }
+    }
+
+    private String nextWord() {
+        return String.format(Locale.US, "w%08d", mNext++);
+    }
+}
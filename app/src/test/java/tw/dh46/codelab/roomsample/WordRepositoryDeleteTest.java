@@ -0,0 +1,247 @@
+package tw.dh46.codelab.roomsample;
+
+import android.app.Application;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Looper;
+
+import androidx.lifecycle.LiveData;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tw.dh46.codelab.roomsample.database.DatabaseExecutors;
+import tw.dh46.codelab.roomsample.database.Word;
+import tw.dh46.codelab.roomsample.database.WordDao;
+import tw.dh46.codelab.roomsample.database.WordRoomDatabase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * WordRepository的刪除與復原 (使用正式的檔案DB與DatabaseExecutors)
+ * - 包含其他來源的寫入之後，已知存在的單字索引不會略過重新寫入，字母索引會重新查詢。
+ * - 使用一般的Application，不跑WordApplication的預熱，避免與測試同時開啟同一個資料庫。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = Application.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class WordRepositoryDeleteTest {
+
+    private static final String DATABASE_NAME = "word_database";
+
+    private Application mApplication;
+    private WordDao mWordDao;
+    private WordRepository mRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        mApplication = ApplicationProvider.getApplicationContext();
+        resetSingleton();
+        mApplication.deleteDatabase(DATABASE_NAME);
+        mWordDao = WordRoomDatabase.getDatabase(mApplication).wordDao();
+        mRepository = new WordRepository(mApplication);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRepository.close();
+        // close()在寫入緒上收尾，等它做完再關閉資料庫
+        DatabaseExecutors.get().writer().submit(() -> { }).get();
+        WordRoomDatabase db = resetSingleton();
+        if (db != null) {
+            db.close();
+        }
+        mApplication.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void deleteWords_moreThanBindLimit_deletesEveryChunk() throws Exception {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            words.add(String.format(Locale.US, "w%05d", i));
+        }
+        insert(words);
+        int before = count();
+
+        List<String> toDelete = new ArrayList<>(words.subList(0, 2100));
+        toDelete.add("not-a-word");
+        List<Word> deleted = delete(callback -> mRepository.deleteWords(toDelete, callback));
+
+        assertEquals(2100, deleted.size());
+        assertEquals(before - 2100, count());
+        assertTrue(find(words.subList(0, 2100)).isEmpty());
+        assertEquals(400, find(words.subList(2100, 2500)).size());
+    }
+
+    @Test
+    public void deletePrefix_thenRestore_keepsIds() throws Exception {
+        insert(Arrays.asList("apple", "apricot", "banana", "Apple"));
+        Map<String, Long> ids = ids(find(Arrays.asList("apple", "apricot", "banana", "Apple")));
+
+        List<Word> deleted = delete(callback -> mRepository.deletePrefix("ap", callback));
+
+        assertEquals(2, deleted.size());
+        // 區分大小寫，與列表的排序一致
+        assertEquals(2, find(Arrays.asList("apple", "apricot", "banana", "Apple")).size());
+
+        AtomicReference<Integer> restored = new AtomicReference<>();
+        mRepository.restoreWords(deleted, restored::set);
+        await(restored);
+
+        assertEquals(ids, ids(find(Arrays.asList("apple", "apricot", "banana", "Apple"))));
+    }
+
+    @Test
+    public void insertAgain_afterExternalDelete_isNotSkipped() throws Exception {
+        insert(Collections.singletonList("apple"));
+        // 已知存在的單字直接略過
+        assertEquals(0, insertAll(Collections.singletonList("apple")));
+
+        // 其他process的刪除 (另一個連線)，還沒處理異動通知就再寫入
+        execOnOtherConnection("DELETE FROM word_table WHERE word = 'apple'");
+
+        assertEquals(1, insertAll(Collections.singletonList("apple")));
+        assertEquals(1, find(Collections.singletonList("apple")).size());
+    }
+
+    @Test
+    public void sectionIndex_reloadsAfterExternalWrite() throws Exception {
+        LiveData<WordSectionIndex> sections = mRepository.getSectionIndex();
+        insert(Arrays.asList("apple", "banana"));
+        awaitTotalCount(sections, 2);
+
+        // 其他連線的寫入不會通知這個process，下一次自己寫入時才發現
+        execOnOtherConnection("INSERT INTO word_table (word) VALUES ('cherry')");
+        insert(Collections.singletonList("date"));
+
+        awaitTotalCount(sections, 4);
+        assertEquals(1, sections.getValue().getCountForSection(
+                sections.getValue().getSectionForWord("cherry")));
+    }
+
+    private interface DeleteCall {
+        void run(WordRepository.DeleteCallback callback);
+    }
+
+    private List<Word> delete(DeleteCall call) {
+        AtomicReference<List<Word>> result = new AtomicReference<>();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        call.run(new WordRepository.DeleteCallback() {
+            @Override
+            public void onComplete(List<Word> deleted) {
+                result.set(deleted);
+            }
+
+            @Override
+            public void onFailure(RuntimeException error, List<Word> deleted) {
+                failure.set(error);
+                result.set(deleted);
+            }
+        });
+        await(result);
+        if (failure.get() != null) {
+            throw new AssertionError("delete failed", failure.get());
+        }
+        return result.get();
+    }
+
+    private void insert(List<String> words) {
+        assertEquals(words.size(), insertAll(words));
+    }
+
+    /**
+     * @return 實際新增的筆數
+     */
+    private int insertAll(List<String> words) {
+        List<Word> rows = new ArrayList<>(words.size());
+        for (String word : words) {
+            rows.add(new Word(word));
+        }
+        AtomicReference<Integer> inserted = new AtomicReference<>();
+        mRepository.insertAll(rows, inserted::set);
+        await(inserted);
+        return inserted.get();
+    }
+
+    /**
+     * Room不允許在主執行緒存取DB，查詢在寫入緒執行 (也會排在前面的寫入之後)
+     */
+    private List<Word> find(List<String> words) throws Exception {
+        return DatabaseExecutors.get().writer().submit(() -> mWordDao.findWords(words)).get();
+    }
+
+    private int count() throws Exception {
+        return DatabaseExecutors.get().writer().submit(() -> mWordDao.countWords()).get();
+    }
+
+    private static Map<String, Long> ids(List<Word> words) {
+        Map<String, Long> ids = new HashMap<>();
+        for (Word word : words) {
+            ids.put(word.getWord(), word.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * 代替其他process的寫入: data_version只看連線，不看process
+     */
+    private void execOnOtherConnection(String sql) {
+        SQLiteDatabase other = SQLiteDatabase.openDatabase(
+                mApplication.getDatabasePath(DATABASE_NAME).getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            other.execSQL(sql);
+        } finally {
+            other.close();
+        }
+    }
+
+    private static void awaitTotalCount(LiveData<WordSectionIndex> sections, int count) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (sections.getValue() == null || sections.getValue().getTotalCount() != count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("section index: " + sections.getValue());
+            }
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.yield();
+        }
+    }
+
+    /**
+     * callback會post到主執行緒，需要手動執行main looper
+     */
+    private static void await(AtomicReference<?> result) {
+        while (result.get() == null) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.yield();
+        }
+    }
+
+    /**
+     * 清掉其他測試留下的Singleton，每次都開啟新的資料庫
+     * @return 原本的實體
+     */
+    private static WordRoomDatabase resetSingleton() throws Exception {
+        Field field = WordRoomDatabase.class.getDeclaredField("INSTANCE");
+        field.setAccessible(true);
+        WordRoomDatabase db = (WordRoomDatabase) field.get(null);
+        field.set(null, null);
+        return db;
+    }
+}
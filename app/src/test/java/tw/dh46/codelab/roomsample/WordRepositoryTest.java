@@ -0,0 +1,134 @@
+package tw.dh46.codelab.roomsample;
+
+import org.junit.Test;
+
+import io.reactivex.subscribers.TestSubscriber;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import tw.dh46.codelab.roomsample.database.Word;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNull;
+
+/**
+ * WordRepository中不需要資料庫的邏輯
+ */
+public class WordRepositoryTest {
+
+    @Test
+    public void toPrefixMatch_eachTokenBecomesPrefix() {
+        assertEquals("app*", WordRepository.toPrefixMatch("app"));
+        assertEquals("big* app*", WordRepository.toPrefixMatch("  big   app "));
+    }
+
+    @Test
+    public void toPrefixMatch_dropsFtsSyntax() {
+        assertEquals("a* b*", WordRepository.toPrefixMatch("\"a\" -b*"));
+        assertNull(WordRepository.toPrefixMatch(" :()* "));
+    }
+
+    @Test
+    public void swapFirstCase_onlyChangesFirstCharacter() {
+        assertEquals("App", WordRepository.swapFirstCase("app"));
+        assertEquals("aPP", WordRepository.swapFirstCase("APP"));
+        assertEquals("9lives", WordRepository.swapFirstCase("9lives"));
+        assertEquals("\u4e2d\u6587", WordRepository.swapFirstCase("\u4e2d\u6587"));
+    }
+
+    @Test
+    public void chunk_splitsUnderLimit() {
+        List<List<Integer>> chunks = WordRepository.chunk(Arrays.asList(1, 2, 3, 4, 5), 2);
+        assertEquals(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3, 4),
+                Collections.singletonList(5)), chunks);
+        assertTrue(WordRepository.chunk(Collections.emptyList(), 999).isEmpty());
+    }
+
+    @Test
+    public void prefixUpperBound_incrementsLastCodePoint() {
+        assertEquals("ap", WordRepository.prefixUpperBound("ao"));
+        assertEquals("\uE000", WordRepository.prefixUpperBound("\uD7FF"));
+        // 補充平面的字元要以code point加1，而不是只加在low surrogate上
+        assertEquals(new String(Character.toChars(0x1F601)),
+                WordRepository.prefixUpperBound(new String(Character.toChars(0x1F600))));
+        assertEquals("b", WordRepository.prefixUpperBound(
+                "a" + new String(Character.toChars(Character.MAX_CODE_POINT))));
+        assertNull(WordRepository.prefixUpperBound(""));
+    }
+
+    @Test
+    public void pages_loadsOnlyWhenRequested() {
+        FakePageLoader loader = new FakePageLoader("a", "b", "c", "d", "e");
+        TestSubscriber<List<Word>> subscriber = WordRepository.pages(loader, 2).test(0);
+        assertEquals(0, loader.loads);
+
+        subscriber.request(1);
+        subscriber.assertValueCount(1).assertNotComplete();
+        assertEquals(1, loader.loads);
+
+        subscriber.request(Long.MAX_VALUE);
+        subscriber.assertValueCount(3).assertComplete();
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), words(subscriber.values()));
+    }
+
+    @Test
+    public void pages_fullLastPage_completesOnEmptyPage() {
+        FakePageLoader loader = new FakePageLoader("a", "b", "c", "d");
+
+        TestSubscriber<List<Word>> subscriber = WordRepository.pages(loader, 2).test();
+
+        subscriber.assertValueCount(2).assertComplete();
+        assertEquals(3, loader.loads);
+    }
+
+    @Test
+    public void pages_cancelled_stopsLoading() {
+        FakePageLoader loader = new FakePageLoader("a", "b", "c", "d", "e");
+        TestSubscriber<List<Word>> subscriber = WordRepository.pages(loader, 2).test(1);
+
+        subscriber.cancel();
+        subscriber.request(Long.MAX_VALUE);
+
+        subscriber.assertValueCount(1);
+        assertEquals(1, loader.loads);
+    }
+
+    private static List<String> words(List<List<Word>> pages) {
+        List<String> words = new ArrayList<>();
+        for (List<Word> page : pages) {
+            for (Word word : page) {
+                words.add(word.getWord());
+            }
+        }
+        return words;
+    }
+
+    /**
+     * 以排序好的單字模擬keyset分頁查詢
+     */
+    private static class FakePageLoader implements WordRepository.PageLoader {
+
+        private final List<String> mWords;
+        int loads;
+
+        FakePageLoader(String... words) {
+            mWords = Arrays.asList(words);
+        }
+
+        @Override
+        public List<Word> load(String afterKey, int limit) {
+            loads++;
+            List<Word> page = new ArrayList<>();
+            for (String word : mWords) {
+                if ((afterKey == null || word.compareTo(afterKey) > 0) && page.size() < limit) {
+                    page.add(new Word(word));
+                }
+            }
+            return page;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package tw.dh46.codelab.roomsample;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import tw.dh46.codelab.roomsample.database.SectionCount;
+import tw.dh46.codelab.roomsample.database.Word;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WordSectionIndex: 前綴和與增量更新
+ */
+public class WordSectionIndexTest {
+
+    private static final String EMOJI = new String(Character.toChars(0x1F600));
+
+    private final WordSectionIndex mIndex = WordSectionIndex.from(Arrays.asList(
+            new SectionCount("A", 2), new SectionCount("b", 3), new SectionCount("c", 1)));
+
+    @Test
+    public void compareBinary_matchesSqliteBinaryCollation() {
+        // U+1F600(surrogate pair)在UTF-8中排在U+FF01之後；String.compareTo則相反
+        assertTrue(WordSectionIndex.compareBinary("！", EMOJI) < 0);
+        assertTrue(WordSectionIndex.compareBinary("B", "a") < 0);
+        assertTrue(WordSectionIndex.compareBinary("app", "apple") < 0);
+    }
+
+    @Test
+    public void from_computesOffsets() {
+        assertEquals(3, mIndex.getSectionCount());
+        assertEquals(0, mIndex.getPositionForSection(0));
+        assertEquals(2, mIndex.getPositionForSection(1));
+        assertEquals(5, mIndex.getPositionForSection(2));
+        assertEquals(6, mIndex.getTotalCount());
+    }
+
+    @Test
+    public void getSectionForPosition_findsContainingSection() {
+        assertEquals(0, mIndex.getSectionForPosition(0));
+        assertEquals(0, mIndex.getSectionForPosition(1));
+        assertEquals(1, mIndex.getSectionForPosition(2));
+        assertEquals(1, mIndex.getSectionForPosition(4));
+        assertEquals(2, mIndex.getSectionForPosition(5));
+        // 超出範圍時是最接近的section
+        assertEquals(2, mIndex.getSectionForPosition(100));
+        assertEquals(-1, WordSectionIndex.EMPTY.getSectionForPosition(0));
+    }
+
+    @Test
+    public void withChanges_updatesCountsAndSections() {
+        WordSectionIndex updated = mIndex.withChanges(Arrays.asList(
+                inserted(10, "apple"),
+                inserted(11, "banana"),
+                deleted(3, "cherry"),
+                inserted(12, EMOJI + "smile")));
+
+        assertEquals(4, updated.getSectionCount());
+        assertEquals("A", updated.getSection(0));
+        assertEquals("a", updated.getSection(1));
+        assertEquals("b", updated.getSection(2));
+        assertEquals(EMOJI, updated.getSection(3));
+        assertEquals(4, updated.getCountForSection(2));
+        assertEquals(3, updated.getPositionForSection(2));
+        assertEquals(8, updated.getTotalCount());
+        // 原本的索引不變
+        assertEquals(6, mIndex.getTotalCount());
+    }
+
+    @Test
+    public void withChanges_noChanges_returnsSameIndex() {
+        assertSame(mIndex, mIndex.withChanges(Collections.emptyList()));
+    }
+
+    @Test
+    public void getSectionForWord_usesFirstCodePoint() {
+        assertEquals(1, mIndex.getSectionForWord("banana"));
+        assertEquals(-2, mIndex.getSectionForWord("apple"));
+        assertEquals(EMOJI, WordSectionIndex.sectionOf(EMOJI + "smile"));
+        assertEquals("", WordSectionIndex.sectionOf(""));
+    }
+
+    private static WordChange inserted(long id, String text) {
+        return WordChange.inserted(word(id, text));
+    }
+
+    private static WordChange deleted(long id, String text) {
+        return WordChange.deleted(word(id, text));
+    }
+
+    private static Word word(long id, String text) {
+        Word word = new Word(text);
+        word.setId(id);
+        return word;
+    }
+}
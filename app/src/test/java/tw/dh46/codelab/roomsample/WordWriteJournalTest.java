@@ -0,0 +1,355 @@
+package tw.dh46.codelab.roomsample;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import tw.dh46.codelab.roomsample.database.Word;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * WordWriteJournal的記錄與重新載入
+ * - 直接建立的WordWriteJournal代表一個process，close()後沒有commit的segment會留下，
+ * 等同process在寫入資料庫前被終止。
+ */
+public class WordWriteJournalTest {
+
+    private final Executor mDirectExecutor = Runnable::run;
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("word-journal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void uncommittedWords_areRecoveredAfterRestart() {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        WordWriteJournal.Stream stream = journal.openStream();
+        stream.append(Arrays.asList(word("apple", 0), word("蘋果", 7)));
+        stream.append(Arrays.asList(word("banana", 0)));
+        journal.close();
+
+        WordWriteJournal restarted = new WordWriteJournal(mDir);
+        WordWriteJournal.Checkpoint checkpoint = restarted.openStream().checkpoint().await();
+        List<Word> recovered = checkpoint.readRecovered();
+
+        assertEquals(Arrays.asList("apple", "蘋果", "banana"), texts(recovered));
+        assertEquals(7, recovered.get(1).getId());
+        assertNull(checkpoint.getError());
+        restarted.close();
+    }
+
+    @Test
+    public void recoveredWords_goToTheFirstStreamOnly() {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        journal.openStream().append(Arrays.asList(word("apple", 0)));
+        journal.close();
+
+        WordWriteJournal restarted = new WordWriteJournal(mDir);
+        WordWriteJournal.Stream first = restarted.openStream();
+        WordWriteJournal.Stream second = restarted.openStream();
+
+        assertTrue(second.checkpoint().await().readRecovered().isEmpty());
+        assertEquals(Arrays.asList("apple"), texts(first.checkpoint().await().readRecovered()));
+        // 只讀取一次
+        assertTrue(first.checkpoint().await().readRecovered().isEmpty());
+        restarted.close();
+    }
+
+    @Test
+    public void tornLastRecord_isSkipped() throws IOException {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        journal.openStream().append(Arrays.asList(word("apple", 0), word("banana", 0)));
+        journal.close();
+        // 模擬寫到一半時被終止: 截掉最後一筆的CRC
+        File segment = segments()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 2);
+        }
+
+        List<Word> recovered = new ArrayList<>();
+        WordWriteJournal.read(segment, recovered);
+
+        assertEquals(Arrays.asList("apple"), texts(recovered));
+    }
+
+    @Test
+    public void corruptedRecord_stopsReading() throws IOException {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        journal.openStream().append(Arrays.asList(word("apple", 0), word("banana", 0)));
+        journal.close();
+        File segment = segments()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // 第一筆單字的第一個byte (長度4 + id 8之後)
+            file.seek(12);
+            file.write('X');
+        }
+
+        List<Word> recovered = new ArrayList<>();
+        WordWriteJournal.read(segment, recovered);
+
+        assertTrue(recovered.isEmpty());
+    }
+
+    @Test
+    public void committedCheckpoint_deletesSegments() {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        WordWriteJournal.Stream stream = journal.openStream();
+        stream.append(Arrays.asList(word("apple", 0)));
+        WordWriteJournal.PendingCheckpoint pending = stream.checkpoint();
+        // checkpoint之後的單字不在這次的checkpoint裡
+        stream.append(Arrays.asList(word("banana", 0)));
+        stream.commit(pending.await());
+        journal.close();
+
+        WordWriteJournal restarted = new WordWriteJournal(mDir);
+        assertEquals(Arrays.asList("banana"),
+                texts(restarted.openStream().checkpoint().await().readRecovered()));
+        restarted.close();
+    }
+
+    @Test
+    public void streamsSharingAJournal_commitOnlyTheirOwnSegments() {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        WordWriteJournal.Stream first = journal.openStream();
+        WordWriteJournal.Stream second = journal.openStream();
+        first.append(Arrays.asList(word("apple", 0)));
+        second.append(Arrays.asList(word("banana", 0)));
+        first.commit(first.checkpoint().await());
+        journal.close();
+
+        WordWriteJournal restarted = new WordWriteJournal(mDir);
+        assertEquals(Arrays.asList("banana"),
+                texts(restarted.openStream().checkpoint().await().readRecovered()));
+        restarted.close();
+    }
+
+    @Test
+    public void closedStream_deletesItsEmptySegment() {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        WordWriteJournal.Stream stream = journal.openStream();
+        stream.commit(stream.checkpoint().await());
+        stream.close();
+        // close()排在佇列中，等它執行完
+        journal.close();
+
+        assertEquals(0, segments().length);
+    }
+
+    @Test
+    public void lockedByAnotherJournal_reportsNotJournaled() {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        // 等開啟完成，拿到檔案鎖
+        journal.openStream().checkpoint().await();
+        WordWriteJournal other = new WordWriteJournal(mDir);
+        WordWriteJournal.Stream stream = other.openStream();
+
+        stream.append(Arrays.asList(word("apple", 0)));
+        WordWriteJournal.Checkpoint checkpoint = stream.checkpoint().await();
+
+        assertNotNull(checkpoint.getError());
+        // 錯誤只回報給那段期間的單字
+        assertNull(stream.checkpoint().await().getError());
+        other.close();
+        journal.close();
+    }
+
+    @Test
+    public void appendBeforeOpen_isJournaled() {
+        // 建立後立刻append: 開啟在日誌執行緒進行，append排在開啟之後
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        journal.openStream().append(Arrays.asList(word("apple", 0)));
+        journal.close();
+
+        WordWriteJournal restarted = new WordWriteJournal(mDir);
+        assertEquals(Arrays.asList("apple"),
+                texts(restarted.openStream().checkpoint().await().readRecovered()));
+        restarted.close();
+    }
+
+    @Test
+    public void appendWhileOpening_isNotDropped() {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        WordWriteJournal.Stream stream = journal.openStream();
+        // 日誌執行緒還在開啟時就append，不會等待也不會丟失
+        for (int i = 0; i < 1000; i++) {
+            stream.append(Arrays.asList(word("w" + i, 0)));
+        }
+        journal.close();
+
+        WordWriteJournal restarted = new WordWriteJournal(mDir);
+        assertEquals(1000, restarted.openStream().checkpoint().await().readRecovered().size());
+        restarted.close();
+    }
+
+    @Test
+    public void failedWrite_isDroppedAfterReportingFailure() {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        WordInsertBatcher failing = new WordInsertBatcher(words -> {
+            throw new IllegalStateException("killed");
+        }, mDirectExecutor, mDirectExecutor, journal.openStream());
+        failing.recover();
+        RuntimeException[] failure = new RuntimeException[1];
+        failing.enqueue(Arrays.asList(word("apple", 0), word("banana", 0)), new WordRepository.InsertCallback() {
+            @Override
+            public void onComplete(int insertedCount) {
+                fail();
+            }
+
+            @Override
+            public void onFailure(RuntimeException error) {
+                failure[0] = error;
+            }
+        });
+        assertTrue(failure[0] instanceof IllegalStateException);
+        journal.close();
+
+        // 失敗已經回報給呼叫端，下次啟動不會再寫入 (可能在這之間被刪除)
+        List<String> written = new ArrayList<>();
+        WordWriteJournal restarted = new WordWriteJournal(mDir);
+        WordInsertBatcher batcher = new WordInsertBatcher(words -> {
+            List<Long> rowIds = new ArrayList<>(words.size());
+            for (Word word : words) {
+                written.add(word.getWord());
+                rowIds.add((long) written.size());
+            }
+            return rowIds;
+        }, mDirectExecutor, mDirectExecutor, restarted.openStream());
+        batcher.recover();
+
+        assertTrue(written.isEmpty());
+        // 只剩下目前(空的)segment
+        assertEquals(1, segments().length);
+        assertEquals(0, segments()[0].length());
+        restarted.close();
+    }
+
+    @Test
+    public void uncommittedWords_areReplayedByNextBatcher() {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        WordInsertBatcher stalled = new WordInsertBatcher(words -> {
+            throw new AssertionError("not written before the process dies");
+        }, command -> { }, mDirectExecutor, journal.openStream());
+        stalled.enqueue(Arrays.asList(word("apple", 0), word("banana", 0)), null);
+        journal.close();
+
+        List<String> written = new ArrayList<>();
+        WordWriteJournal restarted = new WordWriteJournal(mDir);
+        WordInsertBatcher batcher = new WordInsertBatcher(words -> {
+            List<Long> rowIds = new ArrayList<>(words.size());
+            for (Word word : words) {
+                written.add(word.getWord());
+                rowIds.add((long) written.size());
+            }
+            return rowIds;
+        }, mDirectExecutor, mDirectExecutor, restarted.openStream());
+        batcher.recover();
+
+        assertEquals(Arrays.asList("apple", "banana"), written);
+        restarted.close();
+    }
+
+    @Test
+    public void journalUnavailable_isReportedToCallbacks() {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        journal.openStream().checkpoint().await();
+        WordWriteJournal other = new WordWriteJournal(mDir);
+        WordInsertBatcher batcher = new WordInsertBatcher(words -> {
+            List<Long> rowIds = new ArrayList<>(words.size());
+            for (int i = 0; i < words.size(); i++) {
+                rowIds.add((long) i + 1);
+            }
+            return rowIds;
+        }, mDirectExecutor, mDirectExecutor, other.openStream());
+        List<String> events = new ArrayList<>();
+
+        batcher.enqueue(Arrays.asList(word("apple", 0)), new WordRepository.InsertCallback() {
+            @Override
+            public void onComplete(int insertedCount) {
+                events.add("complete " + insertedCount);
+            }
+
+            @Override
+            public void onNotJournaled(IOException error) {
+                events.add("notJournaled");
+            }
+        });
+
+        // 一樣寫入資料庫，但先告知沒有日誌保護
+        assertEquals(Arrays.asList("notJournaled", "complete 1"), events);
+        other.close();
+        journal.close();
+    }
+
+    @Test
+    public void failedWrite_isCommittedByNextSuccessfulDrain() {
+        WordWriteJournal journal = new WordWriteJournal(mDir);
+        boolean[] failNext = {true};
+        WordInsertBatcher batcher = new WordInsertBatcher(words -> {
+            if (failNext[0]) {
+                failNext[0] = false;
+                throw new IllegalStateException("disk full");
+            }
+            List<Long> rowIds = new ArrayList<>(words.size());
+            for (int i = 0; i < words.size(); i++) {
+                rowIds.add((long) i + 1);
+            }
+            return rowIds;
+        }, mDirectExecutor, mDirectExecutor, journal.openStream());
+        batcher.recover();
+        batcher.enqueue(Arrays.asList(word("apple", 0)), null);
+        batcher.enqueue(Arrays.asList(word("banana", 0)), null);
+        journal.close();
+
+        WordWriteJournal restarted = new WordWriteJournal(mDir);
+        assertTrue(restarted.openStream().checkpoint().await().readRecovered().isEmpty());
+        restarted.close();
+    }
+
+    private File[] segments() {
+        File[] files = mDir.listFiles((dir, name) -> name.endsWith(".journal"));
+        assertNotNull(files);
+        return files;
+    }
+
+    private static Word word(String text, long id) {
+        Word word = new Word(text);
+        word.setId(id);
+        return word;
+    }
+
+    private static List<String> texts(List<Word> words) {
+        List<String> texts = new ArrayList<>(words.size());
+        for (Word word : words) {
+            texts.add(word.getWord());
+        }
+        return texts;
+    }
+}
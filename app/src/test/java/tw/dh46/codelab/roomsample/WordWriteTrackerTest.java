@@ -0,0 +1,139 @@
+package tw.dh46.codelab.roomsample;
+
+import android.app.Application;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tw.dh46.codelab.roomsample.database.DatabaseExecutors;
+import tw.dh46.codelab.roomsample.database.Word;
+import tw.dh46.codelab.roomsample.database.WordRoomDatabase;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * WordWriteTracker分辨自己的寫入與其他來源的寫入 (使用正式的檔案DB與寫入緒)
+ * - 其他process以另一個連線代替: data_version只看連線，不看process。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = Application.class)
+public class WordWriteTrackerTest {
+
+    private static final String DATABASE_NAME = "word_database";
+
+    private Application mApplication;
+    private WordRoomDatabase mDatabase;
+    private final AtomicInteger mExternal = new AtomicInteger();
+    private WordWriteTracker mTracker;
+
+    @Before
+    public void setUp() throws Exception {
+        mApplication = ApplicationProvider.getApplicationContext();
+        resetSingleton();
+        mApplication.deleteDatabase(DATABASE_NAME);
+        mDatabase = WordRoomDatabase.getDatabase(mApplication);
+        mTracker = new WordWriteTracker(mDatabase, mExternal::incrementAndGet);
+        // 第一次一定視為其他來源 (還沒有同步點)
+        onWriter(() -> {
+            mTracker.sync();
+            return null;
+        });
+        mExternal.set(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        WordRoomDatabase db = resetSingleton();
+        if (db != null) {
+            db.close();
+        }
+        mApplication.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void ownWrites_areNotExternal() throws Exception {
+        onWriter(() -> {
+            mTracker.write(() -> mDatabase.wordDao().insertAll(words("apple")));
+            mTracker.write(() -> mDatabase.wordDao().insertAll(words("banana")));
+            mTracker.sync();
+            return null;
+        });
+        assertEquals(0, mExternal.get());
+    }
+
+    @Test
+    public void otherWriterInProcess_isExternal() throws Exception {
+        WordWriteTracker other = new WordWriteTracker(mDatabase, () -> { });
+        onWriter(() -> {
+            other.write(() -> mDatabase.wordDao().insertAll(words("apple")));
+            mTracker.sync();
+            return null;
+        });
+        assertEquals(1, mExternal.get());
+
+        // 確認過一次之後，回到只有自己的寫入
+        onWriter(() -> {
+            mTracker.write(() -> mDatabase.wordDao().insertAll(words("banana")));
+            mTracker.sync();
+            return null;
+        });
+        assertEquals(1, mExternal.get());
+    }
+
+    @Test
+    public void otherConnection_isExternal_beforeOwnWrite() throws Exception {
+        SQLiteDatabase other = SQLiteDatabase.openDatabase(
+                mApplication.getDatabasePath(DATABASE_NAME).getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            other.execSQL("INSERT INTO word_table (word) VALUES ('apple')");
+        } finally {
+            other.close();
+        }
+        // 自己寫入之前就要通知，寫入時用到的記憶體狀態已經清掉
+        int[] externalBeforeWrite = new int[1];
+        onWriter(() -> mTracker.write(() -> {
+            externalBeforeWrite[0] = mExternal.get();
+            return mDatabase.wordDao().insertAll(words("banana"));
+        }));
+        assertEquals(1, externalBeforeWrite[0]);
+
+        onWriter(() -> {
+            mTracker.sync();
+            return null;
+        });
+        assertEquals(1, mExternal.get());
+    }
+
+    private static List<Word> words(String word) {
+        return Collections.singletonList(new Word(word));
+    }
+
+    private static <T> T onWriter(Callable<T> callable) throws Exception {
+        return DatabaseExecutors.get().writer().submit(callable).get();
+    }
+
+    /**
+     * 清掉其他測試留下的Singleton，每次都開啟新的資料庫
+     * @return 原本的實體
+     */
+    private static WordRoomDatabase resetSingleton() throws Exception {
+        Field field = WordRoomDatabase.class.getDeclaredField("INSTANCE");
+        field.setAccessible(true);
+        WordRoomDatabase db = (WordRoomDatabase) field.get(null);
+        field.set(null, null);
+        return db;
+    }
+}
@@ -0,0 +1,119 @@
+package tw.dh46.codelab.roomsample.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 簡易的JVM benchmark工具
+ * - 先暖身(warmup)再量測，每次呼叫各自計時，算出平均、p50、p99與吞吐量。
+ * - 透過HotSpot的ThreadMXBean取得目前執行緒配置的記憶體，換算成每次操作的配置量。
+ *
+ * 要量測的列數由system property "benchmark.rows"指定 (逗號分隔)，見rowCounts()。
+ */
+public final class Benchmark {
+
+    /**
+     * 被量測的操作
+     */
+    public interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    private Benchmark() {
+    }
+
+    /**
+     * @return 要量測的資料表大小，預設1k與100k，1M可由-PbenchmarkRows指定
+     */
+    public static int[] rowCounts() {
+        String property = System.getProperty("benchmark.rows", "1000,100000");
+        return Arrays.stream(property.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .mapToInt(Integer::parseInt)
+                .toArray();
+    }
+
+    public static Result measure(String name, int rows, int warmup, int iterations,
+                                 Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run(i);
+        }
+
+        long[] durations = new long[iterations];
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long operationStart = System.nanoTime();
+            operation.run(warmup + i);
+            durations[i] = System.nanoTime() - operationStart;
+        }
+        long total = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        Arrays.sort(durations);
+        return new Result(name, rows, iterations, total,
+                percentile(durations, 50), percentile(durations, 99),
+                allocated < 0 ? -1 : allocated / iterations);
+    }
+
+    /**
+     * @return 目前執行緒累計配置的記憶體，JVM不支援時回傳-1
+     */
+    public static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    /**
+     * 單一量測結果
+     */
+    public static class Result {
+        public final String name;
+        public final int rows;
+        public final int iterations;
+        public final long totalNanos;
+        public final long p50Nanos;
+        public final long p99Nanos;
+        // JVM不支援時為-1
+        public final long allocatedBytesPerOp;
+
+        public Result(String name, int rows, int iterations, long totalNanos,
+                      long p50Nanos, long p99Nanos, long allocatedBytesPerOp) {
+            this.name = name;
+            this.rows = rows;
+            this.iterations = iterations;
+            this.totalNanos = totalNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.allocatedBytesPerOp = allocatedBytesPerOp;
+        }
+
+        public double getMeanNanos() {
+            return (double) totalNanos / iterations;
+        }
+
+        public double getOpsPerSecond() {
+            return iterations * 1e9 / totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%-32s rows=%-8d ops/s=%12.1f mean=%10.3fms p50=%10.3fms p99=%10.3fms alloc/op=%d",
+                    name, rows, getOpsPerSecond(), getMeanNanos() / 1e6,
+                    p50Nanos / 1e6, p99Nanos / 1e6, allocatedBytesPerOp);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package tw.dh46.codelab.roomsample.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 收集Benchmark.Result並輸出成JSON檔，方便CI比較前後的數據
+ * - 輸出目錄由system property "benchmark.reportDir"指定 (build.gradle預設為 build/reports/benchmarks)
+ * - 每個benchmark類別一個檔案: &lt;名稱&gt;.json
+ */
+public class BenchmarkReport {
+
+    private final String mName;
+    private final List<Benchmark.Result> mResults = new ArrayList<>();
+    // 不是計時的數值，例如資料庫大小
+    private final List<String> mValues = new ArrayList<>();
+
+    public BenchmarkReport(String name) {
+        mName = name;
+    }
+
+    public void add(Benchmark.Result result) {
+        System.out.println(mName + ": " + result);
+        mResults.add(result);
+    }
+
+    /**
+     * 記錄一個單一的數值 (例如資料庫大小)
+     * @param name
+     * @param rows
+     * @param unit 單位，例如 "bytes"
+     * @param value
+     */
+    public void addValue(String name, int rows, String unit, long value) {
+        System.out.println(String.format(Locale.US, "%s: %-32s rows=%-8d %d %s",
+                mName, name, rows, value, unit));
+        mValues.add(String.format(Locale.US,
+                "    {\"name\": \"%s\", \"rows\": %d, \"unit\": \"%s\", \"value\": %d}",
+                name, rows, unit, value));
+    }
+
+    /**
+     * 寫入JSON檔
+     * @return 輸出的檔案
+     */
+    public File write() throws IOException {
+        File dir = new File(System.getProperty("benchmark.reportDir", "build/reports/benchmarks"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        File file = new File(dir, mName + ".json");
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(toJson());
+        }
+        return file;
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"benchmark\": \"").append(mName).append("\",\n")
+                .append("  \"jvm\": \"").append(System.getProperty("java.vm.name"))
+                .append(' ').append(System.getProperty("java.version")).append("\",\n")
+                .append("  \"results\": [");
+        for (int i = 0; i < mResults.size(); i++) {
+            Benchmark.Result result = mResults.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append(String.format(Locale.US,
+                    "    {\"name\": \"%s\", \"rows\": %d, \"iterations\": %d, "
+                            + "\"opsPerSecond\": %.3f, \"meanNanos\": %.1f, \"p50Nanos\": %d, "
+                            + "\"p99Nanos\": %d, \"allocatedBytesPerOp\": %d}",
+                    result.name, result.rows, result.iterations, result.getOpsPerSecond(),
+                    result.getMeanNanos(), result.p50Nanos, result.p99Nanos,
+                    result.allocatedBytesPerOp));
+        }
+        json.append("\n  ],\n  \"values\": [");
+        for (int i = 0; i < mValues.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n").append(mValues.get(i));
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+}
@@ -0,0 +1,220 @@
+package tw.dh46.codelab.roomsample.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * InstrumentedExecutor的backpressure、執行緒命名與指標
+ */
+public class InstrumentedExecutorTest {
+
+    private InstrumentedExecutor mExecutor;
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        mExecutor = new InstrumentedExecutor("test-db", 1, 2, 50);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mRelease.countDown();
+        mExecutor.shutdown();
+        mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void threadsAreNamed() throws InterruptedException {
+        String[] name = new String[1];
+        CountDownLatch done = new CountDownLatch(1);
+        mExecutor.execute(() -> {
+            name[0] = Thread.currentThread().getName();
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("test-db-1", name[0]);
+    }
+
+    @Test
+    public void fullQueue_spillsToOverflowAfterTimeout() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        mExecutor.execute(() -> {
+            started.countDown();
+            awaitRelease();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // 佇列容量為2
+        CountDownLatch done = new CountDownLatch(3);
+        mExecutor.execute(done::countDown);
+        mExecutor.execute(done::countDown);
+
+        long start = System.nanoTime();
+        mExecutor.execute(done::countDown);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        InstrumentedExecutor.Metrics metrics = mExecutor.getMetrics();
+        assertEquals(1, metrics.timedOutCount);
+        assertEquals(1, metrics.overflowCount);
+        assertEquals(0, metrics.rejectedCount);
+        assertEquals(2, metrics.maxQueueDepth);
+
+        mRelease.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fullQueue_waitingCallerIsWokenWhenSpaceFrees() throws InterruptedException {
+        InstrumentedExecutor executor = new InstrumentedExecutor("test-wait", 1, 1, 5000);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            executor.execute(() -> {
+                started.countDown();
+                awaitRelease();
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            CountDownLatch done = new CountDownLatch(2);
+            executor.execute(done::countDown);
+
+            new Thread(() -> {
+                sleep(50);
+                mRelease.countDown();
+            }).start();
+            long start = System.nanoTime();
+            executor.execute(done::countDown);
+            // 不用等到逾時
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2500));
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(0, executor.getMetrics().timedOutCount);
+            assertEquals(0, executor.getMetrics().overflowCount);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void fullQueue_doesNotBlockOwnWorker() throws InterruptedException {
+        InstrumentedExecutor executor = new InstrumentedExecutor("test-self", 1, 1, 5000);
+        try {
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(3);
+            long[] elapsed = new long[1];
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                // 唯一的執行緒正在執行這個工作，等佇列空位只會等到逾時
+                for (int i = 0; i < 3; i++) {
+                    int index = i;
+                    executor.execute(() -> {
+                        order.add(index);
+                        done.countDown();
+                    });
+                }
+                elapsed[0] = System.nanoTime() - start;
+            });
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertTrue(elapsed[0] < TimeUnit.MILLISECONDS.toNanos(1000));
+            assertEquals(Arrays.asList(0, 1, 2), order);
+            assertEquals(2, executor.getMetrics().overflowCount);
+            assertEquals(0, executor.getMetrics().timedOutCount);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void afterShutdown_rejects() {
+        mExecutor.shutdown();
+        try {
+            mExecutor.execute(() -> { });
+            fail("expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+            assertEquals(1, mExecutor.getMetrics().rejectedCount);
+        }
+    }
+
+    @Test
+    public void fullQueue_doesNotBlockCallerThatMayNotBlock() throws InterruptedException {
+        InstrumentedExecutor executor = new InstrumentedExecutor("test-main", 1, 1, 5000, () -> false);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            executor.execute(() -> {
+                started.countDown();
+                awaitRelease();
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(3);
+            long start = System.nanoTime();
+            for (int i = 0; i < 3; i++) {
+                int index = i;
+                executor.execute(() -> {
+                    order.add(index);
+                    done.countDown();
+                });
+            }
+            // 佇列容量為1，後兩個放到overflow，不等待也不拒絕
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+            assertEquals(2, executor.getMetrics().overflowCount);
+            assertEquals(0, executor.getMetrics().timedOutCount);
+
+            mRelease.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(0, 1, 2), order);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void metricsAreRecordedPerTag() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(3);
+        mExecutor.execute(InstrumentedExecutor.tagged("WordDao.insertAll", done::countDown));
+        mExecutor.execute(InstrumentedExecutor.tagged("WordDao.insertAll", done::countDown));
+        mExecutor.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+        long insertCount = 0;
+        long untaggedCount = 0;
+        for (InstrumentedExecutor.TaskMetrics task : mExecutor.getMetrics().tasks) {
+            if (task.tag.equals("WordDao.insertAll")) {
+                insertCount = task.count;
+            } else if (task.tag.equals("test-db")) {
+                untaggedCount = task.count;
+            }
+        }
+        assertEquals(2, insertCount);
+        assertEquals(1, untaggedCount);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitRelease() {
+        try {
+            mRelease.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
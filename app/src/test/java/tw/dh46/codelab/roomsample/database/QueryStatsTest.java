@@ -0,0 +1,106 @@
+package tw.dh46.codelab.roomsample.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * QueryStats、LatencyHistogram與InstrumentedDao
+ */
+public class QueryStatsTest {
+
+    interface FakeDao {
+        List<String> load(int count);
+
+        void fail();
+    }
+
+    @Test
+    public void histogram_percentilesAreWithinBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1_000_000); // 1ms
+        }
+        histogram.record(100_000_000); // 100ms
+
+        assertEquals(100, histogram.count());
+        // 1ms (1000微秒)落在[512, 1024)微秒這一組
+        assertEquals(1.024, histogram.percentileMs(50), 1e-9);
+        assertEquals(1.024, histogram.percentileMs(99), 1e-9);
+        assertTrue(histogram.percentileMs(100) >= 100);
+    }
+
+    @Test
+    public void instrumentedDao_recordsMethodAndRows() {
+        List<String> calls = new ArrayList<>();
+        QueryObserver observer = new QueryObserver() {
+            @Override
+            public void onDaoCall(String method, long durationNanos, int rows) {
+                calls.add(method + ":" + rows);
+            }
+
+            @Override
+            public void onSql(String daoMethod, String sql, long durationNanos, int rows) {
+            }
+        };
+        String[] methodDuringCall = new String[1];
+        FakeDao dao = InstrumentedDao.wrap(FakeDao.class, new FakeDao() {
+            @Override
+            public List<String> load(int count) {
+                methodDuringCall[0] = InstrumentedDao.currentMethod();
+                return Collections.nCopies(count, "x");
+            }
+
+            @Override
+            public void fail() {
+                throw new IllegalStateException("boom");
+            }
+        }, observer);
+
+        assertEquals(3, dao.load(3).size());
+        assertEquals("FakeDao.load", methodDuringCall[0]);
+        assertNull(InstrumentedDao.currentMethod());
+        // 原本的例外直接拋出，不會被包成InvocationTargetException
+        boolean thrown = false;
+        try {
+            dao.fail();
+        } catch (IllegalStateException expected) {
+            thrown = true;
+        }
+        assertTrue(thrown);
+        assertEquals(Collections.singletonList("FakeDao.load:3"), calls);
+    }
+
+    @Test
+    public void report_groupsBindListsAndKeepsSlowQueries() {
+        QueryStats stats = new QueryStats(10);
+        stats.onSql("WordDao.deleteWords", "DELETE FROM word_table WHERE word IN (?,?,?)",
+                1_000_000, 3);
+        stats.onSql("WordDao.deleteWords", "DELETE FROM word_table WHERE word IN (?, ?)",
+                20_000_000, 2);
+        stats.onDaoCall("WordDao.deleteWords", 21_000_000, -1);
+
+        String json = stats.toJson(Collections.emptyList());
+        assertTrue(json, json.contains(
+                "{\"key\": \"DELETE FROM word_table WHERE word IN (?...)\", \"count\": 2, \"rows\": 5"));
+        assertTrue(json, json.contains("\"key\": \"WordDao.deleteWords\", \"count\": 1, \"rows\": 0"));
+        // 只有20ms那一筆超過門檻
+        assertTrue(json, json.contains("20.0ms rows=2 dao=WordDao.deleteWords"));
+        assertTrue(json, !json.contains("1.0ms rows=3"));
+
+        stats.reset();
+        assertTrue(stats.toJson(Arrays.asList()).contains("\"dao\": [\n  ]"));
+    }
+
+    @Test
+    public void quote_escapesJson() {
+        assertEquals("\"a\\\"b\\\\c\\u000a\"", QueryStats.quote("a\"b\\c\n"));
+    }
+}
@@ -0,0 +1,138 @@
+package tw.dh46.codelab.roomsample.database;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import tw.dh46.codelab.roomsample.benchmark.Benchmark;
+import tw.dh46.codelab.roomsample.benchmark.BenchmarkReport;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * WordDao在不同資料量下的效能 (在JVM上以Robolectric的SQLite執行)
+ * - 每個資料量各自開一個in-memory DB，查詢與寫入都在測試緒直接執行，
+ * 因此配置量(alloc/op)包含Room與SQLite binding的全部成本。
+ * - 單字以打亂的順序寫入，避免只量到「永遠append在索引尾端」的最佳情況。
+ *
+ * 執行: ./gradlew benchmark [-PbenchmarkRows=1000,100000,1000000]
+ * 結果: app/build/reports/benchmarks/WordDaoBenchmark.json
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class WordDaoBenchmark {
+
+    private static final int INSERT_BATCH = 5000;
+    private static final int PAGE_SIZE = 50;
+
+    // LiveData在同一個執行緒同步送出結果
+    @Rule
+    public InstantTaskExecutorRule mInstantTaskExecutorRule = new InstantTaskExecutorRule();
+
+    @Test
+    public void daoHotPaths() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("WordDaoBenchmark");
+        for (int rows : Benchmark.rowCounts()) {
+            WordRoomDatabase db = Room.inMemoryDatabaseBuilder(
+                    ApplicationProvider.getApplicationContext(), WordRoomDatabase.class)
+                    .setQueryExecutor(Runnable::run)
+                    .setTransactionExecutor(Runnable::run)
+                    .allowMainThreadQueries()
+                    .build();
+            try {
+                run(db, rows, report);
+            } finally {
+                db.close();
+            }
+        }
+        report.write();
+    }
+
+    private void run(WordRoomDatabase db, int rows, BenchmarkReport report) throws Exception {
+        WordDao dao = db.wordDao();
+        int batch = Math.min(INSERT_BATCH, rows);
+        report.add(Benchmark.measure("insertAll[batch=" + batch + "]", rows, 0, rows / batch,
+                i -> dao.insertAll(words(i * batch, batch))));
+
+        // 之後寫入的單字接在rows之後，不會與既有的重複
+        int[] next = {rows};
+        report.add(Benchmark.measure("insert", rows, 100, 1000,
+                i -> dao.insert(new Word(key(next[0]++)))));
+
+        Random random = new Random(42);
+        report.add(Benchmark.measure("countWord", rows, 200, 2000,
+                i -> dao.countWord(key(random.nextInt(rows)))));
+        report.add(Benchmark.measure("getPageFrom[" + PAGE_SIZE + "]", rows, 200, 2000,
+                i -> dao.getPageFrom(key(random.nextInt(rows)), PAGE_SIZE)));
+
+        // 整張表讀進記憶體，資料量越大次數越少
+        int fullLoads = Math.max(3, Math.min(50, 1_000_000 / rows));
+        int[] loaded = new int[1];
+        report.add(Benchmark.measure("getAlphabetizedWords", rows, 1, fullLoads,
+                i -> loaded[0] = loadAll(dao.getAlphabetizedWords())));
+        assertEquals(next[0], loaded[0]);
+
+        // 新增一個單字後重新查詢: Room的LiveData vs 共用Word的WordListLiveData
+        int requeries = Math.max(3, Math.min(20, 1_000_000 / rows));
+        LiveData<List<Word>> roomLiveData = dao.getAlphabetizedWords();
+        report.add(Benchmark.measure("requeryAfterInsert[room]", rows, 1, requeries, i -> {
+            dao.insert(new Word(key(next[0]++)));
+            loaded[0] = loadAll(roomLiveData);
+        }));
+        WordListLiveData internedLiveData = new WordListLiveData(db, Runnable::run);
+        loadAll(internedLiveData);
+        report.add(Benchmark.measure("requeryAfterInsert[interned]", rows, 1, requeries, i -> {
+            dao.insert(new Word(key(next[0]++)));
+            loaded[0] = loadAll(internedLiveData);
+        }));
+        internedLiveData.close();
+        assertEquals(next[0], loaded[0]);
+
+        report.add(Benchmark.measure("deleteAll", rows, 0, 1, i -> dao.deleteAll()));
+    }
+
+    /**
+     * observe一次取得結果 (InstantTaskExecutorRule + 直接執行的queryExecutor下是同步的)
+     */
+    private static int loadAll(LiveData<List<Word>> liveData) {
+        int[] size = {-1};
+        Observer<List<Word>> observer = words -> size[0] = words.size();
+        liveData.observeForever(observer);
+        liveData.removeObserver(observer);
+        return size[0];
+    }
+
+    static List<Word> words(int from, int count) {
+        List<Word> words = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            words.add(new Word(key(i)));
+        }
+        return words;
+    }
+
+    /**
+     * 第i個單字: 以可逆的混合函數打亂，不同的i一定得到不同的單字
+     */
+    static String key(int i) {
+        long h = i;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return String.format(Locale.US, "w%016x", h);
+    }
+}
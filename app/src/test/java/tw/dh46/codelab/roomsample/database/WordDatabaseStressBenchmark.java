@@ -0,0 +1,239 @@
+package tw.dh46.codelab.roomsample.database;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tw.dh46.codelab.roomsample.benchmark.Benchmark;
+import tw.dh46.codelab.roomsample.benchmark.BenchmarkReport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WordRoomDatabase在多個讀取者/寫入者同時存取下的正確性與延遲
+ * - 每種組合(讀取緒x寫入緒)同時開始，讀取者以keyset分頁讀取隨機位置，寫入者各自寫入不重複的單字。
+ * - 遺失的寫入: 結束後資料表的筆數必須等於開始時的筆數 + 所有寫入者確認(rowId != -1)的筆數。
+ * - 鎖逾時: SQLiteDatabaseLockedException (busy timeout到了還拿不到鎖) 的次數。
+ * 同一個Room實體的寫入在connection pool裡排隊，不會逾時，所以第一個寫入者使用另一個實體
+ * (同一個檔案，等同其他process或WordTransferService)，與其他寫入者競爭SQLite的檔案鎖。
+ * - 讀取與寫入各自輸出吞吐量與p50/p99，用來決定DatabaseExecutors的讀取緒數量，
+ * 以及確認多個寫入緒只會互相等待 (見DatabaseExecutors只有一個寫入緒的理由)。
+ * - 在JVM上以Robolectric的SQLite執行，數據適合比較不同組合的相對差異，不代表裝置上的絕對值。
+ *
+ * 執行: ./gradlew benchmark [-PbenchmarkRows=1000,100000] [-PstressMixes=1x1,4x1,8x1,4x4]
+ * 結果: app/build/reports/benchmarks/WordDatabaseStressBenchmark.json
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class WordDatabaseStressBenchmark {
+
+    private static final int INSERT_BATCH = 5000;
+    private static final int PAGE_SIZE = 50;
+    // 每個寫入者一次寫入的單字數 (與WordInsertBatcher合併後的小批次相近)
+    private static final int WRITE_BATCH = 10;
+    private static final int OPS_PER_THREAD = 500;
+
+    @Test
+    public void readerWriterMixes() throws Exception {
+        Context context = ApplicationProvider.getApplicationContext();
+        // 量測的是SQLite本身，不經過instrumentation的Proxy
+        WordRoomDatabase.setQueryObserver(QueryObserver.NONE);
+        BenchmarkReport report = new BenchmarkReport("WordDatabaseStressBenchmark");
+        for (int rows : Benchmark.rowCounts()) {
+            String name = "stress_" + rows;
+            context.deleteDatabase(name);
+            WordRoomDatabase db = WordRoomDatabase.buildDatabase(context, name, SqliteProfile.BALANCED);
+            WordRoomDatabase other = null;
+            try {
+                WordDao dao = db.wordDao();
+                for (int i = 0; i < rows; i += INSERT_BATCH) {
+                    dao.insertAll(WordDaoBenchmark.words(i, Math.min(INSERT_BATCH, rows - i)));
+                }
+                other = WordRoomDatabase.buildDatabase(context, name, SqliteProfile.BALANCED);
+                int[] nextKey = {rows};
+                for (int[] mix : mixes()) {
+                    run(dao, other.wordDao(), mix[0], mix[1], nextKey, report);
+                }
+            } finally {
+                if (other != null) {
+                    other.close();
+                }
+                db.close();
+                context.deleteDatabase(name);
+            }
+        }
+        report.write();
+    }
+
+    /**
+     * 執行一種組合
+     * @param otherDao 同一個檔案的另一個Room實體，第一個寫入者使用
+     * @param nextKey 還沒用過的單字編號，每個寫入者從這裡分到自己的範圍
+     */
+    private void run(WordDao dao, WordDao otherDao, int readers, int writers, int[] nextKey,
+                     BenchmarkReport report) throws Exception {
+        int rowsBefore = dao.countWords();
+        String mix = readers + "x" + writers;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Worker> readerWorkers = new ArrayList<>();
+        List<Worker> writerWorkers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int r = 0; r < readers; r++) {
+            Random random = new Random(r);
+            Worker worker = new Worker(i -> {
+                String key = WordDaoBenchmark.key(random.nextInt(nextKey[0]));
+                assertTrue(dao.getPageFrom(key, PAGE_SIZE).size() <= PAGE_SIZE);
+                return 0;
+            });
+            readerWorkers.add(worker);
+            threads.add(new Thread(() -> worker.run(start, failure), "stress-read-" + r));
+        }
+        for (int w = 0; w < writers; w++) {
+            int firstKey = nextKey[0] + w * OPS_PER_THREAD * WRITE_BATCH;
+            WordDao writerDao = w == 0 ? otherDao : dao;
+            Worker worker = new Worker(i -> {
+                int inserted = 0;
+                List<Word> words = WordDaoBenchmark.words(firstKey + i * WRITE_BATCH, WRITE_BATCH);
+                for (long rowId : writerDao.insertAll(words)) {
+                    if (rowId != -1L) {
+                        inserted++;
+                    }
+                }
+                return inserted;
+            });
+            writerWorkers.add(worker);
+            threads.add(new Thread(() -> worker.run(start, failure), "stress-write-" + w));
+        }
+        nextKey[0] += writers * OPS_PER_THREAD * WRITE_BATCH;
+
+        long begin = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (failure.get() != null) {
+            throw new AssertionError("worker failed in mix " + mix, failure.get());
+        }
+
+        if (readers > 0) {
+            report.add(result("read[" + mix + "]", rowsBefore, elapsed, readerWorkers));
+        }
+        long acknowledged = 0;
+        if (writers > 0) {
+            report.add(result("write[" + mix + "]", rowsBefore, elapsed, writerWorkers));
+            for (Worker worker : writerWorkers) {
+                acknowledged += worker.mCompleted;
+            }
+        }
+        long lockTimeouts = 0;
+        for (Worker worker : readerWorkers) {
+            lockTimeouts += worker.mLockTimeouts;
+        }
+        for (Worker worker : writerWorkers) {
+            lockTimeouts += worker.mLockTimeouts;
+        }
+        long lostWrites = rowsBefore + acknowledged - dao.countWords();
+        report.addValue("lockTimeouts[" + mix + "]", rowsBefore, "count", lockTimeouts);
+        report.addValue("lostWrites[" + mix + "]", rowsBefore, "rows", lostWrites);
+
+        assertEquals("lost writes in mix " + mix, 0, lostWrites);
+        assertEquals("lock timeouts in mix " + mix, 0, lockTimeouts);
+    }
+
+    /**
+     * 所有執行緒的延遲合併計算p50/p99，吞吐量以整體經過時間計算
+     */
+    private static Benchmark.Result result(String name, int rows, long elapsedNanos, List<Worker> workers) {
+        int count = 0;
+        for (Worker worker : workers) {
+            count += worker.mCount;
+        }
+        long[] durations = new long[count];
+        int offset = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.mDurations, 0, durations, offset, worker.mCount);
+            offset += worker.mCount;
+        }
+        Arrays.sort(durations);
+        return new Benchmark.Result(name, rows, count, elapsedNanos,
+                Benchmark.percentile(durations, 50), Benchmark.percentile(durations, 99), -1);
+    }
+
+    /**
+     * 要執行的組合，由system property "benchmark.stressMixes"指定，格式為 讀取緒x寫入緒 (逗號分隔)
+     */
+    private static List<int[]> mixes() {
+        String property = System.getProperty("benchmark.stressMixes", "1x1,4x1,8x1,4x4");
+        List<int[]> mixes = new ArrayList<>();
+        for (String mix : property.split(",")) {
+            String[] parts = mix.trim().toLowerCase(Locale.US).split("x");
+            if (parts.length == 2) {
+                mixes.add(new int[]{Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())});
+            }
+        }
+        return mixes.isEmpty() ? Collections.singletonList(new int[]{1, 1}) : mixes;
+    }
+
+    /**
+     * 一個讀取者或寫入者: 等待同時開始，執行OPS_PER_THREAD次並記錄每次的時間
+     */
+    private static class Worker {
+
+        interface Operation {
+            /**
+             * @return 確認完成的筆數 (寫入者)
+             */
+            int run(int iteration) throws Exception;
+        }
+
+        private final Operation mOperation;
+        private final long[] mDurations = new long[OPS_PER_THREAD];
+        private int mCount;
+        private long mCompleted;
+        private long mLockTimeouts;
+
+        Worker(Operation operation) {
+            mOperation = operation;
+        }
+
+        void run(CountDownLatch start, AtomicReference<Throwable> failure) {
+            try {
+                start.await();
+                for (int i = 0; i < OPS_PER_THREAD && failure.get() == null; i++) {
+                    long begin = System.nanoTime();
+                    try {
+                        mCompleted += mOperation.run(i);
+                    } catch (SQLiteDatabaseLockedException e) {
+                        // 沒有寫入，不算在確認的筆數中
+                        mLockTimeouts++;
+                    }
+                    mDurations[mCount++] = System.nanoTime() - begin;
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+}
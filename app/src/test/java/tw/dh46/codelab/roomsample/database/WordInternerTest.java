@@ -0,0 +1,78 @@
+package tw.dh46.codelab.roomsample.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * WordInterner: 重新查詢時共用Word，只為新的列建立物件
+ */
+public class WordInternerTest {
+
+    private final WordInterner mInterner = new WordInterner();
+
+    @Test
+    public void unchangedRows_reuseSameInstances() {
+        List<Word> first = pass(0, 1000);
+        assertEquals(1000, mInterner.getMaterializedCount());
+
+        List<Word> second = pass(0, 1000);
+        assertEquals(1000, mInterner.getMaterializedCount());
+        for (int i = 0; i < first.size(); i++) {
+            assertSame(first.get(i), second.get(i));
+        }
+    }
+
+    @Test
+    public void singleInsert_materializesOnlyNewRow() {
+        List<Word> first = pass(0, 1000);
+        List<Word> second = pass(0, 1001);
+
+        assertEquals(1001, mInterner.getMaterializedCount());
+        assertSame(first.get(500), second.get(500));
+        assertEquals(1000, second.get(1000).getId());
+        assertEquals("word1000", second.get(1000).getWord());
+    }
+
+    @Test
+    public void deletedRows_areEvicted() {
+        pass(0, 1000);
+        pass(500, 1000);
+        assertEquals(500, mInterner.size());
+
+        // 被移除的id再出現時重新建立
+        mInterner.beginPass();
+        assertNull(mInterner.obtain(0));
+        mInterner.endPass();
+    }
+
+    @Test
+    public void clear_dropsAllInstances() {
+        pass(0, 100);
+        mInterner.clear();
+        pass(0, 100);
+        assertEquals(200, mInterner.getMaterializedCount());
+    }
+
+    /**
+     * 模擬一次查詢: id在[from, to)的列
+     */
+    private List<Word> pass(int from, int to) {
+        List<Word> words = new ArrayList<>();
+        mInterner.beginPass();
+        for (int id = from; id < to; id++) {
+            Word word = mInterner.obtain(id);
+            if (word == null) {
+                word = mInterner.add(id, "word" + id);
+            }
+            words.add(word);
+        }
+        mInterner.endPass();
+        return words;
+    }
+}
@@ -0,0 +1,101 @@
+package tw.dh46.codelab.roomsample.database;
+
+import android.app.Application;
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 第一次開啟資料庫時的競爭
+ * - 多個執行緒同時呼叫getDatabase()，只能建立一個實體 (double-checked locking)。
+ * - 同時進行的第一次讀取都要看到初始單字: 初始資料在onCreate的transaction中寫入，
+ * 不會有讀到空資料表的時間點。
+ * - 使用一般的Application: WordApplication的warm-up也會開啟word_database，
+ * 會與測試競爭，甚至在重設Singleton之前就建立了實體。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = Application.class)
+public class WordRoomDatabaseConcurrencyTest {
+
+    private static final String DATABASE_NAME = "word_database";
+    private static final int THREADS = 8;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = ApplicationProvider.getApplicationContext();
+        resetSingleton();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        WordRoomDatabase db = resetSingleton();
+        if (db != null) {
+            db.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void concurrentGetDatabase_createsOneInstanceAndSeesSeed() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        WordRoomDatabase[] instances = new WordRoomDatabase[THREADS];
+        int[] counts = new int[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    instances[index] = WordRoomDatabase.getDatabase(mContext);
+                    counts[index] = instances[index].wordDao().countWords();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "open-" + i);
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        for (int i = 0; i < THREADS; i++) {
+            assertSame(instances[0], instances[i]);
+            assertTrue("thread " + i + " saw an empty table", counts[i] > 0);
+            assertEquals(counts[0], counts[i]);
+        }
+    }
+
+    /**
+     * 清掉其他測試留下的Singleton，讓每次都從第一次開啟開始
+     * @return 原本的實體
+     */
+    private static WordRoomDatabase resetSingleton() throws Exception {
+        Field field = WordRoomDatabase.class.getDeclaredField("INSTANCE");
+        field.setAccessible(true);
+        WordRoomDatabase db = (WordRoomDatabase) field.get(null);
+        field.set(null, null);
+        return db;
+    }
+}
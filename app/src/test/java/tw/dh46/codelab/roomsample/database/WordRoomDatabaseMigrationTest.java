@@ -0,0 +1,195 @@
+package tw.dh46.codelab.roomsample.database;
+
+import android.app.Application;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 舊版本的資料庫經過getDatabase()升級到目前的版本
+ * - 以當時Room產生的DDL (見app/schemas) 建立version 1、2、3的檔案DB並寫入資料，
+ * 包含重複寫入、大小寫不同、符號、非ASCII與刪除後留下的rowid空號。
+ * - 升級後檢查筆數、id、unique index、FTS搜尋 (含升級後新增的單字) 與word_fts的prefix設定。
+ * - 使用一般的Application，不跑WordApplication的預熱，避免與測試同時開啟同一個資料庫。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = Application.class)
+public class WordRoomDatabaseMigrationTest {
+
+    private static final String DATABASE_NAME = "word_database";
+
+    private static final String[] VERSION_1 = {
+            "CREATE TABLE IF NOT EXISTS `word_table` (`word` TEXT NOT NULL, PRIMARY KEY(`word`))"
+    };
+    private static final String[] VERSION_2 = {
+            VERSION_1[0],
+            "CREATE VIRTUAL TABLE IF NOT EXISTS `word_fts` USING FTS4(`word` TEXT NOT NULL, content=`word_table`)",
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_word_fts_BEFORE_UPDATE BEFORE UPDATE ON `word_table` "
+                    + "BEGIN DELETE FROM `word_fts` WHERE `docid`=OLD.`rowid`; END",
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_word_fts_BEFORE_DELETE BEFORE DELETE ON `word_table` "
+                    + "BEGIN DELETE FROM `word_fts` WHERE `docid`=OLD.`rowid`; END",
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_word_fts_AFTER_UPDATE AFTER UPDATE ON `word_table` "
+                    + "BEGIN INSERT INTO `word_fts`(`docid`, `word`) VALUES (NEW.`rowid`, NEW.`word`); END",
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_word_fts_AFTER_INSERT AFTER INSERT ON `word_table` "
+                    + "BEGIN INSERT INTO `word_fts`(`docid`, `word`) VALUES (NEW.`rowid`, NEW.`word`); END"
+    };
+    private static final String[] VERSION_3 = {
+            "CREATE TABLE IF NOT EXISTS `word_table` "
+                    + "(`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `word` TEXT NOT NULL)",
+            "CREATE UNIQUE INDEX IF NOT EXISTS `index_word_table_word` ON `word_table` (`word`)",
+            VERSION_2[1], VERSION_2[2], VERSION_2[3], VERSION_2[4], VERSION_2[5]
+    };
+
+    // 依寫入順序，"apple"寫了兩次 (INSERT OR IGNORE)，"gone"寫入後刪除，留下rowid的空號
+    private static final List<String> SEED = Arrays.asList(
+            "apple", "Apple", "apple", "big apple", "gone", "say \"hi\"", "a,b", "中文", "zebra");
+    private static final List<String> EXPECTED = Arrays.asList(
+            "apple", "Apple", "big apple", "say \"hi\"", "a,b", "中文", "zebra");
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = ApplicationProvider.getApplicationContext();
+        resetSingleton();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        WordRoomDatabase db = resetSingleton();
+        if (db != null) {
+            db.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void version1_migratesToCurrent() throws Exception {
+        assertMigrated(createDatabase(1, VERSION_1));
+    }
+
+    @Test
+    public void version2_migratesToCurrent() throws Exception {
+        assertMigrated(createDatabase(2, VERSION_2));
+    }
+
+    @Test
+    public void version3_migratesToCurrent() throws Exception {
+        assertMigrated(createDatabase(3, VERSION_3));
+    }
+
+    /**
+     * @return 升級前每個單字的rowid
+     */
+    private Map<String, Long> createDatabase(int version, String[] schema) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(DATABASE_NAME), null);
+        try {
+            for (String sql : schema) {
+                db.execSQL(sql);
+            }
+            for (String word : SEED) {
+                db.execSQL("INSERT OR IGNORE INTO word_table (word) VALUES (?)", new Object[]{word});
+            }
+            db.execSQL("DELETE FROM word_table WHERE word = 'gone'");
+            db.setVersion(version);
+            Map<String, Long> rowIds = new HashMap<>();
+            try (Cursor cursor = db.rawQuery("SELECT rowid, word FROM word_table", null)) {
+                while (cursor.moveToNext()) {
+                    rowIds.put(cursor.getString(1), cursor.getLong(0));
+                }
+            }
+            return rowIds;
+        } finally {
+            db.close();
+        }
+    }
+
+    private void assertMigrated(Map<String, Long> oldRowIds) throws Exception {
+        WordRoomDatabase database = WordRoomDatabase.getDatabase(mContext);
+        WordDao dao = database.wordDao();
+
+        assertEquals(EXPECTED.size(), (int) onWriter(dao::countWords));
+
+        // 舊表的rowid就是新的id，刪除的"gone"留下的空號也保留
+        Map<String, Long> ids = new HashMap<>();
+        for (Word word : onWriter(() -> dao.findWords(EXPECTED))) {
+            ids.put(word.getWord(), word.getId());
+        }
+        assertEquals(oldRowIds, ids);
+        long maxId = Collections.max(ids.values());
+        assertTrue(ids.get("zebra") - ids.get("a,b") > 1);
+
+        // unique index: 已存在的單字被忽略，新的單字接在最大的id之後
+        List<Long> rowIds = onWriter(() -> dao.insertAll(
+                Arrays.asList(new Word("apple"), new Word("application"))));
+        assertEquals(Long.valueOf(-1), rowIds.get(0));
+        assertTrue(rowIds.get(1) > maxId);
+
+        // FTS: 升級前的單字重建了索引，升級後新增的單字由trigger同步
+        assertEquals(Arrays.asList("Apple", "apple", "application", "big apple"),
+                words(onWriter(() -> dao.searchWords("app*", 10))));
+        assertEquals(Collections.singletonList("say \"hi\""),
+                words(onWriter(() -> dao.searchWords("hi*", 10))));
+        assertEquals(Arrays.asList("Apple", "apple", "application"),
+                words(onWriter(() -> dao.searchPrefix("app", "App", 10))));
+
+        String ftsSql = onWriter(() -> {
+            try (Cursor cursor = database.query(
+                    "SELECT sql FROM sqlite_master WHERE name = 'word_fts'", null)) {
+                assertTrue(cursor.moveToFirst());
+                return cursor.getString(0);
+            }
+        });
+        assertTrue(ftsSql, ftsSql.contains("prefix=`2,3`"));
+    }
+
+    /**
+     * Room不允許在主執行緒存取DB，在寫入緒執行
+     */
+    private static <T> T onWriter(Callable<T> callable) throws Exception {
+        return DatabaseExecutors.get().writer().submit(callable).get();
+    }
+
+    private static List<String> words(List<Word> words) {
+        List<String> result = new ArrayList<>(words.size());
+        for (Word word : words) {
+            result.add(word.getWord());
+        }
+        return result;
+    }
+
+    /**
+     * 清掉其他測試留下的Singleton，每次都重新開啟
+     * @return 原本的實體
+     */
+    private static WordRoomDatabase resetSingleton() throws Exception {
+        Field field = WordRoomDatabase.class.getDeclaredField("INSTANCE");
+        field.setAccessible(true);
+        WordRoomDatabase db = (WordRoomDatabase) field.get(null);
+        field.set(null, null);
+        return db;
+    }
+}
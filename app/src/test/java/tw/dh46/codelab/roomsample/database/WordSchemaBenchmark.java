@@ -0,0 +1,130 @@
+package tw.dh46.codelab.roomsample.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Random;
+
+import tw.dh46.codelab.roomsample.benchmark.Benchmark;
+import tw.dh46.codelab.roomsample.benchmark.BenchmarkReport;
+
+/**
+ * word_table主鍵改版前後的比較 (schema version 2 -> 3)
+ * - text: version 2，以單字(TEXT)為主鍵
+ * - integer: version 3，整數id為主鍵 + word的unique index
+ * 兩種schema各自開一個檔案DB，比較寫入速度、以單字/以主鍵查詢的延遲與檔案大小。
+ * SQLite有編譯dbstat時，另外輸出每個資料表/索引的大小。
+ *
+ * 執行: ./gradlew benchmark -PbenchmarkRows=1000000
+ * 結果: app/build/reports/benchmarks/WordSchemaBenchmark.json
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class WordSchemaBenchmark {
+
+    private static final int INSERT_BATCH = 5000;
+
+    private static final String[] TEXT_KEY_SCHEMA = {
+            "CREATE TABLE word_table (word TEXT NOT NULL, PRIMARY KEY(word))"
+    };
+    private static final String[] INTEGER_KEY_SCHEMA = {
+            "CREATE TABLE word_table (id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, word TEXT NOT NULL)",
+            "CREATE UNIQUE INDEX index_word_table_word ON word_table (word)"
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void textKeyVersusIntegerKey() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("WordSchemaBenchmark");
+        for (int rows : Benchmark.rowCounts()) {
+            run("text", TEXT_KEY_SCHEMA, rows, report);
+            run("integer", INTEGER_KEY_SCHEMA, rows, report);
+        }
+        report.write();
+    }
+
+    private void run(String schema, String[] statements, int rows, BenchmarkReport report)
+            throws Exception {
+        File file = new File(mFolder.getRoot(), schema + "_" + rows + ".db");
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            for (String sql : statements) {
+                db.execSQL(sql);
+            }
+
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT OR IGNORE INTO word_table (word) VALUES (?)");
+            int batch = Math.min(INSERT_BATCH, rows);
+            report.add(Benchmark.measure(schema + ".insert[batch=" + batch + "]", rows, 0,
+                    rows / batch, i -> {
+                        db.beginTransaction();
+                        try {
+                            for (int j = i * batch; j < (i + 1) * batch; j++) {
+                                insert.bindString(1, WordDaoBenchmark.key(j));
+                                insert.executeInsert();
+                            }
+                            db.setTransactionSuccessful();
+                        } finally {
+                            db.endTransaction();
+                        }
+                    }));
+
+            Random random = new Random(42);
+            SQLiteStatement byWord = db.compileStatement(
+                    "SELECT rowid FROM word_table WHERE word = ?");
+            report.add(Benchmark.measure(schema + ".lookupByWord", rows, 500, 5000, i -> {
+                byWord.bindString(1, WordDaoBenchmark.key(random.nextInt(rows)));
+                byWord.simpleQueryForLong();
+            }));
+            // text schema的rowid是隱藏的，integer schema的rowid就是id
+            SQLiteStatement byKey = db.compileStatement(
+                    "SELECT word FROM word_table WHERE rowid = ?");
+            report.add(Benchmark.measure(schema + ".lookupByRowId", rows, 500, 5000, i -> {
+                byKey.bindLong(1, 1 + random.nextInt(rows));
+                byKey.simpleQueryForString();
+            }));
+
+            report.addValue(schema + ".databaseBytes", rows, "bytes",
+                    pragma(db, "page_count") * pragma(db, "page_size"));
+            reportObjectSizes(db, schema, rows, report);
+        } finally {
+            db.close();
+            SQLiteDatabase.deleteDatabase(file);
+        }
+    }
+
+    /**
+     * 每個資料表/索引佔用的大小 (需要SQLITE_ENABLE_DBSTAT_VTAB)
+     */
+    private static void reportObjectSizes(SQLiteDatabase db, String schema, int rows,
+                                          BenchmarkReport report) {
+        try (Cursor cursor = db.rawQuery(
+                "SELECT name, SUM(pgsize) FROM dbstat GROUP BY name", null)) {
+            while (cursor.moveToNext()) {
+                report.addValue(schema + ".bytes[" + cursor.getString(0) + "]", rows,
+                        "bytes", cursor.getLong(1));
+            }
+        } catch (SQLiteException e) {
+            System.out.println("dbstat is not available: " + e.getMessage());
+        }
+    }
+
+    private static long pragma(SQLiteDatabase db, String name) {
+        try (Cursor cursor = db.rawQuery("PRAGMA " + name, null)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+}
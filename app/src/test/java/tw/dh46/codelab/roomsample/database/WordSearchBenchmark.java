@@ -0,0 +1,135 @@
+package tw.dh46.codelab.roomsample.database;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import tw.dh46.codelab.roomsample.benchmark.Benchmark;
+import tw.dh46.codelab.roomsample.benchmark.BenchmarkReport;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 搜尋第一頁的延遲: FTS4 MATCH vs unique index上的範圍查詢 (500k筆)
+ * - fts: searchWords("ab*")，先找出所有符合的列並排序，才套用LIMIT。
+ * - range: searchPrefix("ab", "Ab")，依索引順序讀到LIMIT筆就停止。
+ * - 字首越短符合的筆數越多，兩者的差距越大；一個字母大約符合1/26的資料表。
+ * - 單字是隨機的小寫字母，約1/5第一個字母大寫、約1/10由兩個字詞組成。
+ *
+ * 執行: ./gradlew benchmark
+ * 結果: app/build/reports/benchmarks/WordSearchBenchmark.json
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class WordSearchBenchmark {
+
+    private static final int ROWS = 500_000;
+    private static final int INSERT_BATCH = 5000;
+    // 與WordRepository的一頁相同
+    private static final int LIMIT = 50;
+
+    @Test
+    public void ftsVersusRange() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("WordSearchBenchmark");
+        WordRoomDatabase db = Room.inMemoryDatabaseBuilder(
+                ApplicationProvider.getApplicationContext(), WordRoomDatabase.class)
+                .setQueryExecutor(Runnable::run)
+                .setTransactionExecutor(Runnable::run)
+                .allowMainThreadQueries()
+                .build();
+        try {
+            WordDao dao = db.wordDao();
+            Random random = new Random(42);
+            report.add(Benchmark.measure("insertAll[batch=" + INSERT_BATCH + "]", ROWS, 0,
+                    ROWS / INSERT_BATCH, i -> dao.insertAll(words(random, INSERT_BATCH))));
+            int rows = dao.countWords();
+
+            for (int length = 1; length <= 3; length++) {
+                String[] prefixes = prefixes(new Random(length), length, 100);
+                report.add(Benchmark.measure("fts[prefix=" + length + "]", rows, 20, 200, i -> {
+                    String prefix = prefixes[i % prefixes.length];
+                    dao.searchWords(prefix + "*", LIMIT);
+                }));
+                report.add(Benchmark.measure("range[prefix=" + length + "]", rows, 20, 200, i -> {
+                    String prefix = prefixes[i % prefixes.length];
+                    dao.searchPrefix(prefix, upperFirst(prefix), LIMIT);
+                }));
+                // 兩者都是依word排序的前LIMIT筆: 只比較以字首開頭的單字
+                // (FTS還會比對第二個字詞，這裡以只有一個字詞的結果為準)
+                String prefix = prefixes[0];
+                assertEquals(firstWords(dao.searchPrefix(prefix, upperFirst(prefix), LIMIT)),
+                        firstWords(startingWith(dao.searchWords(prefix + "*", ROWS), prefix)));
+            }
+        } finally {
+            db.close();
+        }
+        report.write();
+    }
+
+    private static List<Word> words(Random random, int count) {
+        List<Word> words = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String word = token(random);
+            if (random.nextInt(5) == 0) {
+                word = upperFirst(word);
+            }
+            if (random.nextInt(10) == 0) {
+                word = word + " " + token(random);
+            }
+            words.add(new Word(word));
+        }
+        return words;
+    }
+
+    private static String token(Random random) {
+        int length = 3 + random.nextInt(8);
+        StringBuilder token = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            token.append((char) ('a' + random.nextInt(26)));
+        }
+        return token.toString();
+    }
+
+    private static String[] prefixes(Random random, int length, int count) {
+        String[] prefixes = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder prefix = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                prefix.append((char) ('a' + random.nextInt(26)));
+            }
+            prefixes[i] = prefix.toString();
+        }
+        return prefixes;
+    }
+
+    private static String upperFirst(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    private static List<Word> startingWith(List<Word> words, String prefix) {
+        String other = upperFirst(prefix);
+        List<Word> result = new ArrayList<>();
+        for (Word word : words) {
+            if (word.getWord().startsWith(prefix) || word.getWord().startsWith(other)) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    private static List<String> firstWords(List<Word> words) {
+        List<String> result = new ArrayList<>(LIMIT);
+        for (int i = 0; i < Math.min(LIMIT, words.size()); i++) {
+            result.add(words.get(i).getWord());
+        }
+        return result;
+    }
+}